@@ -31,7 +31,7 @@ JIDL_FILES="$JIDL_FILES $JIDL_PATH/jidl/variable/modbus/*.java"
 JIDL_FILES="$JIDL_FILES $JIDL_PATH/jidl/variable/opcua/*.java"
 JIDL_FILES="$JIDL_FILES $JIDL_PATH/jidl/variable/s7/*.java"
 JIDL_FILES="$JIDL_FILES $JIDL_PATH/jidl/variable/json/*.java"
-DATA_FILES="$JIDL_PATH/jidl/datalogger/*.java $JIDL_PATH/jidl/datalogger/dataloggerarchiver/*.java $JIDL_PATH/jidl/datalogger/sqlheader/*.java"
+DATA_FILES="$JIDL_PATH/jidl/datalogger/*.java $JIDL_PATH/jidl/datalogger/dataloggerarchiver/*.java $JIDL_PATH/jidl/datalogger/scheduler/*.java $JIDL_PATH/jidl/datalogger/sqlheader/*.java"
 CONNECTION_FILES="$JIDL_PATH/jidl/connectionmanager/*.java"
 CLIENT_FILES="$JIDL_PATH/jidl/jidlclient/*.java"
 UTILS_FILES="$JIDL_PATH/jidl/utils/*.java"
@@ -27,6 +27,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.Consumer;
 import javax.management.AttributeNotFoundException;
 
 import com.github.ilguido.jidl.DataTypes;
@@ -116,6 +117,11 @@ public abstract class ConnectionManager implements DataTypes {
    * The connection address.
    */
   private final String address;
+
+  /**
+   * The log of the data logger.  By default the messages are discarded.
+   */
+  private Consumer<String> log = msg -> {};
   
   /**
    * Mnemonic name of the connection.
@@ -129,9 +135,21 @@ public abstract class ConnectionManager implements DataTypes {
   private int sampleTime = 10;
 
   /**
-   * Timestamp of the last reading.
+   * What to do when a reading cycle is due while the previous one is still
+   * running.  By default the new cycle is skipped.
+   */
+  private OverrunPolicy overrunPolicy = OverrunPolicy.SKIP;
+
+  /**
+   * Which values are logged at each reading.  By default all of them.
    */
-  private Date timestamp = null;
+  private ReportMode reportMode = ReportMode.ALL;
+
+  /**
+   * Timestamp of the last reading in milliseconds since the epoch, or -1 if
+   * there was no reading yet.
+   */
+  private long timestamp = -1;
   
   /**
    * Type of the connection.  This must be set by the constructor of the child
@@ -194,6 +212,24 @@ public abstract class ConnectionManager implements DataTypes {
     return name;
   }
   
+  /**
+   * Returns the overrun policy.
+   *
+   * @return what to do when a cycle is due while the previous one is running
+   */
+  public OverrunPolicy getOverrunPolicy() {
+    return overrunPolicy;
+  }
+  
+  /**
+   * Returns the report mode.
+   *
+   * @return which values are logged at each reading
+   */
+  public ReportMode getReportMode() {
+    return reportMode;
+  }
+  
   /**
    * Returns the requested parameter as a generic object.
    *
@@ -260,7 +296,18 @@ public abstract class ConnectionManager implements DataTypes {
    */
   public Date getTimestamp()
     throws IllegalStateException {
-    if (timestamp == null)
+    return new Date(getTimestampMillis());
+  }
+
+  /**
+   * Returns the timestamp of the last reading as a number.
+   *
+   * @return the timestamp in milliseconds since the epoch
+   * @throws IllegalStateException if the first reading did not happen yet
+   */
+  public long getTimestampMillis()
+    throws IllegalStateException {
+    if (timestamp < 0)
       throw new IllegalStateException("No timestamp available");
 
     return timestamp;
@@ -275,6 +322,28 @@ public abstract class ConnectionManager implements DataTypes {
     return type;
   }
 
+  /**
+   * Returns a variable reader by its position.  The position is the order in
+   * which the variable readers were added to the connection.
+   *
+   * @param inIndex the position of the variable reader, the first is 0
+   * @return a {@link com.github.ilguido.jidl.variable.VariableReader} object
+   * @throws IndexOutOfBoundsException if there is no such variable reader
+   */
+  public VariableReader getVariableReader(int inIndex)
+    throws IndexOutOfBoundsException {
+    return variableReaderList.get(inIndex);
+  }
+
+  /**
+   * Returns the number of variable readers.
+   *
+   * @return the number of variables read through this connection
+   */
+  public int getVariableReaderCount() {
+    return variableReaderList.size();
+  }
+
   /**
    * Returns the list of the names of the variable readers.
    *
@@ -323,6 +392,33 @@ public abstract class ConnectionManager implements DataTypes {
     return v.getValue();
   }
   
+  /**
+   * Returns the number of further sets of values left by the last reading,
+   * that is how many times {@link #next()} can move on.  The count is taken
+   * when called: the changes received afterwards are left to the next
+   * reading. By default, a reading has only one set of values.
+   *
+   * @return the number of pending sets of values
+   */
+  public int getPendingCount() {
+    return 0;
+  }
+
+  /**
+   * Returns <code>true</code> if the last reading left more values to be
+   * logged.  A connection which receives the changes of its variables from
+   * the device can receive more than one change of the same variable between
+   * two readings: the older changes come first, each one with its own
+   * timestamp, then {@link #next()} moves on to the newer ones. By default,
+   * a reading has only one set of values.
+   *
+   * @return <code>true</code> if the current values are not the last ones of
+   *         the reading
+   */
+  public boolean hasNext() {
+    return false;
+  }
+
   /**
    * Returns <code>true</code> if the variable reader list is empty.
    *
@@ -343,6 +439,62 @@ public abstract class ConnectionManager implements DataTypes {
     return (variableWriterList.size() == 0);
   }
   
+  /**
+   * Moves on to the next set of values of the last reading, if
+   * {@link #hasNext()} returns <code>true</code>.  By default, it does
+   * nothing.
+   */
+  public void next() {
+    /* nothing to do */
+  }
+
+  /**
+   * Set the log for the messages of the connection, e.g. the log of the data
+   * logger.
+   *
+   * @param inLog the log
+   * @throws IllegalArgumentException if <code>inLog</code> is
+   *                                  <code>null</code>
+   */
+  public void setLog(Consumer<String> inLog)
+    throws IllegalArgumentException {
+    if (inLog == null)
+      throw new IllegalArgumentException("Log cannot be null");
+
+    log = inLog;
+  }
+
+  /**
+   * Set the overrun policy.
+   *
+   * @param inPolicy what to do when a cycle is due while the previous one is
+   *                 still running
+   * @throws IllegalArgumentException if <code>inPolicy</code> is
+   *                                  <code>null</code>
+   */
+  public void setOverrunPolicy(OverrunPolicy inPolicy)
+    throws IllegalArgumentException {
+    if (inPolicy == null)
+      throw new IllegalArgumentException("Overrun policy cannot be null");
+
+    overrunPolicy = inPolicy;
+  }
+
+  /**
+   * Set the report mode.
+   *
+   * @param inMode which values are logged at each reading
+   * @throws IllegalArgumentException if <code>inMode</code> is
+   *                                  <code>null</code>
+   */
+  public void setReportMode(ReportMode inMode)
+    throws IllegalArgumentException {
+    if (inMode == null)
+      throw new IllegalArgumentException("Report mode cannot be null");
+
+    reportMode = inMode;
+  }
+
   /**
    * Set the sample time.
    *
@@ -417,13 +569,31 @@ public abstract class ConnectionManager implements DataTypes {
    */
   public abstract ConnectionManager read();
   
+  /**
+   * Writes a message to the log, prefixed by the name of the connection.
+   *
+   * @param inMessage the message
+   */
+  protected void log(String inMessage) {
+    log.accept(name + ": " + inMessage);
+  }
+
+  /**
+   * Sets the timestamp of the current values, e.g. to the time the device
+   * reported them.
+   *
+   * @param inTimestamp the timestamp in milliseconds since the epoch
+   */
+  protected void setTimestamp(long inTimestamp) {
+    timestamp = inTimestamp;
+  }
+
   /**
    * Updates the timestamp to now.  The <code>timestamp</code> property is set
    * to now.
    */
   protected void updateTimestamp() {
-    Date now = new Date();
-    timestamp = now;
+    timestamp = System.currentTimeMillis();
   }
 
   /**
@@ -140,8 +140,8 @@ public class JidlProtocolConnectionManager extends ConnectionManager
   }
   
   /**
-   * Should establish a connection to the remote device, but since JIDL 
-   * Protocol is stateless, this does nothing.
+   * Should establish a connection to the remote device, but the connection
+   * is opened by the first reading, so this does nothing.
    *
    */
   @Override
@@ -150,12 +150,14 @@ public class JidlProtocolConnectionManager extends ConnectionManager
   }
   
   /**
-   * Should close the connection to the industrial device, but JIDL Protocol is
-   * stateless.
+   * Closes the connection to the remote server.  The connection is kept open
+   * between two readings, to avoid a TLS handshake at each reading.
    *
    */
   @Override
   public void disconnect() {
+    if (client != null)
+      client.close();
     status = false;
   }
   
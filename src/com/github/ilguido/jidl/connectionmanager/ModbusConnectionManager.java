@@ -21,15 +21,23 @@
 
 package com.github.ilguido.jidl.connectionmanager;
 
-import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.management.AttributeNotFoundException;
 
+import com.github.ilguido.jidl.variable.PlcVariableWriter;
+import com.github.ilguido.jidl.variable.Quality;
 import com.github.ilguido.jidl.variable.VariableReader;
 import com.github.ilguido.jidl.variable.VariableWriter;
 import com.github.ilguido.jidl.variable.modbus.ModbusVariableReader;
 import com.github.ilguido.jidl.variable.modbus.ModbusVariableWriter;
-import org.apache.plc4x.java.PlcDriverManager;
 import org.apache.plc4x.java.api.PlcConnection;
+import org.apache.plc4x.java.api.messages.PlcReadResponse;
+import org.apache.plc4x.java.api.types.PlcResponseCode;
 
 /**
  * ModbusConnectionManager
@@ -40,6 +48,24 @@ import org.apache.plc4x.java.api.PlcConnection;
  */
 
 public class ModbusConnectionManager extends PLCConnectionManager {
+  /**
+   * The maximum number of registers read by a single request.
+   */
+  public static final int MAX_REGISTERS = 125;
+
+  /**
+   * The maximum number of coils or discrete inputs read by a single request.
+   */
+  public static final int MAX_COILS = 2000;
+
+  /**
+   * The addresses that can be read in blocks: the area, i.e. 0 for coils, 1
+   * for discrete inputs, 3 for input registers and 4 for holding registers,
+   * then the number of the first coil or register.
+   */
+  private static final Pattern BLOCK_ADDRESS =
+                                   Pattern.compile("([0134])[xX]?([0-9]+)");
+
   /**
    * The IP address of the Modbus device.
    */
@@ -55,10 +81,23 @@ public class ModbusConnectionManager extends PLCConnectionManager {
    * switching the word order.
    */
   private final boolean reversed;
+
+  /**
+   * The maximum number of unused registers or coils between two variables
+   * read by the same request.
+   */
+  private int gap = 0;
+
+  /**
+   * The read requests of a cycle, or <code>null</code> if they must be
+   * planned again.
+   */
+  private List<ReadBlock> readPlan = null;
   
   /**
-   * Class constructor.  It calls the parent class constructor and then create
-   * the client object.
+   * Class constructor.  It calls the parent class constructor.  The client
+   * object is created later, by {@link #initialize()}, when the data logging
+   * starts.
    *
    * @param inName the mnemonic name of the connection
    * @param inIP the IP address of the device
@@ -81,33 +120,36 @@ public class ModbusConnectionManager extends PLCConnectionManager {
     reversed = inOrder;
 
     setSampleTime(inDeciseconds);
-    
-    // get a client
-    try {
-      initialize();
-    } catch (Exception e) {
-      // FIXME!
-    }
   }
   
   /**
    * Initializes the connection and a <code>PlcConnection</code> object.
    * The <code>PlcConnection</code> object from the PLC4J library handles the 
-   * connection with the remote device.
+   * connection with the remote device; PLC4J connects when creating it, and
+   * the connection is left open. A connection sharing the client of another
+   * one takes its client.
    *
    * @throws IllegalArgumentException if something goes wrong
    */
   public void initialize() 
     throws IllegalArgumentException {    
     try {
-      client = new PlcDriverManager().getConnection(getAddress());
+      client = newClient();
     } catch (Exception e) {
       client = null;
       throw new IllegalArgumentException("Invalid Modbus TCP address: " +
                                          getAddress(), e);
     }
-    
-    disconnect(); //PLC4J always connect when creating a new client
+  }
+
+  /**
+   * Returns the gap tolerance of the read planner.
+   *
+   * @return the maximum number of unused registers or coils between two
+   *         variables read by the same request
+   */
+  public int getGap() {
+    return gap;
   }
 
   /**
@@ -152,6 +194,8 @@ public class ModbusConnectionManager extends PLCConnectionManager {
         return getPort();
       } else if (inParName.equals("order")) {
         return isReversed();
+      } else if (inParName.equals("gap")) {
+        return Integer.valueOf(getGap());
       }
       
     }
@@ -168,7 +212,7 @@ public class ModbusConnectionManager extends PLCConnectionManager {
   @Override
   public String[] getParameterNames() {
     return new String[]{"name", "sample time", "type", "ip address", "port",
-                        "order"};
+                        "order", "gap"};
   }
 
   /**
@@ -225,9 +269,87 @@ public class ModbusConnectionManager extends PLCConnectionManager {
     }
 
     variableReaderList.add(v);
+    readPlan = null;
+    clearRequests();
     return v;
   }
   
+  /**
+   * Reads all the variables listed in this connection and returns itself.
+   * The variables are read in blocks of contiguous registers or coils, with
+   * as few requests as possible, and decoded from the blocks; the requests
+   * are pipelined. If the device refuses a block, its variables are read one
+   * by one. A variable which cannot be read is marked as bad.
+   *
+   * @return this {@link com.github.ilguido.jidl.connectionmanager.ConnectionManager} object
+   */
+  @Override
+  public ConnectionManager read() {
+    // this updates the timestamp
+    updateTimestamp();
+
+    List<ReadBlock> plan = readPlan;
+
+    if (plan == null) {
+      plan = planReads();
+      readPlan = plan;
+    }
+
+    RequestPipeline pipeline = newCycle();
+    List<ReadBlock> failed =
+      Collections.synchronizedList(new ArrayList<ReadBlock>());
+
+    for (final ReadBlock b : plan) {
+      readBlock(pipeline, b, failed);
+    }
+
+    try {
+      pipeline.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    /* Maybe unmapped registers in the blocks: read the variables one by
+     * one, within the same deadline. All the handlers are done by now, so
+     * the list of the failed blocks is complete. */
+    List<ReadBlock> retry;
+
+    synchronized (failed) {
+      retry = new ArrayList<ReadBlock>(failed);
+    }
+
+    for (final ReadBlock b : retry) {
+      for (final ModbusVariableReader v : b.variables) {
+        readItems(pipeline, Collections.singletonList(v));
+      }
+    }
+
+    finishCycle(pipeline);
+
+    return this;
+  }
+
+  /**
+   * Sets the gap tolerance of the read planner.  Two variables are read by
+   * the same request, if there are no more than this number of registers or
+   * coils between them; the unused registers or coils are read and
+   * discarded. Some devices refuse to read registers which are not mapped.
+   *
+   * @param inGap the maximum number of unused registers or coils between two
+   *              variables read by the same request
+   * @throws IllegalArgumentException if <code>inGap</code> is a negative
+   *                                  number
+   */
+  public void setGap(int inGap)
+    throws IllegalArgumentException {
+    if (inGap < 0)
+      throw new IllegalArgumentException("Gap cannot be negative");
+
+    gap = inGap;
+    readPlan = null;
+    clearRequests();
+  }
+
   /**
    * Adds a new {@link com.github.ilguido.jidl.variable.VariableWriter} object to the
    * Modbus connection. Each connection is a link to a number of variables of 
@@ -279,4 +401,248 @@ public class ModbusConnectionManager extends PLCConnectionManager {
     variableWriterList.add(v);
     return v;
   }
+
+  /**
+   * Plans the read requests of a cycle.  The variables are sorted by area and
+   * address, then merged into the largest blocks allowed by the Modbus
+   * limits and by the gap tolerance. A variable whose address cannot be
+   * parsed is read on its own.
+   *
+   * @return the list of the blocks to read
+   */
+  private List<ReadBlock> planReads() {
+    List<ReadBlock> plan = new ArrayList<ReadBlock>();
+    List<ReadBlock> singles = new ArrayList<ReadBlock>();
+    List<ReadBlock> items = new ArrayList<ReadBlock>();
+
+    for (final VariableReader v : variableReaderList) {
+      ModbusVariableReader mv = (ModbusVariableReader) v;
+      Matcher m = BLOCK_ADDRESS.matcher(mv.getAddress());
+
+      if (m.matches()) {
+        items.add(new ReadBlock(m.group(1).charAt(0),
+                                Integer.parseInt(m.group(2)),
+                                mv));
+      } else {
+        singles.add(new ReadBlock(mv));
+      }
+    }
+
+    items.sort(Comparator.comparingInt((ReadBlock b) -> b.area)
+                         .thenComparingInt(b -> b.start));
+
+    ReadBlock current = null;
+
+    for (final ReadBlock item : items) {
+      int limit = (item.area == '0' || item.area == '1') ? MAX_COILS :
+                                                           MAX_REGISTERS;
+
+      if (current != null &&
+          current.area == item.area &&
+          item.start - (current.start + current.count) <= gap &&
+          Math.max(current.start + current.count,
+                   item.start + item.count) - current.start <= limit) {
+        current.merge(item);
+      } else {
+        current = item;
+        plan.add(current);
+      }
+    }
+
+    for (int i = 0; i < plan.size(); i++) {
+      plan.get(i).setName("block" + i);
+    }
+    plan.addAll(singles);
+
+    return plan;
+  }
+
+  /**
+   * Sends the request of a block, built by the first cycle reading the block
+   * and reused by the next ones.  When the response arrives, it decodes
+   * the variables of the block. If the device does not return a block with
+   * more than one variable, the block is added to the failed blocks, so
+   * that its variables can be read one by one.
+   *
+   * @param inPipeline the pipeline of the cycle
+   * @param inBlock the block
+   * @param inFailed the list of the failed blocks
+   */
+  private void readBlock(RequestPipeline inPipeline,
+                         final ReadBlock inBlock,
+                         final List<ReadBlock> inFailed) {
+    if (inBlock.name == null) {
+      readItems(inPipeline,
+                Collections.singletonList(inBlock.variables.get(0)));
+      return;
+    }
+
+    try {
+      inPipeline.submit(() -> getReadRequest(inBlock, () ->
+          client.readRequestBuilder()
+            .addItem(inBlock.name, inBlock.getQuery())
+            .build()).execute(),
+        (PlcReadResponse response, Throwable failure) -> {
+          if (failure != null) {
+            inBlock.setQuality(Quality.BAD);
+            return;
+          }
+
+          if (response.getResponseCode(inBlock.name) != PlcResponseCode.OK) {
+            if (inBlock.variables.size() == 1)
+              inBlock.setQuality(Quality.BAD);
+            else
+              inFailed.add(inBlock);
+            return;
+          }
+
+          for (int i = 0; i < inBlock.variables.size(); i++) {
+            ModbusVariableReader v = inBlock.variables.get(i);
+
+            try {
+              v.decode(response, inBlock.name,
+                       inBlock.offsets.get(i).intValue());
+              v.setQuality(Quality.GOOD);
+            } catch (Exception e) {
+              v.setQuality(Quality.BAD);
+            }
+          }
+        });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Sends the requests to write some variables.  The Modbus driver of PLC4J
+   * takes a single item for each request, so each variable is written by
+   * its own request; the requests are pipelined.
+   *
+   * @param inPipeline the pipeline of the cycle
+   * @param inItems the variables to write
+   * @param inValues the values to write, in the same order
+   */
+  @Override
+  protected void writeItems(RequestPipeline inPipeline,
+                            List<PlcVariableWriter> inItems,
+                            List<Object> inValues) {
+    for (int i = 0; i < inItems.size(); i++) {
+      super.writeItems(inPipeline,
+                       Collections.singletonList(inItems.get(i)),
+                       Collections.singletonList(inValues.get(i)));
+    }
+  }
+
+  /**
+   * ReadBlock
+   * A range of contiguous coils or registers of the same area, read by a
+   * single request, and the variables it holds.
+   *
+   * @version 0.8
+   * @author Stefano Guidoni
+   */
+  private static final class ReadBlock {
+    /**
+     * The area of the block, as the first digit of a Modbus address.
+     */
+    private final char area;
+
+    /**
+     * The number of the first coil or register.
+     */
+    private final int start;
+
+    /**
+     * The number of coils or registers.
+     */
+    private int count;
+
+    /**
+     * The variables in the block.
+     */
+    private final List<ModbusVariableReader> variables;
+
+    /**
+     * The offsets of the variables from the start of the block.
+     */
+    private final List<Integer> offsets;
+
+    /**
+     * The name of the field of the request, or <code>null</code> for a
+     * variable read on its own.
+     */
+    private String name;
+
+    /**
+     * Class constructor.  It creates a block holding a single variable.
+     *
+     * @param inArea the area of the variable
+     * @param inStart the number of the first coil or register of the variable
+     * @param inVariable the variable
+     */
+    ReadBlock(char inArea, int inStart, ModbusVariableReader inVariable) {
+      area = inArea;
+      start = inStart;
+      count = inVariable.getTagSize();
+      variables = new ArrayList<ModbusVariableReader>();
+      variables.add(inVariable);
+      offsets = new ArrayList<Integer>();
+      offsets.add(Integer.valueOf(0));
+      name = null;
+    }
+
+    /**
+     * Class constructor.  It creates a block for a variable read on its own,
+     * by its own address.
+     *
+     * @param inVariable the variable
+     */
+    ReadBlock(ModbusVariableReader inVariable) {
+      this('\0', 0, inVariable);
+    }
+
+    /**
+     * Returns the address of the block, as a PLC4J field query.
+     *
+     * @return the address of the block
+     */
+    String getQuery() {
+      return area + "x" + start + "[" + count + "]";
+    }
+
+    /**
+     * Adds the variables of another block, which starts at or after the start
+     * of this one.
+     *
+     * @param inBlock the other block
+     */
+    void merge(ReadBlock inBlock) {
+      for (int i = 0; i < inBlock.variables.size(); i++) {
+        variables.add(inBlock.variables.get(i));
+        offsets.add(Integer.valueOf(inBlock.start - start +
+                                    inBlock.offsets.get(i).intValue()));
+      }
+      count = Math.max(count, inBlock.start + inBlock.count - start);
+    }
+
+    /**
+     * Sets the quality of all the variables of the block.
+     *
+     * @param inQuality the quality of the values
+     */
+    void setQuality(Quality inQuality) {
+      for (final ModbusVariableReader v : variables) {
+        v.setQuality(inQuality);
+      }
+    }
+
+    /**
+     * Sets the name of the field of the request.
+     *
+     * @param inName the name of the field
+     */
+    void setName(String inName) {
+      name = inName;
+    }
+  }
 }
@@ -22,21 +22,33 @@
 package com.github.ilguido.jidl.connectionmanager;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import javax.management.AttributeNotFoundException;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
 import com.github.ilguido.jidl.utils.Decrypter;
+import com.github.ilguido.jidl.variable.PlcVariableReader;
 import com.github.ilguido.jidl.variable.VariableReader;
 import com.github.ilguido.jidl.variable.VariableWriter;
 import com.github.ilguido.jidl.variable.opcua.OPCUAVariableReader;
 import com.github.ilguido.jidl.variable.opcua.OPCUAVariableWriter;
-import org.apache.plc4x.java.PlcDriverManager;
 import org.apache.plc4x.java.api.PlcConnection;
+import org.apache.plc4x.java.api.messages.PlcSubscriptionRequest;
+import org.apache.plc4x.java.api.messages.PlcSubscriptionResponse;
+import org.apache.plc4x.java.api.model.PlcConsumerRegistration;
+import org.apache.plc4x.java.api.model.PlcSubscriptionHandle;
+import org.apache.plc4x.java.api.types.PlcResponseCode;
 
 /**
  * OPCUAConnectionManager
- * Class to manage a connection to a OPC-UA capable device.
+ * Class to manage a connection to a OPC-UA capable device.  The variables
+ * with a sampling interval are monitored by a subscription, made on
+ * connection; the other variables, and those the server refused to monitor,
+ * are polled.
  *
  * @version 0.8
  * @author Stefano Guidoni
@@ -53,6 +65,18 @@ public class OPCUAConnectionManager extends PLCConnectionManager {
    */
   private final String ipAddress;
 
+  /**
+   * The registrations of the consumers of the subscription.
+   */
+  private final List<PlcConsumerRegistration> registrations =
+    new ArrayList<PlcConsumerRegistration>();
+
+  /**
+   * The variables monitored by the subscription.
+   */
+  private final List<OPCUAVariableReader> subscribedList =
+    new ArrayList<OPCUAVariableReader>();
+
   /**
    * The password for the user authentication of the OPCUA connection.
    */
@@ -74,8 +98,9 @@ public class OPCUAConnectionManager extends PLCConnectionManager {
   private final String username;
   
   /**
-   * Class constructor.  It calls the parent class constructor and then create
-   * the client object. If a user name and a password are provided, those are
+   * Class constructor.  It calls the parent class constructor.  The client
+   * object is created later, by {@link #initialize()}, when the data logging
+   * starts. If a user name and a password are provided, those are
    * used for the login. If a salt and initialization vector are provided too,
    * then the user name and the password are expected to be Base64 encoded,
    * AES encrypted strings.
@@ -123,35 +148,119 @@ public class OPCUAConnectionManager extends PLCConnectionManager {
     password = inPassword;
 
     setSampleTime(inDeciseconds);
-    
-    // get a client
-    try {
-      initialize();
-    } catch (Exception e) {
-      // FIXME!
+  }
+
+  /**
+   * Establishes a connection to the OPC UA server and subscribes the
+   * variables with a sampling interval.
+   *
+   * @throws IOException if the connection cannot be established
+   */
+  @Override
+  public void connect()
+    throws IOException {
+    super.connect();
+    subscribe();
+  }
+
+  /**
+   * Cancels the subscription and closes the connection to the OPC UA
+   * server.
+   */
+  @Override
+  public void disconnect() {
+    for (final PlcConsumerRegistration r : registrations) {
+      try {
+        r.unregister();
+      } catch (Exception e) {
+        /* the connection is closing anyway */
+      }
     }
+    registrations.clear();
+    subscribedList.clear();
+
+    super.disconnect();
+  }
+
+  /**
+   * Returns the largest number of changes queued by a subscribed variable,
+   * at most its queue size.
+   *
+   * @return the number of pending sets of values
+   */
+  @Override
+  public int getPendingCount() {
+    int pending = 0;
+
+    for (final OPCUAVariableReader v : subscribedList) {
+      pending = Math.max(pending,
+                         Math.min(v.getPendingCount(), v.getQueueSize()));
+    }
+
+    return pending;
+  }
+
+  /**
+   * Returns <code>true</code> if a subscribed variable has more changes
+   * queued.
+   *
+   * @return <code>true</code> if the current values are not the last ones of
+   *         the reading
+   */
+  @Override
+  public boolean hasNext() {
+    for (final OPCUAVariableReader v : subscribedList) {
+      if (v.getPendingCount() > 0)
+        return true;
+    }
+
+    return false;
   }
 
   /**
    * Initializes the connection and a <code>PlcConnection</code> object.
    * The <code>PlcConnection</code> object from the PLC4J library handles the 
-   * connection with the remote device.
+   * connection with the remote device; PLC4J connects when creating it, and
+   * the connection is left open. A connection sharing the client of another
+   * one takes its client.
    *
    * @throws IllegalArgumentException if something goes wrong
    */
   public void initialize() 
     throws IllegalArgumentException {
     try {
-      client = new PlcDriverManager().getConnection(getAddress());
+      client = newClient();
     } catch (Exception e) {
       client = null;
       throw new IllegalArgumentException("Invalid OPC UA address: " +
                                          getAddress(), e);
     }
-    
-    disconnect(); //PLC4J always connect when creating a new client
   }
   
+  /**
+   * Applies the oldest pending change of each subscribed variable.  If more
+   * changes are left, the timestamp is set to the newest receive time
+   * of the applied changes.
+   *
+   * @return <code>true</code> if a change was applied
+   */
+  private boolean applyChanges() {
+    boolean applied = false;
+    long time = -1;
+
+    for (final OPCUAVariableReader v : subscribedList) {
+      if (v.applyNext()) {
+        applied = true;
+        time = Math.max(time, v.getChangeTimestamp());
+      }
+    }
+
+    if (time >= 0 && hasNext())
+      setTimestamp(time);
+
+    return applied;
+  }
+
   /**
    * Returns the IP address of the connected device.
    *
@@ -200,6 +309,15 @@ public class OPCUAConnectionManager extends PLCConnectionManager {
     return new String[]{"name", "sample time", "type", "ip address", "port"};
   }
 
+  /**
+   * Applies the next pending change of each subscribed variable.
+   */
+  @Override
+  public void next() {
+    updateTimestamp();
+    applyChanges();
+  }
+
   /**
    * Returns the port number of the connection.
    *
@@ -209,6 +327,97 @@ public class OPCUAConnectionManager extends PLCConnectionManager {
     return Integer.valueOf(port);
   }
 
+  /**
+   * Reads the variables of this connection and returns itself.  The polled
+   * variables are read by a single request; the subscribed variables take
+   * the oldest change pushed by the server since the last reading, if any,
+   * and keep their value otherwise.
+   *
+   * @return this {@link com.github.ilguido.jidl.connectionmanager.ConnectionManager} object
+   */
+  @Override
+  public ConnectionManager read() {
+    // this updates the timestamp
+    updateTimestamp();
+
+    RequestPipeline pipeline = newCycle();
+    List<PlcVariableReader> items = new ArrayList<PlcVariableReader>();
+
+    for (final VariableReader v : variableReaderList) {
+      if (subscribedList.contains(v))
+        continue;
+
+      if (v instanceof PlcVariableReader)
+        items.add((PlcVariableReader) v);
+      else
+        readVariable(v);
+    }
+
+    readItems(pipeline, items);
+    finishCycle(pipeline);
+    applyChanges();
+
+    return this;
+  }
+
+  /**
+   * Subscribes the variables with a sampling interval, with a monitored
+   * item for each variable.  The variables which cannot be subscribed are
+   * polled, and this is logged.
+   */
+  private void subscribe() {
+    List<OPCUAVariableReader> candidates =
+      new ArrayList<OPCUAVariableReader>();
+
+    for (final VariableReader v : variableReaderList) {
+      if (v instanceof OPCUAVariableReader &&
+          ((OPCUAVariableReader) v).isSubscribed())
+        candidates.add((OPCUAVariableReader) v);
+    }
+
+    if (candidates.isEmpty())
+      return;
+
+    PlcSubscriptionRequest.Builder builder =
+      client.subscriptionRequestBuilder();
+
+    for (final OPCUAVariableReader v : candidates) {
+      builder.addCyclicField(v.getName(), v.getFieldQuery(),
+                             Duration.ofMillis(v.getSamplingInterval()));
+    }
+
+    PlcSubscriptionResponse response;
+
+    try {
+      response = builder.build().execute()
+                   .get(getRttEstimator().getMaxTimeout(), MILLISECONDS);
+    } catch (Exception e) {
+      log("subscription refused, " + candidates.size() +
+          " variables polled: " + e.getMessage());
+      return;
+    }
+
+    for (final OPCUAVariableReader v : candidates) {
+      final String field = v.getName();
+
+      try {
+        PlcResponseCode code = response.getResponseCode(field);
+
+        if (code != PlcResponseCode.OK) {
+          log(field + " not monitored (" + code + "), polled");
+          continue;
+        }
+
+        PlcSubscriptionHandle handle = response.getSubscriptionHandle(field);
+
+        registrations.add(handle.register(event -> v.notify(event, field)));
+        subscribedList.add(v);
+      } catch (Exception e) {
+        log(field + " not monitored, polled: " + e.getMessage());
+      }
+    }
+  }
+
   /**
    * Adds a new {@link com.github.ilguido.jidl.variable.VariableReader} object to the
    * Modbus connection. Each connection is a link to a number of variables of 
@@ -0,0 +1,71 @@
+/**
+ * OverrunPolicy.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.connectionmanager;
+
+/**
+ * OverrunPolicy
+ * What to do when a connection is due for a new cycle, while its previous
+ * cycle is still running.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public enum OverrunPolicy {
+  /**
+   * The new cycle is dropped.
+   */
+  SKIP,
+  /**
+   * All the cycles missed during the overrun are merged into one, which runs
+   * as soon as the previous cycle ends.
+   */
+  COALESCE,
+  /**
+   * All the cycles missed during the overrun run one after the other, as soon
+   * as the previous cycle ends, and their data are timestamped with the time
+   * they were due.
+   */
+  CATCH_UP;
+
+  /**
+   * Returns the policy matching a configuration value.  The value is not case
+   * sensitive and it can use a hyphen instead of the underscore, e.g.
+   * "catch-up".
+   *
+   * @param inValue the name of the policy
+   * @return the matching policy
+   * @throws IllegalArgumentException if there is no such policy
+   */
+  public static OverrunPolicy valueOfPolicy(String inValue)
+    throws IllegalArgumentException {
+    if (inValue == null)
+      throw new IllegalArgumentException("Overrun policy cannot be null");
+
+    try {
+      return valueOf(inValue.trim().toUpperCase().replace('-', '_'));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown overrun policy: " + inValue,
+                                         e);
+    }
+  }
+}
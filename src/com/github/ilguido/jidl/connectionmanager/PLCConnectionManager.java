@@ -22,17 +22,41 @@
 package com.github.ilguido.jidl.connectionmanager;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 import com.github.ilguido.jidl.DataTypes;
+import com.github.ilguido.jidl.variable.PlcVariableReader;
+import com.github.ilguido.jidl.variable.PlcVariableWriter;
+import com.github.ilguido.jidl.variable.Quality;
 import com.github.ilguido.jidl.variable.VariableReader;
 import com.github.ilguido.jidl.variable.VariableWriter;
+import org.apache.plc4x.java.PlcDriverManager;
 import org.apache.plc4x.java.api.PlcConnection;
+import org.apache.plc4x.java.api.messages.PlcReadRequest;
+import org.apache.plc4x.java.api.messages.PlcReadResponse;
+import org.apache.plc4x.java.api.messages.PlcWriteRequest;
+import org.apache.plc4x.java.api.messages.PlcWriteResponse;
+import org.apache.plc4x.java.api.model.PlcField;
+import org.apache.plc4x.java.api.types.PlcResponseCode;
 
 /**
  * PLCConnectionManager
  * Superclass to manage a connection to an industrial device.  Each connection
  * allows polling an industrial device and reading a number of variables from
  * that device. This is a common set of methods for PLC devices.
+ * <p>
+ * The requests of a cycle are pipelined: they are sent without waiting for
+ * the previous responses, up to a window of requests in flight. Their
+ * timeouts follow the measured round trip time of the connection, within
+ * configurable bounds.
+ * <p>
+ * The read requests are built once and executed again at each cycle, and the
+ * addresses of the written variables are parsed once; both are built again
+ * when the connection is established again.
  *
  * @version 0.8
  * @author Stefano Guidoni
@@ -43,9 +67,44 @@ public abstract class PLCConnectionManager extends ConnectionManager
                                                       ShareableConnection,
                                                       WriteableConnection {
   /**
-   * The <code>PlcConnection</code> object managing the connection.
+   * The default number of requests in flight.
    */
-  protected PlcConnection client = null;
+  public static final int DEFAULT_WINDOW = 1;
+
+  /**
+   * The <code>PlcConnection</code> object managing the connection.  It is
+   * set by the thread connecting the connection and used by the acquisition.
+   */
+  protected volatile PlcConnection client = null;
+
+  /**
+   * The connection owning the client shared by this one, or
+   * <code>null</code>.
+   */
+  private PLCConnectionManager clientOwner = null;
+
+  /**
+   * The read requests built for this connection, by the key given by the
+   * caller.
+   */
+  private final Map<Object, PlcReadRequest> readRequests =
+    new ConcurrentHashMap<Object, PlcReadRequest>();
+
+  /**
+   * The parsed addresses of the written variables.
+   */
+  private final Map<PlcVariableWriter, PlcField> writeFields =
+    new ConcurrentHashMap<PlcVariableWriter, PlcField>();
+
+  /**
+   * The round trip time estimate, giving the timeouts of the requests.
+   */
+  private final RttEstimator rttEstimator = new RttEstimator();
+
+  /**
+   * The maximum number of requests in flight.
+   */
+  private int window = DEFAULT_WINDOW;
   
   /**
    * Class constructor.  It sets the name of the connection and initializes the
@@ -69,6 +128,9 @@ public abstract class PLCConnectionManager extends ConnectionManager
   @Override
   public void connect()
     throws IOException {
+    /* The requests are bound to the client and its session. */
+    clearRequests();
+
     status = true;
     try {
       if (!getStatus())
@@ -77,6 +139,11 @@ public abstract class PLCConnectionManager extends ConnectionManager
       status = false;
       throw new IOException("Cannot connect: " + getName(), e);
     }
+
+    /* The device may have lost the written values. */
+    for (final VariableWriter v : variableWriterList) {
+      v.getWriteSchedule().reset();
+    }
   }
   
   /**
@@ -104,6 +171,24 @@ public abstract class PLCConnectionManager extends ConnectionManager
     return (Object) client;
   }
   
+  /**
+   * Returns the round trip time estimate of the connection.
+   *
+   * @return the round trip time estimator
+   */
+  public RttEstimator getRttEstimator() {
+    return rttEstimator;
+  }
+
+  /**
+   * Returns the maximum number of requests in flight.
+   *
+   * @return the size of the window of the request pipeline
+   */
+  public int getWindow() {
+    return window;
+  }
+
   /**
    * Returns the status of the connection.
    *
@@ -132,8 +217,117 @@ public abstract class PLCConnectionManager extends ConnectionManager
     return client != null;
   }
   
+  /**
+   * Drops the read requests and the parsed addresses, so that they are built
+   * again by the next cycle.
+   */
+  protected void clearRequests() {
+    readRequests.clear();
+    writeFields.clear();
+  }
+
+  /**
+   * Waits for the end of a cycle of requests.  If the connection was lost,
+   * it disconnects, so that the connection is established again.
+   *
+   * @param inPipeline the pipeline of the cycle
+   */
+  protected void finishCycle(RequestPipeline inPipeline) {
+    try {
+      inPipeline.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (inPipeline.isConnectionLost()) {
+      /* an error with the connection occurred,
+       * disconnect and retry to connect */
+      disconnect();
+    }
+  }
+
+  /**
+   * Returns the read request of the given key.  The request is built only
+   * the first time, then the same request is returned until the connection
+   * is established again.
+   *
+   * @param inKey an object identifying the request, it must be equal for the
+   *              same set of items
+   * @param inBuilder the function building the request
+   * @return the read request
+   */
+  protected PlcReadRequest getReadRequest(Object inKey,
+                                          Supplier<PlcReadRequest> inBuilder) {
+    PlcReadRequest request = readRequests.get(inKey);
+
+    if (request == null) {
+      request = inBuilder.get();
+      readRequests.put(inKey, request);
+    }
+
+    return request;
+  }
+
+  /**
+   * Returns the parsed address of a written variable.  The address is
+   * parsed only the first time, through a read request, since PLC4J does not
+   * parse a field query on its own.
+   *
+   * @param inVariable the written variable
+   * @return the field of the variable
+   */
+  private PlcField getWriteField(PlcVariableWriter inVariable) {
+    PlcField field = writeFields.get(inVariable);
+
+    if (field == null) {
+      field = client.readRequestBuilder()
+                .addItem(inVariable.getName(), inVariable.getFieldQuery())
+                .build()
+                .getField(inVariable.getName());
+      writeFields.put(inVariable, field);
+    }
+
+    return field;
+  }
+
+  /**
+   * Starts a cycle of requests.
+   *
+   * @return a new request pipeline, with the window and the timeouts of
+   *         this connection
+   */
+  protected RequestPipeline newCycle() {
+    return new RequestPipeline(window, rttEstimator);
+  }
+
+  /**
+   * Returns a client for the device.  If this connection shares the client
+   * of another one, it returns that client.
+   *
+   * @return a <code>PlcConnection</code> object, already connected if it is
+   *         a new one
+   * @throws Exception if the client cannot be created, or the shared client
+   *                   is not initialized yet
+   */
+  protected PlcConnection newClient()
+    throws Exception {
+    if (clientOwner != null) {
+      PlcConnection shared = clientOwner.client;
+
+      if (shared == null)
+        throw new IllegalStateException("Client of " + clientOwner.getName() +
+                                        " not initialized yet");
+      return shared;
+    }
+
+    return new PlcDriverManager().getConnection(getAddress());
+  }
+
   /**
    * Reads all the variables listed in this connection and returns itself.
+   * The variables are read by a single request, with an item for each
+   * variable; PLC4J splits the request as needed by the protocol. An item
+   * which cannot be read marks only its variable as bad.
    *
    * @return this {@link com.github.ilguido.jidl.connectionmanager.ConnectionManager} object
    */
@@ -142,24 +336,125 @@ public abstract class PLCConnectionManager extends ConnectionManager
     // this updates the timestamp
     updateTimestamp();
 
+    RequestPipeline pipeline = newCycle();
+    List<PlcVariableReader> items = new ArrayList<PlcVariableReader>();
+
     for (final VariableReader v : variableReaderList) {
-      try {
-        v.read(client);
-      } catch (IOException e) {
-        /* an error with the connection occurred,
-         * disconnect and retry to connect */
-        disconnect();
-        break; // exit the for cycle
-      } catch (Exception e) {
-        //TODO: set the variable to some default error value,
-        //      better call a vr.setDefaultValue() or a
-        //      vr.setErrorValue()
-      }
+      if (v instanceof PlcVariableReader)
+        items.add((PlcVariableReader) v);
+      else
+        readVariable(v);
     }
 
+    readItems(pipeline, items);
+    finishCycle(pipeline);
+
     return this;
   }
+
+  /**
+   * Sends a single request to read some variables, with an item for each
+   * variable.  When the response arrives, it sets their values and their
+   * quality. The request is built by the first cycle reading the same
+   * variables, and reused.
+   *
+   * @param inPipeline the pipeline of the cycle
+   * @param inItems the variables to read
+   */
+  protected void readItems(RequestPipeline inPipeline,
+                           List<PlcVariableReader> inItems) {
+    if (inItems.isEmpty())
+      return;
+
+    final List<PlcVariableReader> items =
+      new ArrayList<PlcVariableReader>(inItems);
+
+    try {
+      inPipeline.submit(() -> getReadRequest(items, () -> {
+          PlcReadRequest.Builder builder = client.readRequestBuilder();
+
+          for (final PlcVariableReader v : items) {
+            builder.addItem(v.getName(), v.getFieldQuery());
+          }
+
+          return builder.build();
+        }).execute(), (PlcReadResponse response, Throwable failure) -> {
+          for (final PlcVariableReader v : items) {
+            try {
+              if (failure == null &&
+                  response.getResponseCode(v.getName()) == PlcResponseCode.OK) {
+                v.decode(response, v.getName());
+                v.setQuality(Quality.GOOD);
+              } else {
+                v.setQuality(Quality.BAD);
+              }
+            } catch (Exception e) {
+              /* A value which cannot be decoded. */
+              v.setQuality(Quality.BAD);
+            }
+          }
+        });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Reads a variable on its own request and sets its quality.
+   *
+   * @param inVariable the variable to read
+   * @return <code>false</code> if the connection failed, <code>true</code>
+   *         otherwise
+   */
+  protected boolean readVariable(VariableReader inVariable) {
+    try {
+      inVariable.read(client);
+      inVariable.setQuality(Quality.GOOD);
+    } catch (IOException e) {
+      inVariable.setQuality(Quality.BAD);
+      /* an error with the connection occurred,
+       * disconnect and retry to connect */
+      disconnect();
+      return false;
+    } catch (Exception e) {
+      inVariable.setQuality(Quality.BAD);
+    }
+
+    return true;
+  }
     
+  /**
+   * Sets the bounds of the timeouts of the requests.  Within the bounds, the
+   * timeout follows the measured round trip time; the maximum timeout is
+   * also the deadline of a cycle.
+   *
+   * @param inMinTimeout the minimum timeout in milliseconds
+   * @param inMaxTimeout the maximum timeout in milliseconds
+   * @throws IllegalArgumentException if the minimum is not positive or it is
+   *                                  greater than the maximum
+   */
+  public void setTimeouts(long inMinTimeout, long inMaxTimeout)
+    throws IllegalArgumentException {
+    rttEstimator.setBounds(inMinTimeout, inMaxTimeout);
+  }
+
+  /**
+   * Sets the maximum number of requests in flight.  Some devices, and most
+   * Modbus gateways, process more than one request at a time: a larger
+   * window hides the round trip time of the requests.
+   *
+   * @param inWindow the size of the window of the request pipeline
+   * @throws IllegalArgumentException if <code>inWindow</code> is not a
+   *                                  positive number
+   */
+  public void setWindow(int inWindow)
+    throws IllegalArgumentException {
+    if (inWindow < 1)
+      throw new IllegalArgumentException("Window must be a positive int");
+
+    window = inWindow;
+  }
+
   /**
    * Set the <code>PlcConnection</code> object to be used for connecting to the 
    * industrial device.
@@ -173,32 +468,122 @@ public abstract class PLCConnectionManager extends ConnectionManager
     throws IllegalArgumentException {
     if (inClient instanceof PlcConnection) {
       client = (PlcConnection) inClient;
+      clearRequests();
     } else {
       throw new IllegalArgumentException("Client is not PlcConnection object");
     }
   }
     
   /**
-   * Writes all the variables listed in this connection and returns itself.
+   * Shares the client of another connection to the same device.  The client
+   * is taken from the other connection when this one is initialized.
+   *
+   * @param inConnection the connection owning the client
+   * @throws IllegalArgumentException if the connection is not of the same
+   *                                  kind
+   */
+  @Override
+  public void shareClientOf(ConnectionManager inConnection)
+    throws IllegalArgumentException {
+    if (inConnection == this ||
+        inConnection.getClass() != this.getClass())
+      throw new IllegalArgumentException("Cannot share the client of " +
+                                         inConnection.getName());
+
+    clientOwner = (PLCConnectionManager) inConnection;
+  }
+
+  /**
+   * Writes the variables listed in this connection and returns itself.  A
+   * variable is written only when its write schedule says so, i.e. when its
+   * value changed or its refresh period elapsed; the variables due are
+   * written together by a multi-item request.
    *
    * @return this {@link com.github.ilguido.jidl.connectionmanager.ConnectionManager} object
    */
   @Override
   public ConnectionManager write() {
+    long now = System.currentTimeMillis();
+    List<PlcVariableWriter> items = new ArrayList<PlcVariableWriter>();
+    List<Object> values = new ArrayList<Object>();
 
     for (final VariableWriter v : variableWriterList) {
-      try {
-        v.write(client);
-      } catch (IOException e) {
-        /* an error with the connection occurred,
-         * disconnect and retry to connect */
-        disconnect();
-        break; // exit the for cycle
-      } catch (Exception e) {
-        //FIXME:stub!
+      if (!(v instanceof PlcVariableWriter)) {
+        try {
+          v.write(client);
+        } catch (IOException e) {
+          /* an error with the connection occurred,
+           * disconnect and retry to connect */
+          disconnect();
+          return this;
+        } catch (Exception e) {
+          //FIXME:stub!
+        }
+        continue;
+      }
+
+      PlcVariableWriter pv = (PlcVariableWriter) v;
+      Object value = pv.updateValue();
+
+      /* Nothing to write, e.g. the source could not be read. */
+      if (value == null)
+        continue;
+
+      if (pv.getWriteSchedule().isDue(value, now)) {
+        pv.getWriteSchedule().written(value, now);
+        items.add(pv);
+        values.add(value);
       }
     }
 
+    if (items.isEmpty())
+      return this;
+
+    RequestPipeline pipeline = newCycle();
+
+    writeItems(pipeline, items, values);
+    finishCycle(pipeline);
+
     return this;
   }
+
+  /**
+   * Sends a single request to write some variables, with an item for each
+   * variable.  The values change at each cycle, so the request is built
+   * again, but with the parsed addresses of the variables. A variable which
+   * cannot be written is written again at the next cycle.
+   *
+   * @param inPipeline the pipeline of the cycle
+   * @param inItems the variables to write
+   * @param inValues the values to write, in the same order
+   */
+  protected void writeItems(RequestPipeline inPipeline,
+                            List<PlcVariableWriter> inItems,
+                            List<Object> inValues) {
+    final List<PlcVariableWriter> items =
+      new ArrayList<PlcVariableWriter>(inItems);
+    final List<Object> values = new ArrayList<Object>(inValues);
+
+    try {
+      inPipeline.submit(() -> {
+          PlcWriteRequest.Builder builder = client.writeRequestBuilder();
+
+          for (int i = 0; i < items.size(); i++) {
+            builder.addItem(items.get(i).getName(),
+                            getWriteField(items.get(i)),
+                            values.get(i));
+          }
+
+          return builder.build().execute();
+        }, (PlcWriteResponse response, Throwable failure) -> {
+          for (final PlcVariableWriter v : items) {
+            if (failure != null ||
+                response.getResponseCode(v.getName()) != PlcResponseCode.OK)
+              v.getWriteSchedule().failed();
+          }
+        });
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
 }
@@ -0,0 +1,64 @@
+/**
+ * ReportMode.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.connectionmanager;
+
+/**
+ * ReportMode
+ * Which values of a connection are logged at each reading.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public enum ReportMode {
+  /**
+   * All the values are logged.
+   */
+  ALL,
+  /**
+   * Only the values that changed since they were last logged are logged,
+   * according to the deadband of each variable; the other values are logged
+   * as <code>NULL</code>. A reading with no changed value is not logged at
+   * all.
+   */
+  CHANGES;
+
+  /**
+   * Returns the mode matching a configuration value.  The value is not case
+   * sensitive.
+   *
+   * @param inValue the name of the mode
+   * @return the matching mode
+   * @throws IllegalArgumentException if there is no such mode
+   */
+  public static ReportMode valueOfMode(String inValue)
+    throws IllegalArgumentException {
+    if (inValue == null)
+      throw new IllegalArgumentException("Report mode cannot be null");
+
+    try {
+      return valueOf(inValue.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown report mode: " + inValue, e);
+    }
+  }
+}
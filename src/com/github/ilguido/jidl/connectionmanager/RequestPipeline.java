@@ -0,0 +1,361 @@
+/**
+ * RequestPipeline.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.ilguido.jidl.connectionmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.apache.plc4x.java.api.exceptions.PlcConnectionException;
+
+/**
+ * RequestPipeline
+ * The requests of a cycle of a connection, sent without waiting for the
+ * previous responses.  Up to <code>window</code> requests are in flight at
+ * the same time; the next request is sent as soon as a response arrives.
+ * Each request has a timeout, given by the round trip time estimate of the
+ * connection, and all the requests share the deadline of the cycle, the
+ * upper bound of the timeout: a request still waiting for its response at
+ * its timeout is given up. Once a request fails because the connection is
+ * lost, no more requests are sent.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public final class RequestPipeline {
+  /**
+   * The deadline of the cycle, as a value of <code>System.nanoTime()</code>.
+   */
+  private final long deadline;
+
+  /**
+   * The round trip time estimate of the connection.
+   */
+  private final RttEstimator estimator;
+
+  /**
+   * The free slots of the window.
+   */
+  private final Semaphore slots;
+
+  /**
+   * The requests sent and not yet awaited.
+   */
+  private final List<Pending> pending;
+
+  /**
+   * This is <code>true</code> once a request failed because of the
+   * connection.
+   */
+  private volatile boolean connectionLost;
+
+  /**
+   * This is <code>true</code> if a request was given up, because there was
+   * no response in time.
+   */
+  private boolean timedOut;
+
+  /**
+   * A request sent, with its handler.
+   */
+  private static final class Pending {
+    /**
+     * The future of the response.
+     */
+    final CompletableFuture<?> future;
+
+    /**
+     * The stage completed once the handler of the response has run.
+     */
+    final CompletableFuture<?> stage;
+
+    /**
+     * The timeout of the request, as a value of <code>System.nanoTime()</code>.
+     */
+    final long timeLimit;
+
+    /**
+     * This is set by the first one to hand the outcome to the handler.
+     */
+    final AtomicBoolean done;
+
+    /**
+     * The handler of a timeout.
+     */
+    final Runnable timeout;
+
+    /**
+     * Class constructor.
+     *
+     * @param inFuture the future of the response
+     * @param inStage the stage completed once the handler has run
+     * @param inTimeLimit the timeout of the request, as a value of
+     *                    <code>System.nanoTime()</code>
+     * @param inDone the flag shared with the completion of the future
+     * @param inTimeout the handler of a timeout
+     */
+    Pending(CompletableFuture<?> inFuture,
+            CompletableFuture<?> inStage,
+            long inTimeLimit,
+            AtomicBoolean inDone,
+            Runnable inTimeout) {
+      future = inFuture;
+      stage = inStage;
+      timeLimit = inTimeLimit;
+      done = inDone;
+      timeout = inTimeout;
+    }
+  }
+
+  /**
+   * Class constructor.  The deadline starts now.
+   *
+   * @param inWindow the maximum number of requests in flight
+   * @param inEstimator the round trip time estimate of the connection, which
+   *                    gives the timeouts and takes the measures of the
+   *                    requests
+   * @throws IllegalArgumentException if the window is not a positive number
+   */
+  public RequestPipeline(int inWindow, RttEstimator inEstimator)
+    throws IllegalArgumentException {
+    if (inWindow < 1)
+      throw new IllegalArgumentException("Window must be a positive int");
+
+    estimator = inEstimator;
+    deadline = System.nanoTime() +
+               TimeUnit.MILLISECONDS.toNanos(inEstimator.getMaxTimeout());
+    slots = new Semaphore(inWindow);
+    pending = new ArrayList<Pending>();
+    connectionLost = false;
+    timedOut = false;
+  }
+
+  /**
+   * Waits for the responses of all the requests sent, up to their timeouts.
+   * The requests without a response in time are given up and their handlers
+   * receive a <code>TimeoutException</code>; the timeout of the connection is
+   * backed off. When this method returns, the handlers of the responses have
+   * run to the end, and no handler will run later.
+   *
+   * @return <code>true</code> if all the responses arrived in time
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean await()
+    throws InterruptedException {
+    boolean inTime = !timedOut;
+
+    for (final Pending p : pending) {
+      long left = Math.min(p.timeLimit, deadline) - System.nanoTime();
+
+      try {
+        if (left > 0)
+          p.stage.get(left, TimeUnit.NANOSECONDS);
+      } catch (ExecutionException | TimeoutException e) {
+        /* the handler got the failure, or it gets the timeout below */
+      }
+
+      if (!p.stage.isDone()) {
+        if (expire(p)) {
+          inTime = false;
+        } else {
+          /* The response arrived just now: let its handler finish. */
+          try {
+            p.stage.get();
+          } catch (ExecutionException e) {
+            /* the handler failed, nothing to do */
+          }
+        }
+      }
+    }
+
+    pending.clear();
+    timedOut = false;
+
+    if (!inTime)
+      estimator.backoff();
+
+    return inTime;
+  }
+
+  /**
+   * Returns the time left before the deadline.
+   *
+   * @return the time left in milliseconds, or zero if the deadline passed
+   */
+  public long getRemaining() {
+    return Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline -
+                                                     System.nanoTime()));
+  }
+
+  /**
+   * Returns <code>true</code> if a request failed because the connection
+   * was lost.
+   *
+   * @return <code>true</code> if the connection was lost
+   */
+  public boolean isConnectionLost() {
+    return connectionLost;
+  }
+
+  /**
+   * Sends a request, as soon as there is a free slot in the window.  The
+   * handler is called exactly once, with either the response or the
+   * failure: the failure is a <code>TimeoutException</code> if there was no
+   * free slot before the deadline, or no response before the timeout. While
+   * the window is full, the wait for a slot is bounded by the timeout of the
+   * oldest request in flight: at its timeout, that request is given up and
+   * its slot goes to this one. The handler may run on a thread of the
+   * driver, so it must touch only the state of its request.
+   *
+   * @param <T> the type of the response
+   * @param inRequest the function sending the request and returning the
+   *                  future of its response
+   * @param inHandler the handler of the response or of the failure
+   * @return <code>false</code> if the request was not sent
+   * @throws InterruptedException if interrupted while waiting for a slot
+   */
+  public <T> boolean submit(Supplier<? extends CompletableFuture<? extends T>>
+                              inRequest,
+                            BiConsumer<? super T, Throwable> inHandler)
+    throws InterruptedException {
+    if (connectionLost) {
+      inHandler.accept(null, new PlcConnectionException("Connection lost"));
+      return false;
+    }
+
+    while (!slots.tryAcquire()) {
+      Pending oldest = oldestInFlight();
+      long limit = (oldest == null ? deadline
+                                   : Math.min(oldest.timeLimit, deadline));
+
+      if (slots.tryAcquire(Math.max(0, limit - System.nanoTime()),
+                           TimeUnit.NANOSECONDS))
+        break;
+
+      if (oldest == null || System.nanoTime() - deadline >= 0) {
+        inHandler.accept(null, new TimeoutException("No free slot in time"));
+        return false;
+      }
+
+      /* The oldest request is late: give it up, which frees its slot. */
+      expire(oldest);
+    }
+
+    CompletableFuture<? extends T> future;
+    final long sent = System.nanoTime();
+
+    try {
+      future = inRequest.get();
+    } catch (RuntimeException e) {
+      slots.release();
+      inHandler.accept(null, e);
+      return false;
+    }
+
+    final AtomicBoolean done = new AtomicBoolean(false);
+
+    final long timeLimit = sent +
+      TimeUnit.MILLISECONDS.toNanos(estimator.getTimeout());
+
+    CompletableFuture<?> stage = future.whenComplete((response, failure) -> {
+      slots.release();
+
+      Throwable cause = unwrap(failure);
+
+      if (cause instanceof PlcConnectionException)
+        connectionLost = true;
+
+      if (done.compareAndSet(false, true)) {
+        if (cause == null)
+          estimator.sample((System.nanoTime() - sent) / 1e6);
+        inHandler.accept(response, cause);
+      }
+    });
+
+    pending.add(new Pending(future, stage, timeLimit, done, () ->
+      inHandler.accept(null, new TimeoutException("No response in time"))));
+
+    return true;
+  }
+
+  /**
+   * Gives up a request without a response in time.  Its handler receives a
+   * <code>TimeoutException</code> and its future is cancelled, which frees
+   * its slot.
+   *
+   * @param inPending the request
+   * @return <code>false</code> if the response arrived meanwhile and its
+   *         handler got it
+   */
+  private boolean expire(Pending inPending) {
+    if (!inPending.done.compareAndSet(false, true))
+      return false;
+
+    timedOut = true;
+    inPending.timeout.run();
+    inPending.future.cancel(false);
+
+    return true;
+  }
+
+  /**
+   * Returns the oldest request still waiting for its response.
+   *
+   * @return the oldest request in flight, or <code>null</code>
+   */
+  private Pending oldestInFlight() {
+    for (final Pending p : pending) {
+      if (!p.stage.isDone())
+        return p;
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the actual cause of a failure of a future.
+   *
+   * @param inFailure the failure, or <code>null</code>
+   * @return the cause of the failure, or <code>null</code>
+   */
+  private static Throwable unwrap(Throwable inFailure) {
+    Throwable t = inFailure;
+
+    while ((t instanceof CompletionException ||
+            t instanceof ExecutionException) &&
+           t.getCause() != null) {
+      t = t.getCause();
+    }
+
+    return t;
+  }
+}
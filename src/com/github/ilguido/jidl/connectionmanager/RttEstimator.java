@@ -0,0 +1,191 @@
+/**
+ * RttEstimator.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.ilguido.jidl.connectionmanager;
+
+/**
+ * RttEstimator
+ * The round trip time of the requests of a connection, measured as a moving
+ * average and a moving mean deviation, as TCP does (RFC 6298).  The timeout
+ * of a request is the smoothed round trip time plus four deviations, within
+ * the configured bounds. A request which times out gives no sample, but
+ * doubles the timeout until the next sample.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public final class RttEstimator {
+  /**
+   * The default lower bound of the timeout, in milliseconds.
+   */
+  public static final long DEFAULT_MIN_TIMEOUT = 200;
+
+  /**
+   * The default upper bound of the timeout, in milliseconds.
+   */
+  public static final long DEFAULT_MAX_TIMEOUT = 3000;
+
+  /**
+   * The weight of a new sample in the smoothed round trip time.
+   */
+  private static final double ALPHA = 1.0 / 8;
+
+  /**
+   * The weight of a new sample in the mean deviation.
+   */
+  private static final double BETA = 1.0 / 4;
+
+  /**
+   * The lower bound of the timeout, in milliseconds.
+   */
+  private long minTimeout = DEFAULT_MIN_TIMEOUT;
+
+  /**
+   * The upper bound of the timeout, in milliseconds.
+   */
+  private long maxTimeout = DEFAULT_MAX_TIMEOUT;
+
+  /**
+   * The smoothed round trip time in milliseconds, or a negative number
+   * before the first sample.
+   */
+  private double srtt = -1;
+
+  /**
+   * The mean deviation of the round trip time, in milliseconds.
+   */
+  private double rttvar = 0;
+
+  /**
+   * The current timeout, in milliseconds.
+   */
+  private long timeout = DEFAULT_MAX_TIMEOUT;
+
+  /**
+   * Doubles the timeout, after a request timed out.
+   */
+  public synchronized void backoff() {
+    timeout = Math.min(maxTimeout, timeout * 2);
+  }
+
+  /**
+   * Returns the upper bound of the timeout.
+   *
+   * @return the maximum timeout in milliseconds
+   */
+  public synchronized long getMaxTimeout() {
+    return maxTimeout;
+  }
+
+  /**
+   * Returns the lower bound of the timeout.
+   *
+   * @return the minimum timeout in milliseconds
+   */
+  public synchronized long getMinTimeout() {
+    return minTimeout;
+  }
+
+  /**
+   * Returns the mean deviation of the round trip time.
+   *
+   * @return the deviation in milliseconds
+   */
+  public synchronized double getRttVariance() {
+    return rttvar;
+  }
+
+  /**
+   * Returns the smoothed round trip time.
+   *
+   * @return the round trip time in milliseconds, or -1 if no request was
+   *         measured yet
+   */
+  public synchronized double getSmoothedRtt() {
+    return srtt < 0 ? -1 : srtt;
+  }
+
+  /**
+   * Returns the timeout of the next request.
+   *
+   * @return the timeout in milliseconds
+   */
+  public synchronized long getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * Adds the round trip time of a request to the estimate.
+   *
+   * @param inRtt the time between the request and its response, in
+   *              milliseconds
+   */
+  public synchronized void sample(double inRtt) {
+    if (srtt < 0) {
+      srtt = inRtt;
+      rttvar = inRtt / 2;
+    } else {
+      rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - inRtt);
+      srtt = (1 - ALPHA) * srtt + ALPHA * inRtt;
+    }
+
+    timeout = Math.max(minTimeout,
+                       Math.min(maxTimeout,
+                                (long) Math.ceil(srtt + 4 * rttvar)));
+  }
+
+  /**
+   * Sets the bounds of the timeout.  The estimate starts again from the
+   * upper bound.
+   *
+   * @param inMinTimeout the minimum timeout in milliseconds
+   * @param inMaxTimeout the maximum timeout in milliseconds
+   * @throws IllegalArgumentException if the minimum is not positive or it is
+   *                                  greater than the maximum
+   */
+  public synchronized void setBounds(long inMinTimeout, long inMaxTimeout)
+    throws IllegalArgumentException {
+    if (inMinTimeout < 1)
+      throw new IllegalArgumentException("Minimum timeout must be positive");
+    if (inMinTimeout > inMaxTimeout)
+      throw new IllegalArgumentException("Minimum timeout greater than " +
+                                         "maximum timeout");
+
+    minTimeout = inMinTimeout;
+    maxTimeout = inMaxTimeout;
+    srtt = -1;
+    rttvar = 0;
+    timeout = inMaxTimeout;
+  }
+
+  /**
+   * Returns the estimate as text, for diagnostics.
+   *
+   * @return the smoothed round trip time, its deviation and the timeout
+   */
+  @Override
+  public String toString() {
+    return String.format("rtt %.1f ms, var %.1f ms, timeout %d ms",
+                         getSmoothedRtt(), getRttVariance(), getTimeout());
+  }
+}
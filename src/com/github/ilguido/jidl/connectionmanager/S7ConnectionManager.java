@@ -28,7 +28,6 @@ import com.github.ilguido.jidl.variable.VariableReader;
 import com.github.ilguido.jidl.variable.VariableWriter;
 import com.github.ilguido.jidl.variable.s7.S7VariableReader;
 import com.github.ilguido.jidl.variable.s7.S7VariableWriter;
-import org.apache.plc4x.java.PlcDriverManager;
 import org.apache.plc4x.java.api.PlcConnection;
 
 /**
@@ -58,8 +57,9 @@ public class S7ConnectionManager extends PLCConnectionManager {
   private final int slot;
 
   /**
-   * Class constructor.  It calls the parent class constructor and then create 
-   * the client object.
+   * Class constructor.  It calls the parent class constructor.  The client
+   * object is created later, by {@link #initialize()}, when the data logging
+   * starts.
    *
    * @param inName the mnemonic name of the variable
    * @param inIP the IP address of the device
@@ -82,33 +82,26 @@ public class S7ConnectionManager extends PLCConnectionManager {
     slot = inSlot;
 
     setSampleTime(inDeciseconds);
-    
-    // get a client
-    try {
-      initialize();
-    } catch (Exception e) {
-      // FIXME!
-    }
   }
 
   /**
    * Initializes the connection and a <code>PlcConnection</code> object.
    * The <code>PlcConnection</code> object from the PLC4J library handles the 
-   * connection with the remote device.
+   * connection with the remote device; PLC4J connects when creating it, and
+   * the connection is left open. A connection sharing the client of another
+   * one takes its client.
    *
    * @throws IllegalArgumentException if something goes wrong
    */
   public void initialize() 
     throws IllegalArgumentException {    
     try {
-      client = new PlcDriverManager().getConnection(getAddress());
+      client = newClient();
     } catch (Exception e) {
       client = null;
       throw new IllegalArgumentException("Invalid S7 TCP address: " +
                                          getAddress(), e);
     }
-    
-    disconnect(); //PLC4J always connect when creating a new client
   }
   
   /**
@@ -39,4 +39,17 @@ public interface ShareableConnection {
    */
   public void setClient(Object inClient) 
     throws IllegalArgumentException;
+
+  /**
+   * Shares the client of another connection to the same device.  The client
+   * is taken from the other connection when this one is initialized, so the
+   * other connection must be initialized first.
+   *
+   * @param inConnection the connection owning the client
+   * @throws IllegalArgumentException if the client of the connection cannot
+   *                                  be applied to this
+   *                            {@link com.github.ilguido.jidl.connectionmanager.ConnectionManager}
+   */
+  public void shareClientOf(ConnectionManager inConnection)
+    throws IllegalArgumentException;
 }
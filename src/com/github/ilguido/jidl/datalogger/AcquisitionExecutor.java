@@ -0,0 +1,246 @@
+/**
+ * AcquisitionExecutor.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.datalogger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * AcquisitionExecutor
+ * A bounded pool of worker threads, which runs the reading and writing phases
+ * of the connections of a {@link DataLogger}.  The workers are created once
+ * and reused at every tick, instead of starting a new thread per connection.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public class AcquisitionExecutor {
+  /**
+   * The default number of worker threads.
+   */
+  public static final int DEFAULT_PARALLELISM = 8;
+
+  /**
+   * The actual pool of worker threads.
+   */
+  private final ThreadPoolExecutor pool;
+
+  /**
+   * The number of tasks rejected because the queue was full.
+   */
+  private final AtomicLong rejectedCount;
+
+  /**
+   * Class constructor.  It creates a pool with a fixed number of worker threads
+   * and a bounded queue of pending tasks.
+   *
+   * @param inName a name for the worker threads
+   * @param inParallelism the number of worker threads
+   * @param inQueueCapacity the maximum number of pending tasks
+   * @throws IllegalArgumentException if the parallelism or the capacity are
+   *                                  not positive numbers
+   */
+  public AcquisitionExecutor(final String inName,
+                             int inParallelism,
+                             int inQueueCapacity)
+    throws IllegalArgumentException {
+    if (inParallelism < 1 || inQueueCapacity < 1)
+      throw new IllegalArgumentException("Invalid acquisition pool size");
+
+    rejectedCount = new AtomicLong(0);
+
+    pool = new ThreadPoolExecutor(inParallelism, inParallelism,
+                                  60, SECONDS,
+                                  new ArrayBlockingQueue<Runnable>(
+                                                              inQueueCapacity),
+                                  new WorkerThreadFactory(inName),
+                                  new ThreadPoolExecutor.AbortPolicy());
+    /* Idle workers die after a while, so a stopped logger costs nothing. */
+    pool.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Submits a task to the pool.  If the queue is full, the task is rejected
+   * and counted.
+   *
+   * @param inTask the task to run
+   * @return <code>true</code> if the task was accepted, <code>false</code>
+   *         otherwise
+   */
+  public boolean execute(Runnable inTask) {
+    try {
+      pool.execute(inTask);
+    } catch (RejectedExecutionException ree) {
+      rejectedCount.incrementAndGet();
+      return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Returns the approximate number of workers actively running a task.
+   *
+   * @return the number of active workers
+   */
+  public int getActiveCount() {
+    return pool.getActiveCount();
+  }
+
+  /**
+   * Returns the number of worker threads of this pool.
+   *
+   * @return the maximum number of concurrent tasks
+   */
+  public int getParallelism() {
+    return pool.getMaximumPoolSize();
+  }
+
+  /**
+   * Returns the number of tasks waiting in the queue.
+   *
+   * @return the number of queued tasks
+   */
+  public int getQueueSize() {
+    return pool.getQueue().size();
+  }
+
+  /**
+   * Returns the number of tasks rejected because the queue was full.
+   *
+   * @return the number of rejected tasks
+   */
+  public long getRejectedCount() {
+    return rejectedCount.get();
+  }
+
+  /**
+   * Returns <code>true</code> if the calling thread is one of the workers of
+   * this pool.
+   *
+   * @return <code>true</code> if called from a worker of this pool
+   */
+  public boolean isWorkerThread() {
+    Thread t = Thread.currentThread();
+
+    return (t instanceof WorkerThread) && (((WorkerThread) t).owner == this);
+  }
+
+  /**
+   * Stops the pool.  Pending tasks are discarded and running tasks have some
+   * time to complete, then they are interrupted. When called from a worker of
+   * this pool, it does not wait for the termination.
+   *
+   * @param inTimeout the time to wait for running tasks, in milliseconds
+   */
+  public void shutdown(long inTimeout) {
+    pool.getQueue().clear();
+    pool.shutdown();
+
+    if (isWorkerThread())
+      return;
+
+    try {
+      if (!pool.awaitTermination(inTimeout, MILLISECONDS)) {
+        pool.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * WorkerThread
+   * A thread that knows the pool it belongs to.
+   *
+   * @version 0.8
+   * @author Stefano Guidoni
+   */
+  private static final class WorkerThread extends Thread {
+    /**
+     * The pool this thread belongs to.
+     */
+    private final AcquisitionExecutor owner;
+
+    /**
+     * Class constructor.
+     *
+     * @param inOwner the pool of this thread
+     * @param inTask the runnable of this thread
+     * @param inName the name of this thread
+     */
+    WorkerThread(AcquisitionExecutor inOwner, Runnable inTask, String inName) {
+      super(inTask, inName);
+      owner = inOwner;
+    }
+  }
+
+  /**
+   * WorkerThreadFactory
+   * A factory of named daemon worker threads.
+   *
+   * @version 0.8
+   * @author Stefano Guidoni
+   */
+  private final class WorkerThreadFactory implements ThreadFactory {
+    /**
+     * The prefix of the name of each worker.
+     */
+    private final String prefix;
+
+    /**
+     * A counter to number the workers.
+     */
+    private final AtomicInteger counter = new AtomicInteger(0);
+
+    /**
+     * Class constructor.
+     *
+     * @param inName the prefix of the name of each worker
+     */
+    WorkerThreadFactory(String inName) {
+      prefix = inName + "-acquisition-";
+    }
+
+    /**
+     * Returns a new daemon worker thread.
+     *
+     * @param inTask the runnable of the new thread
+     * @return a new thread
+     */
+    @Override
+    public Thread newThread(Runnable inTask) {
+      Thread t = new WorkerThread(AcquisitionExecutor.this, inTask,
+                                  prefix + counter.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
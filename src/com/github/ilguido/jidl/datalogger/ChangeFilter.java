@@ -0,0 +1,236 @@
+/**
+ * ChangeFilter.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.datalogger;
+
+import com.github.ilguido.jidl.connectionmanager.ConnectionManager;
+import com.github.ilguido.jidl.variable.Deadband;
+
+/**
+ * ChangeFilter
+ * The change detection of a connection which reports by exception.  It keeps
+ * the last logged value of each variable and it marks as unchanged the slots
+ * of a frame whose values did not change enough, according to the
+ * {@link com.github.ilguido.jidl.variable.Deadband} of their variable. A
+ * variable without a deadband is logged at any change of its value. A change
+ * of quality is a change: a value which could not be read is logged as
+ * missing, then the next good value is logged, even if it is the same as
+ * before.
+ * <p>
+ * The frames of a connection are read one at a time, so a filter is not
+ * thread safe, except for its counters.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+final class ChangeFilter {
+  /**
+   * The deadbands of the variables, <code>null</code> where not set.
+   */
+  private final Deadband[] deadbands;
+
+  /**
+   * This is <code>true</code> where a value was logged since the last reset.
+   */
+  private final boolean[] logged;
+
+  /**
+   * The kinds of the last logged values.
+   */
+  private final SampleFrame.Kind[] lastKinds;
+
+  /**
+   * The last logged boolean and integer values.
+   */
+  private final long[] lastLongs;
+
+  /**
+   * The last logged floating point values.
+   */
+  private final double[] lastDoubles;
+
+  /**
+   * The last logged text values.
+   */
+  private final String[] lastTexts;
+
+  /**
+   * The timestamps of the last logged values, in milliseconds since the
+   * epoch.
+   */
+  private final long[] lastTimes;
+
+  /**
+   * The number of values not logged because they did not change.
+   */
+  private volatile long suppressedValueCount;
+
+  /**
+   * The number of frames not logged because none of their values changed.
+   */
+  private volatile long suppressedFrameCount;
+
+  /**
+   * Class constructor.  The deadbands are taken from the variable readers of
+   * the connection.
+   *
+   * @param inConnection the connection whose frames are filtered
+   */
+  ChangeFilter(ConnectionManager inConnection) {
+    int n = inConnection.getVariableReaderCount();
+
+    deadbands = new Deadband[n];
+    for (int i = 0; i < n; i++) {
+      deadbands[i] = inConnection.getVariableReader(i).getDeadband();
+    }
+
+    logged = new boolean[n];
+    lastKinds = new SampleFrame.Kind[n];
+    lastLongs = new long[n];
+    lastDoubles = new double[n];
+    lastTexts = new String[n];
+    lastTimes = new long[n];
+    suppressedValueCount = 0;
+    suppressedFrameCount = 0;
+  }
+
+  /**
+   * Marks as unchanged the slots of a frame whose values did not change
+   * since they were last logged, and remembers the others as logged.
+   *
+   * @param inFrame the frame just read from the connection
+   * @return <code>true</code> if at least one value of the frame is to be
+   *         logged, <code>false</code> if the frame can be dropped
+   */
+  boolean apply(SampleFrame inFrame) {
+    int n = Math.min(inFrame.getWidth(), logged.length);
+    long time = inFrame.getTimestamp();
+    int kept = 0;
+    int suppressed = 0;
+
+    for (int i = 0; i < n; i++) {
+      if (isChanged(inFrame, i, time)) {
+        remember(inFrame, i, time);
+        kept++;
+      } else {
+        inFrame.setUnchanged(i);
+        suppressed++;
+      }
+    }
+
+    /* Only the acquisition of the connection updates the counters. */
+    suppressedValueCount += suppressed;
+    if (kept == 0)
+      suppressedFrameCount++;
+
+    return kept > 0;
+  }
+
+  /**
+   * Returns the number of frames not logged, because none of their values
+   * changed.
+   *
+   * @return the number of suppressed frames
+   */
+  long getSuppressedFrameCount() {
+    return suppressedFrameCount;
+  }
+
+  /**
+   * Returns the number of values not logged, because they did not change.
+   *
+   * @return the number of suppressed values
+   */
+  long getSuppressedValueCount() {
+    return suppressedValueCount;
+  }
+
+  /**
+   * Forgets the last logged values, so that all the values of the next
+   * frame are logged.  It is called when the connection is restored.
+   */
+  void reset() {
+    for (int i = 0; i < logged.length; i++) {
+      logged[i] = false;
+      lastTexts[i] = null;
+    }
+  }
+
+  /**
+   * Checks whether the value of a slot is to be logged.
+   *
+   * @param inFrame the frame
+   * @param inSlot the index of the slot
+   * @param inTime the timestamp of the frame
+   * @return <code>true</code> if the value is to be logged
+   */
+  private boolean isChanged(SampleFrame inFrame, int inSlot, long inTime) {
+    Deadband deadband = deadbands[inSlot];
+    SampleFrame.Kind kind = inFrame.getKind(inSlot);
+
+    if (!logged[inSlot] || kind != lastKinds[inSlot])
+      return true;
+
+    if (deadband != null &&
+        deadband.isHeartbeatDue(inTime - lastTimes[inSlot]))
+      return true;
+
+    switch (kind) {
+      case BOOLEAN:
+      case INTEGER:
+        if (deadband == null)
+          return inFrame.getLong(inSlot) != lastLongs[inSlot];
+        return deadband.isOutside(lastLongs[inSlot],
+                                  inFrame.getLong(inSlot));
+      case FLOAT:
+      case DOUBLE:
+        if (deadband == null)
+          return Double.compare(inFrame.getDouble(inSlot),
+                                lastDoubles[inSlot]) != 0;
+        return deadband.isOutside(lastDoubles[inSlot],
+                                  inFrame.getDouble(inSlot));
+      case TEXT:
+        return !inFrame.getText(inSlot).equals(lastTexts[inSlot]);
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Remembers the value of a slot as the last logged one.
+   *
+   * @param inFrame the frame
+   * @param inSlot the index of the slot
+   * @param inTime the timestamp of the frame
+   */
+  private void remember(SampleFrame inFrame, int inSlot, long inTime) {
+    SampleFrame.Kind kind = inFrame.getKind(inSlot);
+
+    logged[inSlot] = true;
+    lastKinds[inSlot] = kind;
+    lastLongs[inSlot] = inFrame.getLong(inSlot);
+    lastDoubles[inSlot] = inFrame.getDouble(inSlot);
+    lastTexts[inSlot] = (kind == SampleFrame.Kind.TEXT ?
+                         inFrame.getText(inSlot) : null);
+    lastTimes[inSlot] = inTime;
+  }
+}
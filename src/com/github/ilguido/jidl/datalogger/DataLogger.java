@@ -27,25 +27,29 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.InvalidPathException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
 import javax.net.ssl.SSLContext;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static java.util.concurrent.TimeUnit.SECONDS;
-
 import com.github.ilguido.jidl.DataTypes;
 import com.github.ilguido.jidl.connectionmanager.ConnectionManager;
+import com.github.ilguido.jidl.connectionmanager.OverrunPolicy;
+import com.github.ilguido.jidl.connectionmanager.PLCConnectionManager;
+import com.github.ilguido.jidl.connectionmanager.ReportMode;
+import com.github.ilguido.jidl.connectionmanager.RttEstimator;
 import com.github.ilguido.jidl.connectionmanager.WriteableConnection;
 import com.github.ilguido.jidl.datalogger.DataLoggerRequestHandler;
 import com.github.ilguido.jidl.datalogger.dataloggerarchiver.DataLoggerArchiver;
+import com.github.ilguido.jidl.datalogger.scheduler.TimingWheelScheduler;
+import com.github.ilguido.jidl.ipc.IPCServerInterface;
+import com.github.ilguido.jidl.ipc.JidlProtocolNioServer;
 import com.github.ilguido.jidl.ipc.JidlProtocolServer;
-import com.github.ilguido.jidl.utils.TimeString;
+import com.github.ilguido.jidl.variable.Quality;
+import com.github.ilguido.jidl.variable.VariableReader;
 
 /**
  * DataLogger
@@ -56,6 +60,11 @@ import com.github.ilguido.jidl.utils.TimeString;
  */
 
 public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
+  /**
+   * The default capacity of the write-behind buffer.
+   */
+  public static final int DEFAULT_BUFFER_CAPACITY = 1024;
+
   /**
    * List of connections that are managed by this logger.  It is a list
    * of {@link com.github.ilguido.jidl.connectionmanager.ConnectionManager} objects.
@@ -63,19 +72,83 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
   protected ArrayList<ConnectionManager> connectionList;
 
   /**
-   * Timer for logging data at fixed intervals.
+   * Scheduler for logging data at fixed intervals.
+   */
+  private TimingWheelScheduler scheduler;
+
+  /**
+   * The pool of workers, which run the reading and writing phases of the
+   * connections.
+   */
+  private AcquisitionExecutor acquisitionExecutor = null;
+
+  /**
+   * The pool of workers, which connect again the connections that are down.
+   */
+  private AcquisitionExecutor reconnectExecutor = null;
+
+  /**
+   * The time the data logging started, in milliseconds since the epoch.
+   */
+  private volatile long startTime = 0;
+
+  /**
+   * The number of workers of the acquisition pool.
+   */
+  private int acquisitionWorkers = AcquisitionExecutor.DEFAULT_PARALLELISM;
+
+  /**
+   * The maximum number of entries waiting to be stored.
+   */
+  private int bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+
+  /**
+   * What to do with a new entry when the write-behind buffer is full.
+   */
+  private StoragePolicy bufferPolicy = StoragePolicy.BLOCK;
+
+  /**
+   * The number of storage threads.
+   */
+  private int storageThreads = 1;
+
+  /**
+   * The write-behind buffers, one for each storage thread.
    */
-  private ScheduledExecutorService timer;
+  private WriteBehindBuffer[] storageBuffers = null;
 
   /**
-   * A counter for the seconds elapsed since the logger started.
+   * The threads storing the entries of the write-behind buffers.
    */
-  private int internalCounter;
+  private Thread[] storageWorkers = null;
+
+  /**
+   * The maximum number of spooled frames replayed per second, zero for no
+   * limit.
+   */
+  private int replayRate = Spool.DEFAULT_REPLAY_RATE;
+
+  /**
+   * The spool of the frames which cannot be stored while the database is
+   * unavailable, or which do not fit in the write-behind buffer, when the
+   * policy is {@link StoragePolicy#SPILL}.
+   */
+  private Spool spool = null;
+
+  /**
+   * The number of failed attempts to store an entry.
+   */
+  private final AtomicLong storageErrors = new AtomicLong(0);
+
+  /**
+   * The periodic tasks of the connections.
+   */
+  private List<AcquisitionCycle> acquisitionCycles;
 
   /**
    * A server for IPC.
    */
-  private JidlProtocolServer ipcServer = null;
+  private IPCServerInterface ipcServer = null;
    
   /**
    * Date format.
@@ -100,6 +173,12 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
    */
   private final String timestampS = "TIMESTAMP";
 
+  /**
+   * The name of the optional quality field.  A table with this field stores
+   * in it, for each row, whether each value was read, unchanged or bad.
+   */
+  private final String qualityS = "QUALITY";
+
   /**
    * Class constructor.  It sets the name of the data base and the path to the
    * working directory.
@@ -131,9 +210,8 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
     }
 
     name = inName;
-    timer = null;
-
-    internalCounter = 0;
+    scheduler = null;
+    acquisitionCycles = new ArrayList<AcquisitionCycle>();
 
     connectionList = new ArrayList<ConnectionManager>();
   }
@@ -186,6 +264,50 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
       throw new RuntimeException("DataLogger: addIPCServer: ipcServer.start()");
     }
   }
+
+  /**
+   * Initializes a non-blocking IPC server, for a large number of clients.
+   * It can use an SSL context to generate the TLS sessions. It can start and
+   * stop the data logger, if enabled. The server is immediately started.
+   *
+   * @param inPort the port of the server
+   * @param inControlEnable a boolean value, which is <code>true</code> if the
+   *                        data logger can be started or stopped by IPC
+   * @param inSSLContext a context to be used to generate the TLS sessions, it
+   *                     can be <code>null</code>
+   * @param inWorkers the number of threads handling the requests
+   * @param inMaxConnections the maximum number of open connections
+   * @throws IllegalArgumentException if the number of threads or the
+   *                                  connection limit is not a positive
+   *                                  number
+   * @throws RuntimeException if a server was already added or if the server
+   *                          failed to start
+   */
+  public void addIPCServer(final int inPort, 
+                           final boolean inControlEnable,
+                           final SSLContext inSSLContext,
+                           final int inWorkers,
+                           final int inMaxConnections)
+    throws IllegalArgumentException, RuntimeException {
+    if (ipcServer != null)
+      throw new RuntimeException("DataLogger: addIPCServer: ipcServer != null");
+    
+    DataLoggerRequestHandler 
+      dlrh = new DataLoggerRequestHandler(inControlEnable, this);
+    
+    ipcServer = new JidlProtocolNioServer(inPort,
+                                          dlrh,
+                                          inSSLContext,
+                                          JidlProtocolNioServer
+                                            .DEFAULT_EVENT_LOOPS,
+                                          inWorkers,
+                                          inMaxConnections);
+    try {
+      ipcServer.start();
+    } catch (Exception e) {
+      throw new RuntimeException("DataLogger: addIPCServer: ipcServer.start()");
+    }
+  }
   
   /**
    * Returns the date format.
@@ -196,6 +318,43 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
     return dateFormat;
   }
   
+  /**
+   * Returns the capacity of the write-behind buffer.
+   *
+   * @return the maximum number of entries waiting to be stored
+   */
+  public int getBufferCapacity() {
+    return bufferCapacity;
+  }
+  
+  /**
+   * Returns the policy of the write-behind buffer.
+   *
+   * @return what to do with a new entry when the buffer is full
+   */
+  public StoragePolicy getBufferPolicy() {
+    return bufferPolicy;
+  }
+  
+  /**
+   * Returns the replay rate of the spool.
+   *
+   * @return the maximum number of spooled frames replayed per second, zero
+   *         for no limit
+   */
+  public int getReplayRate() {
+    return replayRate;
+  }
+  
+  /**
+   * Returns the number of workers of the acquisition pool.
+   *
+   * @return the maximum number of connections read or written concurrently
+   */
+  public int getAcquisitionWorkers() {
+    return acquisitionWorkers;
+  }
+  
   /**
    * Returns the status of the IPC server.  If the server is up and running,
    * the status is <code>true</code>.
@@ -218,7 +377,97 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
    * @return a boolean value, <code>true</code> for an active data logging
    */
   public boolean getStatus() {
-    return (timer != null);
+    return (scheduler != null);
+  }
+  
+  /**
+   * Returns some statistics about the activity of the data logger.  Each
+   * item of the map is a pair consisting of the name of a statistic and its
+   * value. Subclasses can add their own statistics.
+   *
+   * @return a map of name-value pairs
+   */
+  public Map<String, Object> getStatistics() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    AcquisitionExecutor ae = acquisitionExecutor;
+
+    map.put("acquisition workers", Integer.valueOf(acquisitionWorkers));
+    map.put("acquisition active workers",
+            Integer.valueOf(ae == null ? 0 : ae.getActiveCount()));
+    map.put("acquisition queue size",
+            Integer.valueOf(ae == null ? 0 : ae.getQueueSize()));
+    map.put("acquisition rejected tasks",
+            Long.valueOf(ae == null ? 0 : ae.getRejectedCount()));
+
+    if (ipcServer instanceof JidlProtocolNioServer) {
+      JidlProtocolNioServer nio = (JidlProtocolNioServer) ipcServer;
+
+      map.put("ipc connections", Integer.valueOf(nio.getConnectionCount()));
+      map.put("ipc refused connections",
+              Integer.valueOf(nio.getRefusedCount()));
+    }
+
+    WriteBehindBuffer[] buffers = storageBuffers;
+    int depth = 0, highWaterMark = 0;
+    long drops = 0;
+
+    if (buffers != null) {
+      for (final WriteBehindBuffer b : buffers) {
+        depth += b.getDepth();
+        highWaterMark = Math.max(highWaterMark, b.getHighWaterMark());
+        drops += b.getDropCount();
+      }
+    }
+
+    map.put("storage buffer capacity", Integer.valueOf(bufferCapacity));
+    map.put("storage buffer policy", bufferPolicy.toString());
+    map.put("storage buffer depth", Integer.valueOf(depth));
+    map.put("storage buffer high water mark", Integer.valueOf(highWaterMark));
+    map.put("storage dropped entries", Long.valueOf(drops));
+    map.put("storage spooled entries",
+            Long.valueOf(spool == null ? 0 : spool.getSpooledCount()));
+    map.put("storage replayed entries",
+            Long.valueOf(spool == null ? 0 : spool.getReplayedCount()));
+    map.put("storage spool backlog bytes",
+            Long.valueOf(spool == null ? 0 : spool.getBacklog()));
+    map.put("storage errors", Long.valueOf(storageErrors.get()));
+
+    for (final AcquisitionCycle cycle : acquisitionCycles) {
+      String cname = cycle.connection.getName();
+
+      map.put(cname + " overrun policy",
+              cycle.connection.getOverrunPolicy().toString());
+      map.put(cname + " overruns", Long.valueOf(cycle.getOverrunCount()));
+      map.put(cname + " skipped cycles",
+              Long.valueOf(cycle.getSkippedCount()));
+      map.put(cname + " max lateness ms",
+              Long.valueOf(cycle.getMaxLateness()));
+      map.put(cname + " created frames",
+              Long.valueOf(cycle.pool.getCreatedCount()));
+      map.put(cname + " connection state",
+              cycle.reconnect.getState().toString());
+      map.put(cname + " connection failures",
+              Integer.valueOf(cycle.reconnect.getFailureCount()));
+      map.put(cname + " time to first sample ms",
+              Long.valueOf(cycle.firstSampleDelay));
+      if (cycle.connection.getReportMode() == ReportMode.CHANGES) {
+        map.put(cname + " suppressed values",
+                Long.valueOf(cycle.filter.getSuppressedValueCount()));
+        map.put(cname + " suppressed frames",
+                Long.valueOf(cycle.filter.getSuppressedFrameCount()));
+      }
+      if (cycle.connection instanceof PLCConnectionManager) {
+        RttEstimator rtt =
+          ((PLCConnectionManager) cycle.connection).getRttEstimator();
+
+        map.put(cname + " rtt ms", Double.valueOf(rtt.getSmoothedRtt()));
+        map.put(cname + " rtt variance ms",
+                Double.valueOf(rtt.getRttVariance()));
+        map.put(cname + " timeout ms", Long.valueOf(rtt.getTimeout()));
+      }
+    }
+
+    return map;
   }
   
   /**
@@ -241,6 +490,92 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
     return false;
   }
 
+  /**
+   * Sets the number of workers of the acquisition pool.  The new value is
+   * used the next time the data logging is started.
+   *
+   * @param inWorkers the maximum number of connections read or written
+   *                  concurrently
+   * @throws IllegalArgumentException if <code>inWorkers</code> is zero or a
+   *                                  negative number
+   */
+  public void setAcquisitionWorkers(int inWorkers)
+    throws IllegalArgumentException {
+    if (inWorkers < 1)
+      throw new IllegalArgumentException("Workers must be a positive int");
+
+    acquisitionWorkers = inWorkers;
+  }
+
+  /**
+   * Sets the capacity of the write-behind buffer.  The new value is used the
+   * next time the data logging is started.
+   *
+   * @param inCapacity the maximum number of entries waiting to be stored
+   * @throws IllegalArgumentException if <code>inCapacity</code> is zero or a
+   *                                  negative number
+   */
+  public void setBufferCapacity(int inCapacity)
+    throws IllegalArgumentException {
+    if (inCapacity < 1)
+      throw new IllegalArgumentException("Buffer size must be a positive int");
+
+    bufferCapacity = inCapacity;
+  }
+
+  /**
+   * Sets the policy of the write-behind buffer.  The new value is used the
+   * next time the data logging is started.
+   *
+   * @param inPolicy what to do with a new entry when the buffer is full
+   * @throws IllegalArgumentException if <code>inPolicy</code> is
+   *                                  <code>null</code>
+   */
+  public void setBufferPolicy(StoragePolicy inPolicy)
+    throws IllegalArgumentException {
+    if (inPolicy == null)
+      throw new IllegalArgumentException("Storage policy cannot be null");
+
+    bufferPolicy = inPolicy;
+  }
+
+  /**
+   * Sets the number of storage threads.  Entries of the same table are always
+   * stored by the same thread, in order. The new value is used the next time
+   * the data logging is started.
+   *
+   * @param inThreads the number of storage threads
+   * @throws IllegalArgumentException if <code>inThreads</code> is zero or a
+   *                                  negative number
+   */
+  public void setStorageThreads(int inThreads)
+    throws IllegalArgumentException {
+    if (inThreads < 1)
+      throw new IllegalArgumentException("Threads must be a positive int");
+
+    storageThreads = inThreads;
+  }
+
+  /**
+   * Sets the replay rate of the spool.  The new frames queued behind the
+   * spooled ones are replayed as they come, plus this number of older frames
+   * per second: the spool drains at this rate, slowly enough not to hinder
+   * the storage of the new frames. The new value is used the next time the
+   * data logging is started.
+   *
+   * @param inRate the number of older spooled frames replayed per second,
+   *               zero for no limit
+   * @throws IllegalArgumentException if <code>inRate</code> is a negative
+   *                                  number
+   */
+  public void setReplayRate(int inRate)
+    throws IllegalArgumentException {
+    if (inRate < 0)
+      throw new IllegalArgumentException("Replay rate cannot be negative");
+
+    replayRate = inRate;
+  }
+
   /**
    * Sets the configuration and starts the archiving service.
    *
@@ -295,128 +630,41 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
   public void startLogging(Thread.UncaughtExceptionHandler inHandler)
     throws ExecutionException {
     log(name + ": startLogging()", false);
-    
-    /* This flag is true if there are connections having sample times below 
-     * 1 second.
-     */
-    boolean decisecondStep = false;
-    
-    for (final ConnectionManager connection : connectionList) {
-      /* Are there uninitialized connections? */
-      if (!connection.isInitialized()) {
-        log(connection.getName() + " failed initialization", false);
-      }
-      /* Are there connections with a sample time below 1 second? */
-      if (connection.getSampleTime() < 10) {
-        /* Yes, there are. Set the timestep to 1 decisecond. */
-        decisecondStep = true;
+
+    /* The connections are initialized and connected in the background, by
+     * their first cycles: the reachable devices are logged at once, while
+     * the others are retried. */
+    if (scheduler == null) {
+      startTime = System.currentTimeMillis();
+      startStorage(inHandler);
+      /* A connection never has more than one cycle pending or running. */
+      acquisitionExecutor =
+                 new AcquisitionExecutor(name, acquisitionWorkers,
+                                         Math.max(64, connectionList.size()));
+      /* A connection never has more than one attempt pending or running. */
+      reconnectExecutor =
+           new AcquisitionExecutor(name + " reconnect",
+                                   Math.max(1, Math.min(acquisitionWorkers,
+                                                        connectionList.size())),
+                                   Math.max(64, connectionList.size()));
+      scheduler = new TimingWheelScheduler(name);
+      List<AcquisitionCycle> cycles = new ArrayList<AcquisitionCycle>();
+      
+      /* Every connection has its own schedule, there is no global barrier: a
+       * slow connection delays only its own cycles.
+       */
+      for (final ConnectionManager connection : connectionList) {
+        if (connection.isReaderListEmpty() && connection.isWriterListEmpty())
+          continue;
+        
+        AcquisitionCycle cycle = new AcquisitionCycle(connection);
+        cycles.add(cycle);
+        scheduler.schedule(connection.getSampleTime(), cycle);
       }
-    }
-    
-    /* Set the time step in deciseconds, its default value is 1 second. */
-    final int timestep = (decisecondStep? 1 : 10);
-    
-    if (timer == null) {
-      timer = Executors.newSingleThreadScheduledExecutor();
       
-      timer.scheduleAtFixedRate(new Runnable() {
-        @Override
-        public void run() {
-          internalCounter += timestep;
-          /* CountDownLatch is used to synchronized the concurrent readings from
-           * each connection.
-           */
-          CountDownLatch rlatch = new CountDownLatch(connectionList.size());
-          /* Main reading cycle */
-          for (final ConnectionManager connection : connectionList) {
-            /* Start a new thread for each connection. */
-            Thread t = new Thread(() -> {
-              if ((internalCounter % connection.getSampleTime()) == 0 &&
-                  !connection.isReaderListEmpty()) {
-                if (connection.getStatus()) {
-                  connection.read();
-
-                  try {
-                    Map<String, String> data = connection.getAllDataAsText();
-
-                    String timestamp = 
-                       TimeString.convertDateToString(connection.getTimestamp(),
-                                                      dateFormat);
-                    data.put(timestampS, timestamp);
-
-                    addEntry(connection.getName(), data);
-                  } catch (IllegalStateException ise) {
-                    /* Datalogger cannot write data, i.e. cannot insert data 
-                    * into a database.
-                    * This could be due to some internal error of JIDL or it
-                    * could be that the database server is unavailable or there
-                    * is no more available space on disk etc.
-                    * If it is not an internal error, it can be solved and the
-                    * data logger started again.
-                    * So we stop the data logging and throw the exception up.
-                    */
-                    Thread ct = Thread.currentThread();
-                    if (inHandler != null) {
-                      ct.setUncaughtExceptionHandler(inHandler);
-                    }
-                    ct.getUncaughtExceptionHandler().uncaughtException(ct, ise);
-                    
-                    stopLogging();
-                  } catch (Exception e) {
-                    connection.disconnect();
-                    log(connection.getName() + ": " + e.getMessage(), false);
-                  }
-                } else {
-                  if (connection.isInitialized()) {
-                    try {
-                      connection.connect();
-                      log(connection.getName() + " connected", false);
-                    } catch (IOException e) {
-                      //TODO: deinitialize the connection?
-                      log(connection.getName() + " cannot connect", false);
-                    }
-                  } else {
-                    try {
-                      connection.initialize();
-                      log(connection.getName() + " initialized", false);
-                    } catch (IllegalArgumentException e) {
-                      //TODO: log the failure?
-                    }
-                  }
-                }
-              }
-              rlatch.countDown();
-            });
-            t.start();
-          }
-          
-          try {
-            /* Wait here the completion of all reading threads. */
-            rlatch.await();
-          } catch (InterruptedException ie) {
-            throw new RuntimeException(ie);
-          }
-          
-          /* Now let's do the writings. 
-           * The writings are asynchronous.
-           */
-          for (final ConnectionManager connection : connectionList) {
-            /* Start a new thread for each connection. */
-            Thread t = new Thread(() -> {
-              if ((internalCounter % connection.getSampleTime()) == 0 &&
-                  !connection.isWriterListEmpty() && 
-                  connection instanceof WriteableConnection) {
-                if (connection.getStatus()) {
-                  WriteableConnection wc = (WriteableConnection) connection;
-                  wc.write();
-                }
-              }
-            });
-            t.start();
-          }
-        }
-      /* Our basic unit is the decisecond. */
-      }, (timestep * 100), (timestep * 100), MILLISECONDS);
+      acquisitionCycles = cycles;
+      
+      scheduler.start();
     }
   }
 
@@ -436,25 +684,31 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
    * Stops the data logging.
    */
   public void stopLogging() {
-    internalCounter = 0;
-    
-    // if the timer is running stop it
-    if (timer != null) {
-      /* If the timer is running, we are now stopping a running data logger.
-       * Must log the event.
+    // if the scheduler is running stop it
+    if (scheduler != null) {
+      /* If the scheduler is running, we are now stopping a running data
+       * logger. Must log the event.
        */
       log(name + ": stopLogging()", false);
       
-      timer.shutdown();
-      try {
-        if (!timer.awaitTermination(3, SECONDS)) {
-          timer.shutdownNow();
-        } 
-      } catch (InterruptedException e) {
-        timer.shutdownNow();
-      }
-      timer = null;
+      scheduler.stop();
+      scheduler = null;
+    }
+    
+    // stop the acquisition workers
+    if (acquisitionExecutor != null) {
+      acquisitionExecutor.shutdown(3000);
+      acquisitionExecutor = null;
     }
+
+    // stop the attempts to connect
+    if (reconnectExecutor != null) {
+      reconnectExecutor.shutdown(3000);
+      reconnectExecutor = null;
+    }
+    
+    // store the pending entries and stop the storage threads
+    stopStorage();
     
     // disconnect all connections
     for (final ConnectionManager connection : connectionList) {
@@ -500,6 +754,15 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
   protected String getTimestampS() {
     return timestampS;
   }
+
+  /**
+   * Returns <code>qualityS</code>.
+   *
+   * @return <code>private final String qualityS</code>
+   */
+  protected String getQualityS() {
+    return qualityS;
+  }
   
   /**
    * Prints out a diagnostic message.
@@ -511,14 +774,34 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
   protected abstract void log(String inMessage, boolean inError);
   
   /**
-   * Adds an entry to the database.  It adds an entry to the database for each
-   * data point in <code>inData</code>.
+   * Adds a frame to the database.  The values of the frame go to the table
+   * named by the frame, each one in the column of its variable. It is called
+   * by the storage threads, possibly by more of them at the same time. When
+   * it returns, the frame belongs to the data logger, which must release it
+   * as soon as it does not need its values anymore; when it throws, the frame
+   * still belongs to the caller.
    *
-   * @param inTableName the name of the table where data are to be stored
-   * @param inData a map of data points and their values
+   * @param inFrame the frame to store
+   * @throws IllegalStateException when the frame cannot be stored, e.g. the
+   *                               database is unavailable
    */
-  protected abstract void addEntry(String inTableName,
-                                   Map<String, String> inData);
+  protected abstract void addFrame(SampleFrame inFrame)
+    throws IllegalStateException;
+  
+  /**
+   * Stores the entries held back by the data logger, if any.  It is called
+   * by the storage threads about once a second, and before they stop. The
+   * default implementation does nothing.
+   *
+   * @param inForce <code>true</code> if all the entries must be stored,
+   *                <code>false</code> if the entries which are not due yet can
+   *                be held back
+   * @throws IllegalStateException when the entries cannot be stored
+   */
+  protected void flushEntries(boolean inForce)
+    throws IllegalStateException {
+    /* nothing to do */
+  }
   
   /**
    * Searches and returns a {@link com.github.ilguido.jidl.connectionmanager.ConnectionManager}
@@ -541,4 +824,792 @@ public abstract class DataLogger implements DataTypes, DataLoggerArchiver {
     throw new IllegalArgumentException("No such connection: " +
                                        inConnectionName);
   }
+
+  /**
+   * Reads the variables of a connection and stores their values.  The values
+   * are copied into a frame of the pool of the connection; the values of bad
+   * quality are left empty. If the connection reports by exception, only the
+   * changed values are stored. A reading which left older changes queued,
+   * e.g. by a subscription, stores a frame for each set of values, each with
+   * its own timestamp.
+   *
+   * @param inConnection the connection to read
+   * @param inPool the pool of the frames of the connection
+   * @param inFilter the change detection of the connection
+   * @param inTimestamp the timestamp of the data in milliseconds since the
+   *                    epoch, or a negative number to use the timestamp of
+   *                    the reading; it applies only to the last set of values
+   */
+  private void readConnection(ConnectionManager inConnection,
+                              SampleFramePool inPool,
+                              ChangeFilter inFilter,
+                              long inTimestamp) {
+    inConnection.read();
+
+    /* The changes received while logging wait for the next reading. */
+    int pending = inConnection.getPendingCount();
+
+    for (int k = 0; ; k++) {
+      boolean newest = !inConnection.hasNext();
+      boolean last = newest || k >= pending;
+      SampleFrame frame = inPool.acquire();
+
+      try {
+        int n = Math.min(frame.getWidth(),
+                         inConnection.getVariableReaderCount());
+
+        for (int i = 0; i < n; i++) {
+          VariableReader vr = inConnection.getVariableReader(i);
+
+          /* A variable which could not be read is logged as NULL. */
+          if (vr.getQuality() == Quality.GOOD)
+            vr.copyValue(frame, i);
+          else
+            frame.setNull(i);
+        }
+        frame.setTimestamp((newest && inTimestamp >= 0) ?
+                           inTimestamp :
+                           inConnection.getTimestampMillis());
+      } catch (Exception e) {
+        frame.release();
+        inConnection.disconnect();
+        log(inConnection.getName() + ": " + e.getMessage(), false);
+        return;
+      }
+
+      if (inConnection.getReportMode() == ReportMode.CHANGES &&
+          !inFilter.apply(frame)) {
+        /* Nothing changed. */
+        frame.release();
+      } else {
+        try {
+          storeFrame(frame);
+        } catch (InterruptedException ie) {
+          /* The data logging is stopping. */
+          Thread.currentThread().interrupt();
+          return;
+        }
+      }
+
+      if (last)
+        break;
+
+      inConnection.next();
+    }
+  }
+
+  /**
+   * Puts a frame in the write-behind buffer.  Frames of the same table
+   * always go to the same buffer. The frame is handed over: if the buffer
+   * refuses it, it is spooled to disk or dropped, and given back to its pool.
+   *
+   * @param inFrame the frame to store
+   * @throws InterruptedException if interrupted while waiting for some room
+   *                              in the buffer
+   */
+  private void storeFrame(SampleFrame inFrame)
+    throws InterruptedException {
+    WriteBehindBuffer[] buffers = storageBuffers;
+
+    if (buffers == null) {
+      inFrame.release();
+      return;
+    }
+
+    WriteBehindBuffer buffer =
+       buffers[Math.floorMod(inFrame.getTable().hashCode(), buffers.length)];
+    boolean stored = false;
+
+    try {
+      stored = buffer.put(inFrame);
+      if (!stored && !buffer.isClosed())
+        spoolFrame(inFrame);
+    } finally {
+      if (!stored)
+        inFrame.release();
+    }
+  }
+
+  /**
+   * Appends a frame to the spool.  The frame still belongs to the caller.
+   *
+   * @param inFrame the frame to spool
+   * @return <code>true</code> if the frame was spooled
+   */
+  private boolean spoolFrame(SampleFrame inFrame) {
+    if (spool != null) {
+      try {
+        spool.append(inFrame);
+        return true;
+      } catch (IOException e) {
+        storageErrors.incrementAndGet();
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Moves the frames left in a closed write-behind buffer to the spool, to
+   * be stored at the next start.  The frames which cannot be spooled are
+   * dropped.
+   *
+   * @param inBuffer the closed buffer
+   * @return the number of spooled frames
+   */
+  private int spillBuffer(WriteBehindBuffer inBuffer) {
+    int spooled = 0;
+
+    try {
+      SampleFrame frame;
+
+      while ((frame = inBuffer.take(0)) != null) {
+        try {
+          if (spoolFrame(frame))
+            spooled++;
+        } finally {
+          frame.release();
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    return spooled;
+  }
+
+  /**
+   * Creates the write-behind buffers and starts the storage threads.
+   *
+   * @param inHandler a handler function to catch an exception that prevents
+   *                  the storage of the entries, it can be <code>null</code>
+   * @throws ExecutionException if the spool cannot be opened
+   */
+  private void startStorage(Thread.UncaughtExceptionHandler inHandler)
+    throws ExecutionException {
+    int n = Math.min(storageThreads, bufferCapacity);
+    WriteBehindBuffer[] buffers = new WriteBehindBuffer[n];
+    Thread[] workers = new Thread[n];
+
+    /* The frames left in the spool by a previous run are replayed too. */
+    try {
+      spool = new Spool(directory, name, Spool.DEFAULT_SEGMENT_SIZE,
+                        replayRate);
+    } catch (IOException e) {
+      throw new ExecutionException("Cannot open the spool of " + name, e);
+    }
+
+    for (int i = 0; i < n; i++) {
+      /* Split the capacity among the buffers. */
+      buffers[i] = new WriteBehindBuffer(bufferCapacity / n +
+                                         (i < bufferCapacity % n ? 1 : 0),
+                                         bufferPolicy);
+      workers[i] = new Thread(new StorageWorker(buffers[i], inHandler),
+                              name + "-storage-" + (i + 1));
+      workers[i].setDaemon(true);
+    }
+
+    storageBuffers = buffers;
+    storageWorkers = workers;
+
+    for (final Thread t : workers) {
+      t.start();
+    }
+  }
+
+  /**
+   * Stops the storage threads, after they stored the pending entries.  If
+   * they cannot complete in time, the remaining entries are spooled, when the
+   * buffer policy is to spill them, or dropped.
+   */
+  private void stopStorage() {
+    WriteBehindBuffer[] buffers = storageBuffers;
+    Thread[] workers = storageWorkers;
+
+    if (buffers == null)
+      return;
+
+    for (final WriteBehindBuffer b : buffers) {
+      b.close();
+    }
+
+    long deadline = System.currentTimeMillis() + 5000;
+
+    for (final Thread t : workers) {
+      try {
+        t.join(Math.max(1, deadline - System.currentTimeMillis()));
+        if (t.isAlive()) {
+          t.interrupt();
+          t.join(1000);
+        }
+      } catch (InterruptedException e) {
+        t.interrupt();
+      }
+    }
+
+    for (final WriteBehindBuffer b : buffers) {
+      int pending = b.getDepth();
+      int spooled = 0;
+
+      if (pending == 0)
+        continue;
+
+      if (bufferPolicy == StoragePolicy.SPILL)
+        spooled = spillBuffer(b);
+      b.discard();
+
+      if (spooled > 0)
+        log(name + ": " + spooled + " entries spooled", false);
+      if (pending > spooled)
+        log(name + ": " + (pending - spooled) + " entries not stored", false);
+    }
+
+    storageWorkers = null;
+    spool.close();
+  }
+
+  /**
+   * Writes the variables of a connection, if it is connected.
+   *
+   * @param inConnection the connection to write
+   */
+  private void writeConnection(ConnectionManager inConnection) {
+    if (inConnection.getStatus()) {
+      WriteableConnection wc = (WriteableConnection) inConnection;
+      wc.write();
+    }
+  }
+
+  /**
+   * AcquisitionCycle
+   * The periodic task of a connection.  When the scheduler fires it, the
+   * reading and writing phases of the connection are run on the acquisition
+   * pool, the writing phase after the reading phase. If the previous cycle of
+   * the same connection is still running, there is an overrun and the new
+   * cycle is handled according to the overrun policy of the connection.
+   *
+   * @version 0.8
+   * @author Stefano Guidoni
+   */
+  private final class AcquisitionCycle implements LongConsumer {
+    /**
+     * The maximum number of missed cycles kept for catching up.  Further
+     * cycles are skipped.
+     */
+    private static final int MAX_BACKLOG = 100;
+
+    /**
+     * The connection served by this cycle.
+     */
+    private final ConnectionManager connection;
+
+    /**
+     * The pool of the frames of the connection.
+     */
+    private final SampleFramePool pool;
+
+    /**
+     * The change detection of the connection.
+     */
+    private final ChangeFilter filter;
+
+    /**
+     * The circuit breaker of the connection.
+     */
+    private final ReconnectManager reconnect;
+
+    /**
+     * The time between the start of the data logging and the first good
+     * value read from the connection, in milliseconds, or -1.
+     */
+    private volatile long firstSampleDelay;
+
+    /**
+     * This is <code>true</code> while a cycle is pending or running.
+     */
+    private boolean running;
+
+    /**
+     * The number of cycles to run when the current one ends.
+     */
+    private int backlog;
+
+    /**
+     * The time the first cycle of the backlog was due, in milliseconds since
+     * the epoch.
+     */
+    private long backlogTime;
+
+    /**
+     * The number of times a cycle was due while the previous one was running.
+     */
+    private long overrunCount;
+
+    /**
+     * The number of cycles that did not run at all.
+     */
+    private long skippedCount;
+
+    /**
+     * The worst delay between the time a cycle was due and its start, in
+     * milliseconds.
+     */
+    private long maxLateness;
+
+    /**
+     * Class constructor.
+     *
+     * @param inConnection the connection served by this cycle
+     */
+    AcquisitionCycle(ConnectionManager inConnection) {
+      String[] names = new String[inConnection.getVariableReaderCount()];
+
+      for (int i = 0; i < names.length; i++) {
+        names[i] = inConnection.getVariableReader(i).getName();
+      }
+
+      connection = inConnection;
+      /* Enough frames for a full buffer and a batch being stored. */
+      pool = new SampleFramePool(inConnection.getName(), names,
+                                 bufferCapacity + 256);
+      filter = new ChangeFilter(inConnection);
+      inConnection.setLog(msg -> log(msg, false));
+      /* Values may have changed while the connection was down. */
+      reconnect = new ReconnectManager(inConnection, filter::reset,
+                                       msg -> log(msg, false));
+      firstSampleDelay = -1;
+      running = false;
+      backlog = 0;
+      overrunCount = 0;
+      skippedCount = 0;
+      maxLateness = 0;
+    }
+
+    /**
+     * Returns the worst delay between the time a cycle was due and its start.
+     *
+     * @return the maximum lateness in milliseconds
+     */
+    synchronized long getMaxLateness() {
+      return maxLateness;
+    }
+
+    /**
+     * Returns the number of overruns.
+     *
+     * @return the number of times a cycle was due while the previous one was
+     *         still running
+     */
+    synchronized long getOverrunCount() {
+      return overrunCount;
+    }
+
+    /**
+     * Returns the number of cycles that did not run at all.
+     *
+     * @return the number of skipped cycles
+     */
+    synchronized long getSkippedCount() {
+      return skippedCount;
+    }
+
+    /**
+     * Submits a new cycle to the acquisition pool.  It is called by the
+     * scheduler when the connection is due.
+     *
+     * @param inScheduledTime the time the cycle was due, in milliseconds
+     *                        since the epoch
+     */
+    @Override
+    public void accept(long inScheduledTime) {
+      synchronized (this) {
+        if (running) {
+          overrunCount++;
+
+          switch (connection.getOverrunPolicy()) {
+            case COALESCE:
+              /* One pending cycle at most, due at the latest time. */
+              if (backlog > 0)
+                skippedCount++;
+              backlog = 1;
+              backlogTime = inScheduledTime;
+              break;
+            case CATCH_UP:
+              if (backlog == 0)
+                backlogTime = inScheduledTime;
+              if (backlog < MAX_BACKLOG)
+                backlog++;
+              else
+                skippedCount++;
+              break;
+            default:
+              skippedCount++;
+              break;
+          }
+
+          return;
+        }
+
+        running = true;
+      }
+
+      submit(inScheduledTime, false);
+    }
+
+    /**
+     * Records the time to the first sample, if the connection read a good
+     * value.
+     */
+    private void checkFirstSample() {
+      for (int i = 0; i < connection.getVariableReaderCount(); i++) {
+        if (connection.getVariableReader(i).getQuality() == Quality.GOOD) {
+          firstSampleDelay = System.currentTimeMillis() - startTime;
+          log(connection.getName() + " first sample after " +
+              firstSampleDelay + " ms", false);
+          return;
+        }
+      }
+    }
+
+    /**
+     * Submits a cycle to the acquisition pool.
+     *
+     * @param inScheduledTime the time the cycle was due, in milliseconds
+     *                        since the epoch
+     * @param inBackdated <code>true</code> if the data must be timestamped
+     *                    with <code>inScheduledTime</code>
+     */
+    private void submit(final long inScheduledTime,
+                        final boolean inBackdated) {
+      AcquisitionExecutor workers = acquisitionExecutor;
+
+      if (workers == null ||
+          !workers.execute(() -> run(inScheduledTime, inBackdated))) {
+        /* The pool is saturated or stopped, skip this cycle and the backlog. */
+        synchronized (this) {
+          skippedCount += 1 + backlog;
+          backlog = 0;
+          running = false;
+        }
+      }
+    }
+
+    /**
+     * Runs the reading phase, then the writing phase of the connection, if
+     * the connection is up.  Then it submits the next cycle of the backlog, if
+     * any.
+     *
+     * @param inScheduledTime the time the cycle was due, in milliseconds
+     *                        since the epoch
+     * @param inBackdated <code>true</code> if the data must be timestamped
+     *                    with <code>inScheduledTime</code>
+     */
+    private void run(long inScheduledTime, boolean inBackdated) {
+      long lateness = System.currentTimeMillis() - inScheduledTime;
+      long nextTime = 0;
+      boolean next = false;
+      boolean backdated = false;
+
+      synchronized (this) {
+        if (lateness > maxLateness)
+          maxLateness = lateness;
+      }
+
+      try {
+        /* A connection which is down is skipped at once. */
+        if (reconnect.isUp(reconnectExecutor)) {
+          if (!connection.isReaderListEmpty()) {
+            readConnection(connection, pool, filter,
+                           inBackdated ? inScheduledTime : -1);
+            if (firstSampleDelay < 0)
+              checkFirstSample();
+          }
+
+          if (!connection.isWriterListEmpty() &&
+              connection instanceof WriteableConnection) {
+            writeConnection(connection);
+          }
+
+          reconnect.cycleDone();
+        }
+      } finally {
+        synchronized (this) {
+          if (backlog > 0 && acquisitionExecutor != null) {
+            next = true;
+            nextTime = backlogTime;
+            backdated =
+                     (connection.getOverrunPolicy() == OverrunPolicy.CATCH_UP);
+            backlog--;
+            backlogTime += connection.getSampleTime() *
+                           TimingWheelScheduler.TICK;
+          } else {
+            backlog = 0;
+            running = false;
+          }
+        }
+      }
+
+      if (next)
+        submit(nextTime, backdated);
+    }
+  }
+
+  /**
+   * StorageWorker
+   * The task of a storage thread.  It takes the frames out of a write-behind
+   * buffer and stores them. When a frame cannot be stored, it goes to the
+   * spool, and so do the following frames, until the spool is replayed: the
+   * frames are always stored in order. About once a second, it replays some
+   * spooled frames and flushes the data logger.
+   *
+   * @version 0.8
+   * @author Stefano Guidoni
+   */
+  private final class StorageWorker implements Runnable {
+    /**
+     * The time to wait for a new entry, before doing the idle tasks, in
+     * milliseconds.
+     */
+    private static final long IDLE_TIME = 1000;
+
+    /**
+     * The maximum time between two attempts to store an entry, in
+     * milliseconds.
+     */
+    private static final long MAX_RETRY_TIME = 30000;
+
+    /**
+     * The buffer served by this worker.
+     */
+    private final WriteBehindBuffer buffer;
+
+    /**
+     * A handler function to catch an exception that prevents the storage of
+     * the entries.
+     */
+    private final Thread.UncaughtExceptionHandler handler;
+
+    /**
+     * This is <code>true</code> while the storage is failing.
+     */
+    private boolean failing;
+
+    /**
+     * The time to wait, after a failed replay, before replaying again, in
+     * milliseconds.
+     */
+    private long replayRetryTime;
+
+    /**
+     * The earliest time of the next replay, in milliseconds since the epoch.
+     */
+    private long nextReplayTime;
+
+    /**
+     * Class constructor.
+     *
+     * @param inBuffer the buffer served by this worker
+     * @param inHandler a handler function to catch an exception that prevents
+     *                  the storage of the entries, it can be <code>null</code>
+     */
+    StorageWorker(WriteBehindBuffer inBuffer,
+                  Thread.UncaughtExceptionHandler inHandler) {
+      buffer = inBuffer;
+      handler = inHandler;
+      failing = false;
+      replayRetryTime = IDLE_TIME;
+      nextReplayTime = 0;
+    }
+
+    /**
+     * Stores the frames of the buffer, until it is closed and empty.
+     */
+    @Override
+    public void run() {
+      long lastFlush = System.currentTimeMillis();
+
+      try {
+        while (true) {
+          SampleFrame frame = buffer.take(IDLE_TIME);
+
+          if (frame != null) {
+            store(frame);
+
+            /* Held back entries are flushed even if the buffer is never
+             * idle. */
+            if (System.currentTimeMillis() - lastFlush >= IDLE_TIME) {
+              flush();
+              lastFlush = System.currentTimeMillis();
+            }
+          } else if (buffer.isClosed()) {
+            break;
+          } else {
+            idle();
+            lastFlush = System.currentTimeMillis();
+          }
+        }
+      } catch (InterruptedException ie) {
+        /* Stopping, the remaining entries are discarded by the caller. */
+      }
+
+      try {
+        flushEntries(true);
+      } catch (IllegalStateException ise) {
+        storageErrors.incrementAndGet();
+      }
+    }
+
+    /**
+     * Replays some spooled frames and flushes the entries held back by the
+     * data logger, which are due.
+     */
+    private void flush() {
+      replay();
+      checkDrain();
+
+      try {
+        flushEntries(false);
+      } catch (IllegalStateException ise) {
+        failed(ise);
+      }
+    }
+
+    /**
+     * Replays some spooled frames, flushes the data logger and forces the
+     * spool to disk.
+     *
+     * @throws InterruptedException if interrupted while waiting to try again
+     */
+    private void idle()
+      throws InterruptedException {
+      replay();
+      checkDrain();
+
+      try {
+        flushEntries(false);
+        if (spool.isEmpty())
+          recovered();
+      } catch (IllegalStateException ise) {
+        failed(ise);
+      }
+
+      spool.sync();
+    }
+
+    /**
+     * Logs a warning if the spool is not draining while the database takes
+     * the frames, e.g. because the database is slower than the data
+     * acquisition.
+     */
+    private void checkDrain() {
+      if (spool.isStalled() && !failing)
+        log(name + ": the spool is not draining, " + spool.getBacklog() +
+            " bytes waiting", true);
+    }
+
+    /**
+     * Replays as many spooled frames as the replay rate allows, then commits
+     * them.  After a failure, it waits longer and longer before trying again.
+     */
+    private void replay() {
+      long now = System.currentTimeMillis();
+
+      if (now < nextReplayTime)
+        return;
+
+      try {
+        if (spool.replay((SampleFrame f) -> addFrame(f),
+                         () -> flushEntries(true)) > 0)
+          recovered();
+        replayRetryTime = IDLE_TIME;
+      } catch (IllegalStateException ise) {
+        failed(ise);
+        nextReplayTime = now + replayRetryTime;
+        replayRetryTime = Math.min(replayRetryTime * 2, MAX_RETRY_TIME);
+      } catch (IOException ioe) {
+        storageErrors.incrementAndGet();
+      }
+    }
+
+    /**
+     * Stores a frame.  If there are spooled frames, or if the frame cannot be
+     * stored, the frame goes to the spool, to be replayed later. Only if the
+     * spool cannot be written, it tries again until it succeeds, or until the
+     * buffer is closed.
+     *
+     * @param inFrame the frame to store
+     * @throws InterruptedException if interrupted while waiting to try again
+     */
+    private void store(SampleFrame inFrame)
+      throws InterruptedException {
+      long retryTime = IDLE_TIME;
+
+      try {
+        while (true) {
+          try {
+            /* Behind the frames waiting in the spool. */
+            if (spool.appendIfPending(inFrame))
+              return;
+          } catch (IOException ioe) {
+            /* Out of order, rather than lost. */
+            storageErrors.incrementAndGet();
+          }
+
+          try {
+            addFrame(inFrame);
+            inFrame = null;
+            recovered();
+            return;
+          } catch (IllegalStateException ise) {
+            failed(ise);
+          }
+
+          if (spoolFrame(inFrame) || buffer.isClosed())
+            return;
+
+          Thread.sleep(retryTime);
+          retryTime = Math.min(retryTime * 2, MAX_RETRY_TIME);
+        }
+      } finally {
+        if (inFrame != null)
+          inFrame.release();
+      }
+    }
+
+    /**
+     * Counts a failure to store and reports the first one of a series.
+     *
+     * @param inException the reason of the failure
+     */
+    private void failed(IllegalStateException inException) {
+      storageErrors.incrementAndGet();
+
+      if (!failing) {
+        /* Datalogger cannot write data, i.e. cannot insert data into a
+         * database.
+         * This could be due to some internal error of JIDL or it could be
+         * that the database server is unavailable or there is no more
+         * available space on disk etc.
+         * The entries wait in the spool, or in the buffer, while we
+         * try again. The handler is told once per outage.
+         */
+        failing = true;
+        Thread ct = Thread.currentThread();
+        if (handler != null) {
+          ct.setUncaughtExceptionHandler(handler);
+        }
+        ct.getUncaughtExceptionHandler().uncaughtException(ct, inException);
+      }
+    }
+
+    /**
+     * Reports the end of a series of failures.
+     */
+    private void recovered() {
+      if (failing) {
+        failing = false;
+        log(name + ": storage recovered", false);
+      }
+    }
+  }
 }
@@ -126,6 +126,16 @@ public class DataLoggerRequestHandler implements RequestHandlerInterface {
           datalogger.stopLogging();
         return null;
 
+      /* statistics: request the statistics of the data logger */
+      case "statistics":
+        /* Output payload:
+            { "statistic_name_1": value_1,
+              "statistic_name_2": value_2,
+              ...
+            }
+          */
+        return new JsonObject(datalogger.getStatistics());
+
       /* trends: request one or more trends of variables */
       case "trends":
         //TODO: add a method for this in the data logger class.
@@ -102,14 +102,13 @@ public class DummyDataLogger extends DataLogger {
   /**
    * Prints a row of data.  It prints the table name and the feeded data.
    *
-   * @param inTableName the name of the table where data are to be stored
-   * @param inData a map of data points and their values
+   * @param inFrame the frame to print
    */
   @Override
-  protected void addEntry(String inTableName, Map<String, String> inData) {
-    System.out.println("DummyDataLogger.addEntry()");
-    System.out.println(inTableName);
-    System.out.println(inData);
+  protected void addFrame(SampleFrame inFrame) {
+    System.out.println("DummyDataLogger.addFrame()");
+    System.out.println(inFrame);
+    inFrame.release();
   }
 
   /**
@@ -21,6 +21,7 @@
 
 package com.github.ilguido.jidl.datalogger;
 
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -30,7 +31,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import com.github.ilguido.jidl.datalogger.sqlheader.SQLHeader;
 import com.github.ilguido.jidl.DataTypes;
@@ -49,6 +53,38 @@ import com.github.ilguido.jidl.utils.TimeString;
   *       are always converted to lower case.
   */
 public class MariaDBDataLogger extends SQLDataLogger {
+  /**
+   * The maximum number of placeholders of a prepared statement.
+   */
+  private static final int MAX_PLACEHOLDERS = 65535;
+
+  /**
+   * The room left in a packet for its header and the command, in bytes.
+   */
+  private static final int PACKET_OVERHEAD = 64;
+
+  /**
+   * The longest text of a number or a timestamp in a statement, in bytes.
+   */
+  private static final int MAX_NUMBER_SIZE = 26;
+
+  /**
+   * The maximum size of a packet, as set by the server.  Until the server is
+   * asked, it is the default value of older servers.
+   */
+  private long maxAllowedPacket = 1048576;
+
+  /**
+   * This is <code>true</code> if the rows of a batch are stored with
+   * multi-row INSERT statements.
+   */
+  private boolean multiRowInsert = true;
+
+  /**
+   * The number of multi-row INSERT statements.
+   */
+  private long multiRowStatements = 0;
+
   /**
    * Class constructor.  It calls the parent class constructor setting the
    * name and the working directory of the database.
@@ -100,17 +136,25 @@ public class MariaDBDataLogger extends SQLDataLogger {
 
         ArrayList<String> types = executeQueryStatement(query);
         
+        query = "SELECT DATA_TYPE FROM information_schema.COLUMNS WHERE " +
+                "TABLE_NAME='" + s + "' AND column_name = '" + 
+                getTimestampS().toLowerCase() + "'";
+        
+        ArrayList<String> timestampType = executeQueryStatement(query);
+        
         ArrayList<SQLHeader> sqlh = new ArrayList<SQLHeader>();
                   
-        // the first column
-        sqlh.add(new SQLHeader(getTimestampS().toLowerCase(), DataType.TEXT));
+        // the first column, text or number
+        sqlh.add(new SQLHeader(getTimestampS().toLowerCase(),
+                               timestampTypeOf(timestampType.isEmpty() ?
+                                               null : timestampType.get(0))));
         // all the others
         for (int i = 0; i < headers.size(); i++) {
           sqlh.add(new SQLHeader(headers.get(i), 
                    DataType.valueOf(types.get(i))));
         }
           
-        sqlHeaders.put(s, sqlh);
+        putTableHeaders(s, sqlh);
       }
       
       log("Loading: " + databaseURL, false);
@@ -148,44 +192,192 @@ public class MariaDBDataLogger extends SQLDataLogger {
   }
 
   /**
-   * Inserts a new row into a table.  It adds a new row to a target table of the
-   * database.
+   * Returns some statistics about the activity of the data logger.  It adds
+   * the statistics about the multi-row INSERT statements to those of the
+   * parent class.
+   *
+   * @return a map of name-value pairs
+   */
+  @Override
+  public Map<String, Object> getStatistics() {
+    Map<String, Object> map = super.getStatistics();
+
+    synchronized (this) {
+      map.put("mariadb multi-row insert", Boolean.valueOf(multiRowInsert));
+      map.put("mariadb max allowed packet", Long.valueOf(maxAllowedPacket));
+      map.put("mariadb multi-row statements",
+              Long.valueOf(multiRowStatements));
+    }
+
+    return map;
+  }
+
+  /**
+   * Returns <code>true</code> if the rows are stored with multi-row INSERT
+   * statements.
+   *
+   * @return <code>true</code> if multi-row INSERT statements are enabled
+   */
+  public boolean isMultiRowInsert() {
+    return multiRowInsert;
+  }
+
+  /**
+   * Enables or disables the multi-row INSERT statements.  When disabled, each
+   * row of a batch is a separate statement of a JDBC batch.
+   *
+   * @param inEnable <code>true</code> to enable multi-row INSERT statements
+   */
+  public void setMultiRowInsert(boolean inEnable) {
+    multiRowInsert = inEnable;
+  }
+
+  /**
+   * Configures a new connection to the database.  It reads the maximum size
+   * of a packet, which limits the size of a statement.
+   *
+   * @throws SQLException if the connection cannot be configured
+   */
+  @Override
+  protected void configureConnection()
+    throws SQLException {
+    try (Statement stmt = connection.createStatement();
+         ResultSet rs = stmt.executeQuery("SELECT @@max_allowed_packet;")) {
+      if (rs.next()) {
+        synchronized (this) {
+          maxAllowedPacket = rs.getLong(1);
+        }
+      }
+    }
+  }
+
+  /**
+   * Stores a batch with multi-row INSERT statements.  Each statement holds
+   * as many rows as fit in a packet, so that the batch takes few round trips
+   * to the server.
    *
-   * @param inTableName the name of the target table
-   * @param inData a map of datapoints
+   * @param inBatch the batch to store
+   * @throws SQLException if the rows cannot be stored
    */
   @Override
-  protected void addEntry(String inTableName,
-                          Map<String, String> inData) {
-    String sql;
-    ArrayList<SQLHeader> headers = sqlHeaders.get(inTableName);
-
-    // build the VALUES and HEADER part of the SQL statement
-    // the first element is always the timestamp and it is always there
-    String sqlValues = "VALUES ('" + inData.get(getTimestampS()) + "'";
-    String sqlHeader = "(" + getTimestampS().toLowerCase();
-
-    // try to read all the other data
-    for (int i = 1; i < headers.size(); i++) {
-      /* Let's insert a value only if it is not null.
-       * MariaDB automatically sets to null column values which are not
-       * inserted, when adding a new row.
-       */
-      if (inData.get(headers.get(i).getHeader()) != null) {
-        sqlValues += "," + (headers.get(i).getDataType() == DataType.TEXT? 
-                            "'" + inData.get(headers.get(i).getHeader()) + "'":
-                            inData.get(headers.get(i).getHeader()));
-        sqlHeader += ",`" + headers.get(i).getHeader() + "`";
+  protected void flushBatch(TableBatch inBatch)
+    throws SQLException {
+    if (!multiRowInsert) {
+      super.flushBatch(inBatch);
+      return;
+    }
+
+    List<SQLHeader> headers = inBatch.getHeaders();
+    List<SampleFrame> rows = inBatch.getRows();
+    int maxRows = Math.max(1, MAX_PLACEHOLDERS / headers.size());
+    long prefix = buildInsertStatement(inBatch, 0)
+                    .getBytes(StandardCharsets.UTF_8).length;
+    long limit;
+
+    synchronized (this) {
+      limit = maxAllowedPacket - prefix - PACKET_OVERHEAD;
+    }
+
+    int start = 0;
+    while (start < rows.size()) {
+      /* Fill the statement up to the packet size. */
+      long size = 0;
+      int end = start;
+
+      while (end < rows.size() && end - start < maxRows) {
+        long rowSize = estimateRowSize(inBatch, rows.get(end));
+
+        if (end > start && size + rowSize > limit)
+          break;
+
+        size += rowSize;
+        end++;
+      }
+
+      try (PreparedStatement ps =
+             connection.prepareStatement(buildInsertStatement(inBatch,
+                                                              end - start))) {
+        int index = 1;
+
+        for (int r = start; r < end; r++) {
+          index = bindRow(ps, index, inBatch, rows.get(r));
+        }
+
+        ps.executeUpdate();
+      }
+
+      synchronized (this) {
+        multiRowStatements++;
       }
+      start = end;
     }
-    sqlHeader += ") ";
-    sql = "INSERT INTO `" + inTableName + "` " + sqlHeader + sqlValues + ");";
+  }
 
-    try {
-      executeUpdateStatement(sql);
-    } catch (SQLException e) {
-      log("Failed addEntry: " + sql, true);
+  /**
+   * Returns the statements which create an empty copy of a table, with a
+   * numeric timestamp column.  MariaDB commits a transaction before each of
+   * these statements, so the migration of a table is not atomic: the old
+   * table is dropped only after all its rows have been copied, and a copy
+   * left by an interrupted migration is dropped or renamed at the next
+   * start.
+   *
+   * @param inCopy the name of the new table
+   * @param inTable the name of the table to copy
+   * @param inHeaders the headers of the table to copy
+   * @return the list of statements to execute, in order
+   */
+  @Override
+  protected List<String> buildEpochTableStatements(String inCopy,
+                                                   String inTable,
+                                                   List<SQLHeader> inHeaders) {
+    List<String> statements = new ArrayList<String>();
+
+    statements.add("CREATE TABLE " + quoteIdentifier(inCopy) + " LIKE " +
+                   quoteIdentifier(inTable) + ";");
+    statements.add("ALTER TABLE " + quoteIdentifier(inCopy) + " MODIFY " +
+                   quoteIdentifier(inHeaders.get(0).getHeader()) +
+                   " BIGINT;");
+
+    return statements;
+  }
+
+  /**
+   * Returns an identifier quoted for MariaDB.
+   *
+   * @param inIdentifier the identifier to quote
+   * @return the quoted identifier
+   */
+  @Override
+  protected String quoteIdentifier(String inIdentifier) {
+    return "`" + inIdentifier.replace("`", "``") + "`";
+  }
+
+  /**
+   * Returns the estimated size of a row in a statement.  The bytes of text
+   * values are counted twice, because their characters could be escaped;
+   * numbers and the timestamp are counted as the longest text they could be.
+   *
+   * @param inBatch the batch of the row
+   * @param inFrame the frame of the row
+   * @return the size of the row in bytes
+   */
+  private static long estimateRowSize(TableBatch inBatch, SampleFrame inFrame) {
+    int[] slots = inBatch.getSlots(inFrame);
+    long size = 3 + MAX_NUMBER_SIZE;
+
+    for (int i = 1; i < slots.length; i++) {
+      if (slots[i] == TableBatch.QUALITY_SLOT)
+        size += slots.length + 3;
+      else if (slots[i] < 0 || inFrame.isNull(slots[i]))
+        size += 4;
+      else if (inFrame.getKind(slots[i]) == SampleFrame.Kind.TEXT)
+        size += 2 * inFrame.getText(slots[i])
+                      .getBytes(StandardCharsets.UTF_8).length + 3;
+      else
+        size += MAX_NUMBER_SIZE + 3;
     }
+
+    return size;
   }
 
   /**
@@ -31,6 +31,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import com.github.ilguido.jidl.connectionmanager.ConnectionManager;
 import com.github.ilguido.jidl.datalogger.sqlheader.SQLHeader;
@@ -50,6 +51,45 @@ import com.github.ilguido.jidl.utils.TimeString;
   *       lower case.
   */
 public class MonetDBDataLogger extends SQLDataLogger {
+  /**
+   * The default maximum number of rows of a COPY INTO statement.
+   */
+  public static final int DEFAULT_COPY_CHUNK = 10000;
+
+  /**
+   * The time after which COPY INTO is tried again, once it was refused, in
+   * milliseconds.
+   */
+  private static final long COPY_RETRY_TIME = 600000;
+
+  /**
+   * The maximum number of rows of a COPY INTO statement, zero to store the
+   * rows with INSERT statements.
+   */
+  private int copyChunk = DEFAULT_COPY_CHUNK;
+
+  /**
+   * This is <code>false</code> while COPY INTO is not used, because a COPY
+   * INTO statement was refused by the database.
+   */
+  private boolean copyEnabled = true;
+
+  /**
+   * The time COPY INTO was refused, in milliseconds since the epoch.
+   */
+  private long copyRefusedTime = 0;
+
+  /**
+   * The number of rows stored with COPY INTO.
+   */
+  private long copiedRows = 0;
+
+  /**
+   * A message for the diagnostics log, which could not be logged because the
+   * transaction was aborted.
+   */
+  private String pendingMessage = null;
+
   /**
    * Class constructor.  It calls the parent class constructor setting the
    * name and the working directory of the database.
@@ -101,10 +141,18 @@ public class MonetDBDataLogger extends SQLDataLogger {
 
         ArrayList<String> types = executeQueryStatement(query);
         
+        query = "SELECT type FROM sys.statistics('" + inName + "') " +
+                "WHERE column = '" + getTimestampS().toLowerCase() + 
+                "' AND table = '" + s + "';";
+        
+        ArrayList<String> timestampType = executeQueryStatement(query);
+        
         ArrayList<SQLHeader> sqlh = new ArrayList<SQLHeader>();
                   
-        // the first column
-        sqlh.add(new SQLHeader(getTimestampS().toLowerCase(), DataType.TEXT));
+        // the first column, text or number
+        sqlh.add(new SQLHeader(getTimestampS().toLowerCase(),
+                               timestampTypeOf(timestampType.isEmpty() ?
+                                               null : timestampType.get(0))));
         // all the others
         for (int i = 0; i < headers.size(); i++) {
           //FIXME: hackish...
@@ -113,7 +161,7 @@ public class MonetDBDataLogger extends SQLDataLogger {
                                                  "TEXT": "INTEGER")));
         }
           
-        sqlHeaders.put(s, sqlh);
+        putTableHeaders(s, sqlh);
       }
       
       log("Loading: " + databaseURL, false);
@@ -151,44 +199,269 @@ public class MonetDBDataLogger extends SQLDataLogger {
   }
 
   /**
-   * Inserts a new row into a table.  It adds a new row to a target table of the
-   * database.
+   * Returns the maximum number of rows of a COPY INTO statement.
    *
-   * @param inTableName the name of the target table
-   * @param inData a map of datapoints
+   * @return the size of a chunk, zero if COPY INTO is not used
+   */
+  public int getCopyChunk() {
+    return copyChunk;
+  }
+
+  /**
+   * Returns some statistics about the activity of the data logger.  It adds
+   * the statistics about the bulk loading to those of the parent class.
+   *
+   * @return a map of name-value pairs
    */
   @Override
-  protected void addEntry(String inTableName,
-                          Map<String, String> inData) {
-    String sql;
-    ArrayList<SQLHeader> headers = sqlHeaders.get(inTableName);
-
-    // build the VALUES and HEADER part of the SQL statement
-    // the first element is always the timestamp and it is always there
-    String sqlValues = "VALUES ('" + inData.get(getTimestampS()) + "'";
-    String sqlHeader = "(" + getTimestampS().toLowerCase();
-
-    // try to read all the other data
-    for (int i = 1; i < headers.size(); i++) {
-      /* Let's insert a value only if it is not null.
-       * MariaDB automatically sets to null column values which are not
-       * inserted, when adding a new row.
+  public Map<String, Object> getStatistics() {
+    Map<String, Object> map = super.getStatistics();
+
+    synchronized (this) {
+      map.put("monetdb copy enabled",
+              Boolean.valueOf(copyEnabled && copyChunk > 0));
+      map.put("monetdb copied rows", Long.valueOf(copiedRows));
+    }
+
+    return map;
+  }
+
+  /**
+   * Sets the maximum number of rows of a COPY INTO statement.
+   *
+   * @param inChunk the size of a chunk, zero to store the rows with INSERT
+   *                statements
+   * @throws IllegalArgumentException if <code>inChunk</code> is a negative
+   *                                  number
+   */
+  public void setCopyChunk(int inChunk)
+    throws IllegalArgumentException {
+    if (inChunk < 0)
+      throw new IllegalArgumentException("Copy chunk cannot be negative");
+
+    copyChunk = inChunk;
+  }
+
+  /**
+   * Stores a batch with COPY INTO statements, streaming the rows as CSV text
+   * in chunks.  If COPY INTO is disabled, or it was refused by the database,
+   * the batch is stored with INSERT statements. A COPY INTO statement
+   * refused because of its syntax or because the feature is not supported,
+   * i.e. an SQLState of class 42 or 0A, switches to INSERT statements for
+   * ten minutes; any other error is just thrown.
+   *
+   * @param inBatch the batch to store
+   * @throws SQLException if the rows cannot be stored
+   */
+  @Override
+  protected void flushBatch(TableBatch inBatch)
+    throws SQLException {
+    boolean useCopy;
+
+    if (pendingMessage != null) {
+      log(pendingMessage, false);
+      pendingMessage = null;
+    }
+
+    synchronized (this) {
+      if (!copyEnabled &&
+          System.currentTimeMillis() - copyRefusedTime >= COPY_RETRY_TIME)
+        copyEnabled = true;
+      useCopy = copyEnabled && copyChunk > 0;
+    }
+
+    if (!useCopy) {
+      super.flushBatch(inBatch);
+      return;
+    }
+
+    List<SampleFrame> rows = inBatch.getRows();
+
+    try (Statement stmt = connection.createStatement()) {
+      for (int start = 0; start < rows.size(); start += copyChunk) {
+        int end = Math.min(start + copyChunk, rows.size());
+
+        stmt.execute(buildCopyStatement(inBatch, rows.subList(start, end)));
+      }
+    } catch (SQLException e) {
+      /* If the statement itself was refused, switch to INSERT for a while:
+       * the rows are stored at the next attempt. Data errors and conflicts
+       * are not a reason to give up COPY INTO.
        */
-      if (inData.get(headers.get(i).getHeader()) != null) {
-        sqlValues += "," + (headers.get(i).getDataType() == DataType.TEXT? 
-                            "'" + inData.get(headers.get(i).getHeader()) + "'":
-                            inData.get(headers.get(i).getHeader()));
-        sqlHeader += ",\"" + headers.get(i).getHeader() + "\"";
+      if (isRefused(e)) {
+        synchronized (this) {
+          copyEnabled = false;
+          copyRefusedTime = System.currentTimeMillis();
+        }
+        /* The transaction is aborted, log it with the next one. */
+        pendingMessage = "COPY INTO refused, fall back to INSERT: " +
+                         e.getMessage();
       }
+
+      throw e;
     }
-    sqlHeader += ") ";
-    sql = "INSERT INTO \"" + inTableName + "\" " + sqlHeader + sqlValues + ");";
 
-    try {
-      executeUpdateStatement(sql);
-    } catch (SQLException e) {
-      log("Failed addEntry: " + sql, true);
+    synchronized (this) {
+      copiedRows += rows.size();
+    }
+  }
+
+  /**
+   * Returns <code>true</code> if an exception means that COPY INTO is not
+   * accepted by the database: a syntax error, an access rule violation or a
+   * feature not supported.
+   *
+   * @param inException the exception thrown by a COPY INTO statement
+   * @return <code>true</code> if COPY INTO was refused
+   */
+  private static boolean isRefused(SQLException inException) {
+    String state = inException.getSQLState();
+
+    return state != null &&
+           (state.startsWith("42") || state.startsWith("0A"));
+  }
+
+  /**
+   * Returns the statements which create an empty copy of a table, with a
+   * numeric timestamp column.
+   *
+   * @param inCopy the name of the new table
+   * @param inTable the name of the table to copy
+   * @param inHeaders the headers of the table to copy
+   * @return the list of statements to execute, in order
+   */
+  @Override
+  protected List<String> buildEpochTableStatements(String inCopy,
+                                                   String inTable,
+                                                   List<SQLHeader> inHeaders) {
+    StringBuilder sb = new StringBuilder("CREATE TABLE ");
+    List<String> statements = new ArrayList<String>();
+
+    sb.append(quoteIdentifier(inCopy))
+      .append(" AS SELECT CAST(NULL AS BIGINT) AS ")
+      .append(quoteIdentifier(inHeaders.get(0).getHeader()));
+    for (int i = 1; i < inHeaders.size(); i++) {
+      sb.append(", ").append(quoteIdentifier(inHeaders.get(i).getHeader()));
+    }
+    sb.append(" FROM ").append(quoteIdentifier(inTable))
+      .append(" WITH NO DATA;");
+    statements.add(sb.toString());
+
+    return statements;
+  }
+
+  /**
+   * Returns the statement which indexes the timestamp column of a table.
+   * MonetDB keeps an ordered index, which speeds up range queries.
+   *
+   * @param inTable the name of the table
+   * @param inColumn the name of the timestamp column
+   * @return the SQL statement
+   */
+  @Override
+  protected String buildTimestampIndexStatement(String inTable,
+                                                String inColumn) {
+    return "CREATE ORDERED INDEX " + quoteIdentifier(inTable + " " + inColumn) +
+           " ON " + quoteIdentifier(inTable) + " (" +
+           quoteIdentifier(inColumn) + ");";
+  }
+
+  /**
+   * Returns an identifier quoted for MonetDB.
+   *
+   * @param inIdentifier the identifier to quote
+   * @return the quoted identifier
+   */
+  @Override
+  protected String quoteIdentifier(String inIdentifier) {
+    return "\"" + inIdentifier.replace("\"", "\"\"") + "\"";
+  }
+
+  /**
+   * Returns a COPY INTO statement followed by its rows, as CSV text.  Text
+   * values are quoted and escaped, missing values are empty fields. It is
+   * called while storing a batch.
+   *
+   * @param inBatch the batch of the target table
+   * @param inRows the rows to copy
+   * @return the statement and its data
+   */
+  private String buildCopyStatement(TableBatch inBatch,
+                                    List<SampleFrame> inRows) {
+    List<SQLHeader> headers = inBatch.getHeaders();
+    StringBuilder sb = new StringBuilder(64 + inRows.size() * 16 *
+                                              headers.size());
+
+    sb.append("COPY ").append(inRows.size()).append(" RECORDS INTO ")
+      .append(quoteIdentifier(inBatch.getTableName())).append(" (");
+    for (int i = 0; i < headers.size(); i++) {
+      if (i > 0)
+        sb.append(',');
+      sb.append(quoteIdentifier(headers.get(i).getHeader()));
+    }
+    sb.append(") FROM STDIN USING DELIMITERS ',',E'\\n','\"' NULL AS '';\n");
+
+    for (int r = 0; r < inRows.size(); r++) {
+      SampleFrame frame = inRows.get(r);
+      int[] slots = inBatch.getSlots(frame);
+
+      // the first column is always the timestamp
+      if (headers.get(0).getDataType() == DataType.TEXT)
+        appendQuoted(sb, formatTimestamp(frame.getTimestamp()));
+      else
+        sb.append(frame.getTimestamp());
+
+      for (int i = 1; i < slots.length; i++) {
+        sb.append(',');
+        if (slots[i] == TableBatch.QUALITY_SLOT) {
+          sb.append(inBatch.getQuality(frame));
+          continue;
+        }
+        if (slots[i] < 0 || frame.isNull(slots[i]))
+          continue;
+
+        if (headers.get(i).getDataType() == DataType.TEXT)
+          appendQuoted(sb, frame.getText(slots[i]));
+        else
+          frame.appendText(slots[i], sb);
+      }
+      sb.append('\n');
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Appends a text value to the CSV data of a COPY INTO statement, quoted and
+   * escaped.
+   *
+   * @param inBuilder the string builder of the statement
+   * @param inValue the text value
+   */
+  private static void appendQuoted(StringBuilder inBuilder, String inValue) {
+    inBuilder.append('"');
+    for (int i = 0; i < inValue.length(); i++) {
+      char c = inValue.charAt(i);
+
+      switch (c) {
+        case '\\':
+          inBuilder.append("\\\\");
+          break;
+        case '"':
+          inBuilder.append("\\\"");
+          break;
+        case '\n':
+          inBuilder.append("\\n");
+          break;
+        case '\r':
+          inBuilder.append("\\r");
+          break;
+        default:
+          inBuilder.append(c);
+          break;
+      }
     }
+    inBuilder.append('"');
   }
 
   /**
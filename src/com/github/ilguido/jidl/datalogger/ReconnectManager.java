@@ -0,0 +1,301 @@
+/**
+ * ReconnectManager.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.ilguido.jidl.datalogger;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import com.github.ilguido.jidl.connectionmanager.ConnectionManager;
+import com.github.ilguido.jidl.variable.Quality;
+
+/**
+ * ReconnectManager
+ * The circuit breaker of a connection.  While the connection is up, the
+ * circuit is closed and the connection is read as usual. When the connection
+ * goes down, the circuit opens: the connection is not read, and it is
+ * initialized and connected again on a separate pool of threads, so that the
+ * acquisition workers never wait for a device that does not answer. After a
+ * failed attempt, the next one waits for an exponential backoff with
+ * jitter. After a successful attempt, the circuit is half open: the next
+ * cycle probes the connection and only if it is still up the circuit closes
+ * and the backoff starts again from the beginning.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+final class ReconnectManager {
+  /**
+   * The state of the circuit.
+   */
+  enum State {
+    /**
+     * The connection is up.
+     */
+    CLOSED,
+    /**
+     * The connection is down, waiting for the next attempt.
+     */
+    OPEN,
+    /**
+     * An attempt to connect is running.
+     */
+    CONNECTING,
+    /**
+     * The connection is up again, the next cycle probes it.
+     */
+    HALF_OPEN
+  }
+
+  /**
+   * The backoff after the first failed attempt, in milliseconds.
+   */
+  static final long INITIAL_BACKOFF = 1000;
+
+  /**
+   * The maximum backoff, in milliseconds.
+   */
+  static final long MAX_BACKOFF = 60000;
+
+  /**
+   * The connection.
+   */
+  private final ConnectionManager connection;
+
+  /**
+   * The task run after a successful attempt, before the probing cycle.
+   */
+  private final Runnable onConnected;
+
+  /**
+   * The log of the data logger.
+   */
+  private final Consumer<String> log;
+
+  /**
+   * The state of the circuit.
+   */
+  private volatile State state;
+
+  /**
+   * The number of failures since the circuit was last closed.
+   */
+  private volatile int failureCount;
+
+  /**
+   * The time of the next attempt, in milliseconds since the epoch.
+   */
+  private long nextAttempt;
+
+  /**
+   * Class constructor.  The circuit starts open, so that the first cycle
+   * connects.
+   *
+   * @param inConnection the connection
+   * @param inOnConnected the task to run after a successful attempt
+   * @param inLog the log of the data logger
+   */
+  ReconnectManager(ConnectionManager inConnection,
+                   Runnable inOnConnected,
+                   Consumer<String> inLog) {
+    connection = inConnection;
+    onConnected = inOnConnected;
+    log = inLog;
+    state = State.OPEN;
+    failureCount = 0;
+    nextAttempt = 0;
+  }
+
+  /**
+   * Returns <code>true</code> if the connection can be used now.  If it
+   * cannot, and an attempt to connect is due, the attempt is started on the
+   * given pool; it returns at once anyway.
+   *
+   * @param inExecutor the pool running the attempts to connect
+   * @return <code>true</code> if the circuit is closed or half open and the
+   *         connection is up
+   */
+  synchronized boolean isUp(AcquisitionExecutor inExecutor) {
+    switch (state) {
+      case CLOSED:
+        if (connection.getStatus())
+          return true;
+
+        /* Retry at once, then back off. */
+        state = State.OPEN;
+        nextAttempt = 0;
+        setDisconnected();
+        log.accept(connection.getName() + " connection down");
+        break;
+      case HALF_OPEN:
+        if (connection.getStatus())
+          return true;
+
+        failed();
+        break;
+      case CONNECTING:
+        return false;
+      default:
+        break;
+    }
+
+    long now = System.currentTimeMillis();
+
+    if (now >= nextAttempt && inExecutor != null) {
+      state = State.CONNECTING;
+      if (!inExecutor.execute(this::attempt)) {
+        state = State.OPEN;
+        nextAttempt = now + INITIAL_BACKOFF;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the number of failures since the circuit was last closed.
+   *
+   * @return the number of failed attempts and probes
+   */
+  int getFailureCount() {
+    return failureCount;
+  }
+
+  /**
+   * Returns the state of the circuit.
+   *
+   * @return the state
+   */
+  State getState() {
+    return state;
+  }
+
+  /**
+   * Ends a cycle which used the connection.  If the cycle was the probe of a
+   * half open circuit, the circuit closes if the connection is still up and
+   * opens again otherwise.
+   */
+  synchronized void cycleDone() {
+    if (state != State.HALF_OPEN)
+      return;
+
+    if (connection.getStatus()) {
+      state = State.CLOSED;
+      failureCount = 0;
+    } else {
+      failed();
+    }
+  }
+
+  /**
+   * Tries to initialize, if needed, and to connect the connection.  A
+   * connection which cannot be initialized because of its parameters is a
+   * configuration error, which does not go away soon: the next attempt waits
+   * for the maximum backoff.
+   */
+  private void attempt() {
+    try {
+      if (!connection.isInitialized()) {
+        try {
+          connection.initialize();
+        } catch (IllegalArgumentException e) {
+          log.accept(connection.getName() + " configuration error: " +
+                     describe(e));
+
+          synchronized (this) {
+            failed(MAX_BACKOFF);
+          }
+          return;
+        }
+        log.accept(connection.getName() + " initialized");
+      }
+
+      connection.connect();
+      onConnected.run();
+      log.accept(connection.getName() + " connected");
+
+      synchronized (this) {
+        state = State.HALF_OPEN;
+      }
+    } catch (IOException | RuntimeException e) {
+      log.accept(connection.getName() + " cannot connect: " + describe(e));
+
+      synchronized (this) {
+        failed();
+      }
+    }
+  }
+
+  /**
+   * Returns the message of an exception, followed by its cause, if any.
+   *
+   * @param inException the exception
+   * @return the description of the exception
+   */
+  private static String describe(Exception inException) {
+    Throwable cause = inException.getCause();
+    String message = inException.getMessage();
+
+    if (message == null)
+      message = inException.getClass().getSimpleName();
+    if (cause != null)
+      message += " (" + cause + ")";
+
+    return message;
+  }
+
+  /**
+   * Opens the circuit after a failure and sets the time of the next attempt.
+   * The backoff doubles at each failure, up to the maximum.
+   */
+  private void failed() {
+    int n = Math.min(failureCount, 16);
+
+    failed(Math.min(MAX_BACKOFF, INITIAL_BACKOFF << n));
+  }
+
+  /**
+   * Opens the circuit after a failure and sets the time of the next attempt.
+   * The actual wait is a random time between half and all of the backoff, so
+   * that many connections which went down together do not retry together.
+   *
+   * @param inBackoff the backoff in milliseconds
+   */
+  private void failed(long inBackoff) {
+    failureCount++;
+    state = State.OPEN;
+    nextAttempt = System.currentTimeMillis() + inBackoff / 2 +
+                  ThreadLocalRandom.current().nextLong(inBackoff / 2 + 1);
+    setDisconnected();
+  }
+
+  /**
+   * Marks all the variables of the connection as not read.
+   */
+  private void setDisconnected() {
+    for (int i = 0; i < connection.getVariableReaderCount(); i++) {
+      connection.getVariableReader(i).setQuality(Quality.DISCONNECTED);
+    }
+  }
+}
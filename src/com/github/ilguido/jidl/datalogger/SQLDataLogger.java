@@ -23,16 +23,22 @@ package com.github.ilguido.jidl.datalogger;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.ExecutionException;
 
 import com.github.ilguido.jidl.datalogger.sqlheader.SQLHeader;
+import com.github.ilguido.jidl.utils.TimeString;
 
 /**
  * SQLiteDataLogger
@@ -43,6 +49,27 @@ import com.github.ilguido.jidl.datalogger.sqlheader.SQLHeader;
  */
 
 public abstract class SQLDataLogger extends DataLogger {
+  /**
+   * The default maximum number of rows of a batch.
+   */
+  public static final int DEFAULT_BATCH_SIZE = 100;
+
+  /**
+   * The default maximum time a row waits in a batch, in milliseconds.
+   */
+  public static final long DEFAULT_BATCH_INTERVAL = 1000;
+  
+  /**
+   * The number of rows copied in a single batch by the migration of the
+   * timestamps.
+   */
+  private static final int MIGRATION_BATCH_SIZE = 1000;
+
+  /**
+   * The suffix of the name of the copy of a table, while its timestamps are
+   * migrated.
+   */
+  protected static final String MIGRATION_SUFFIX = " migration";
   
   /**
    * Name of the column where configuration information is stored.
@@ -88,6 +115,86 @@ public abstract class SQLDataLogger extends DataLogger {
    * Header of the table.
    */
   protected Map<String, ArrayList<SQLHeader>> sqlHeaders;
+
+  /**
+   * Header of the copies left by an interrupted migration of the timestamps,
+   * which are not data tables.
+   */
+  protected Map<String, ArrayList<SQLHeader>> migrationTables;
+  
+  /**
+   * A lock guarding the batches and the connection to the database.  Rows
+   * are stored in transactions, so the statements on the connection must not
+   * interleave.
+   */
+  private final Object storageLock = new Object();
+  
+  /**
+   * The batches of rows waiting to be stored, by table.
+   */
+  private final Map<String, TableBatch> batches;
+  
+  /**
+   * This is <code>true</code> if the timestamps must be stored as numbers.
+   */
+  private boolean epochTimestamps = false;
+  
+  /**
+   * The maximum number of rows of a batch.
+   */
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  
+  /**
+   * The maximum time a row waits in a batch, in milliseconds.
+   */
+  private long batchInterval = DEFAULT_BATCH_INTERVAL;
+  
+  /**
+   * The interval of the group commit in milliseconds, or zero if the batches
+   * are committed one by one.
+   */
+  private long groupCommitInterval = 0;
+  
+  /**
+   * The time of the last group commit, in milliseconds since the epoch.
+   */
+  private long lastGroupCommit = 0;
+  
+  /**
+   * The number of commits.
+   */
+  private long commitCount = 0;
+  
+  /**
+   * The total time spent committing, in nanoseconds.
+   */
+  private long commitTotalTime = 0;
+  
+  /**
+   * The longest commit, in nanoseconds.
+   */
+  private long commitMaxTime = 0;
+  
+  /**
+   * The last commit, in nanoseconds.
+   */
+  private long commitLastTime = 0;
+  
+  /**
+   * The number of batches stored.
+   */
+  private long flushedBatches = 0;
+  
+  /**
+   * The number of rows stored.
+   */
+  private long flushedRows = 0;
+  
+  /**
+   * This is <code>true</code> after a failure, when the connection to the
+   * database could be broken.
+   */
+  private boolean connectionSuspect = false;
   
   /**
    * The properties of the connection to the database.
@@ -127,6 +234,8 @@ public abstract class SQLDataLogger extends DataLogger {
     
     // initialization
     sqlHeaders = new HashMap<String, ArrayList<SQLHeader>>();
+    migrationTables = new HashMap<String, ArrayList<SQLHeader>>();
+    batches = new HashMap<String, TableBatch>();
     
     databasePath = inPath;
     databaseURL = inURLProtocol + databasePath;
@@ -140,6 +249,14 @@ public abstract class SQLDataLogger extends DataLogger {
       connectionConfig.setProperty("password", inPassword);
     }
     
+    try {
+      // this throws an exception if the driver is unavailable
+      Class.forName(JDBCClassName);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalArgumentException(databaseEngineName + 
+                                         " driver is not available", e);
+    }
+    
     // try to connect to the database
     try {
       connection = DriverManager.getConnection(databaseURL, connectionConfig);
@@ -166,6 +283,10 @@ public abstract class SQLDataLogger extends DataLogger {
     if (connection == null)
       try {
         connection = DriverManager.getConnection(databaseURL,connectionConfig);
+        configureConnection();
+        recoverMigrations();
+        if (epochTimestamps)
+          migrateTimestamps();
         super.startLogging(inHandler);
       } catch (SQLException e) {
         throw new ExecutionException("Cannot initialize a valid connection to "+
@@ -173,6 +294,217 @@ public abstract class SQLDataLogger extends DataLogger {
       }
   }
   
+  /**
+   * Returns the maximum number of rows of a batch.
+   *
+   * @return the number of rows that triggers the storage of a batch
+   */
+  public int getBatchSize() {
+    return batchSize;
+  }
+  
+  /**
+   * Returns the interval of the group commit.
+   *
+   * @return the time between two group commits in milliseconds, zero if the
+   *         group commit is disabled
+   */
+  public long getGroupCommitInterval() {
+    return groupCommitInterval;
+  }
+  
+  /**
+   * Returns the maximum time a row waits in a batch.
+   *
+   * @return the time that triggers the storage of a batch, in milliseconds
+   */
+  public long getBatchInterval() {
+    return batchInterval;
+  }
+  
+  /**
+   * Returns <code>true</code> if the timestamps are stored as numbers.
+   *
+   * @return <code>true</code> if the tables are migrated to numeric
+   *         timestamps when the data logging starts
+   */
+  public boolean isEpochTimestamps() {
+    return epochTimestamps;
+  }
+  
+  /**
+   * Converts the timestamps of the tables from text to numbers, i.e.
+   * milliseconds since the epoch, and indexes them.  Each table is copied
+   * into a new one, with a numeric timestamp column, which then replaces the
+   * old one. The tables whose timestamps are numbers already are left alone.
+   * The text timestamps are read in the date format of the data logger and
+   * in the default time zone; rows with a timestamp that cannot be read are
+   * dropped.
+   *
+   * @throws ExecutionException if a table cannot be converted
+   */
+  public void migrateTimestamps()
+    throws ExecutionException {
+    synchronized (storageLock) {
+      for (final Map.Entry<String, ArrayList<SQLHeader>> e :
+                                                      sqlHeaders.entrySet()) {
+        if (e.getValue().get(0).getDataType() != DataType.TEXT)
+          continue;
+        
+        try {
+          long[] counts = migrateTable(e.getKey(), e.getValue());
+          
+          log("Migrated timestamps of " + e.getKey() + ": " + counts[0] +
+              " rows, " + counts[1] + " dropped", false);
+        } catch (SQLException se) {
+          throw new ExecutionException("Cannot migrate the timestamps of " +
+                                       e.getKey(), se);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Cleans up after an interrupted migration of the timestamps.  A copy left
+   * next to its table is dropped, so that the table can be migrated again. A
+   * copy without its table, i.e. the table was dropped but the copy was not
+   * renamed yet, replaces the table.
+   *
+   * @throws ExecutionException if a copy cannot be dropped or renamed
+   */
+  public void recoverMigrations()
+    throws ExecutionException {
+    synchronized (storageLock) {
+      for (final Map.Entry<String, ArrayList<SQLHeader>> e :
+                                                  migrationTables.entrySet()) {
+        String copy = e.getKey();
+        String table = copy.substring(0, copy.length() -
+                                         MIGRATION_SUFFIX.length());
+        
+        try (Statement ddl = connection.createStatement()) {
+          if (sqlHeaders.containsKey(table)) {
+            ddl.executeUpdate("DROP TABLE " + quoteIdentifier(copy) + ";");
+            log("Dropped the copy of an interrupted migration: " + copy,
+                false);
+          } else {
+            ddl.executeUpdate("ALTER TABLE " + quoteIdentifier(copy) +
+                              " RENAME TO " + quoteIdentifier(table) + ";");
+            try {
+              ddl.executeUpdate(buildTimestampIndexStatement(table,
+                                       e.getValue().get(0).getHeader()));
+            } catch (SQLException ie) {
+              /* The index is already there. */
+            }
+            sqlHeaders.put(table, e.getValue());
+            log("Completed an interrupted migration: " + table, false);
+          }
+        } catch (SQLException se) {
+          throw new ExecutionException("Cannot recover the migration of " +
+                                       table, se);
+        }
+      }
+      
+      migrationTables.clear();
+    }
+  }
+  
+  /**
+   * Returns some statistics about the activity of the data logger.  It adds
+   * the statistics about the batches to those of the parent class.
+   *
+   * @return a map of name-value pairs
+   */
+  @Override
+  public Map<String, Object> getStatistics() {
+    Map<String, Object> map = super.getStatistics();
+    
+    synchronized (storageLock) {
+      int pending = 0;
+      
+      for (final TableBatch b : batches.values()) {
+        pending += b.size();
+      }
+      
+      map.put("sql batch size", Integer.valueOf(batchSize));
+      map.put("sql batch interval ms", Long.valueOf(batchInterval));
+      map.put("sql pending rows", Integer.valueOf(pending));
+      map.put("sql stored batches", Long.valueOf(flushedBatches));
+      map.put("sql stored rows", Long.valueOf(flushedRows));
+      map.put("sql group commit ms", Long.valueOf(groupCommitInterval));
+      map.put("sql commits", Long.valueOf(commitCount));
+      map.put("sql commit latency last us",
+              Long.valueOf(commitLastTime / 1000));
+      map.put("sql commit latency avg us",
+              Long.valueOf(commitCount == 0 ? 0 :
+                           commitTotalTime / commitCount / 1000));
+      map.put("sql commit latency max us", Long.valueOf(commitMaxTime / 1000));
+    }
+    
+    return map;
+  }
+  
+  /**
+   * Sets the maximum time a row waits in a batch.
+   *
+   * @param inInterval the time that triggers the storage of a batch, in
+   *                   milliseconds
+   * @throws IllegalArgumentException if <code>inInterval</code> is a negative
+   *                                  number
+   */
+  public void setBatchInterval(long inInterval)
+    throws IllegalArgumentException {
+    if (inInterval < 0)
+      throw new IllegalArgumentException("Batch interval cannot be negative");
+    
+    batchInterval = inInterval;
+  }
+  
+  /**
+   * Sets how the timestamps are stored.  If they are stored as numbers, the
+   * tables with text timestamps are migrated when the data logging starts.
+   * Otherwise, each table keeps the kind of timestamp it has.
+   *
+   * @param inEpoch <code>true</code> to store the timestamps as milliseconds
+   *                since the epoch
+   */
+  public void setEpochTimestamps(boolean inEpoch) {
+    epochTimestamps = inEpoch;
+  }
+  
+  /**
+   * Sets the interval of the group commit.  When it is enabled, the batches
+   * of all the tables are stored together in a single transaction, once per
+   * interval, or when a batch is full.
+   *
+   * @param inInterval the time between two group commits in milliseconds,
+   *                   zero to commit every batch on its own
+   * @throws IllegalArgumentException if <code>inInterval</code> is a negative
+   *                                  number
+   */
+  public void setGroupCommitInterval(long inInterval)
+    throws IllegalArgumentException {
+    if (inInterval < 0)
+      throw new IllegalArgumentException("Group commit cannot be negative");
+    
+    groupCommitInterval = inInterval;
+  }
+  
+  /**
+   * Sets the maximum number of rows of a batch.  A size of 1 stores every
+   * row as soon as it arrives.
+   *
+   * @param inSize the number of rows that triggers the storage of a batch
+   * @throws IllegalArgumentException if <code>inSize</code> is zero or a
+   *                                  negative number
+   */
+  public void setBatchSize(int inSize)
+    throws IllegalArgumentException {
+    if (inSize < 1)
+      throw new IllegalArgumentException("Batch size must be a positive int");
+    
+    batchSize = inSize;
+  }
+  
   /**
    * Stops the data logging.  Close the connection with the database.
    */
@@ -180,15 +512,700 @@ public abstract class SQLDataLogger extends DataLogger {
   public void stopLogging() {
     super.stopLogging();
     
-    if (connection != null) {
+    synchronized (storageLock) {
+      closeStatements();
+      
+      if (connection != null) {
+        try {
+          connection.close();
+        } catch (SQLException e) {
+          e.printStackTrace();
+        } finally {
+          connection = null;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Adds a frame to the batch of its table, as a row.  The batch is stored
+   * when it is full or its oldest row is too old, or, with the group commit,
+   * when the group commit is due. If the batch could not be stored the last
+   * time, the new frame is refused until the batch is stored, so that the new
+   * frames wait in the write-behind buffer meanwhile. The frames are released
+   * once they are stored.
+   *
+   * @param inFrame the frame to store
+   * @throws IllegalStateException when the pending rows cannot be stored
+   */
+  @Override
+  protected void addFrame(SampleFrame inFrame)
+    throws IllegalStateException {
+    String tableName = inFrame.getTable();
+    
+    synchronized (storageLock) {
+      TableBatch batch = batches.get(tableName);
+      
+      if (batch == null) {
+        ArrayList<SQLHeader> headers = sqlHeaders.get(tableName);
+        
+        if (headers == null) {
+          /* A configuration error, the row is dropped. */
+          inFrame.release();
+          try {
+            log("Failed addFrame: no such table " + tableName, true);
+          } catch (IllegalStateException ise) {
+            /* nothing to do */
+          }
+          return;
+        }
+        
+        batch = new TableBatch(tableName, headers, getQualityS());
+        batches.put(tableName, batch);
+      }
+      
+      if (batch.failed) {
+        try {
+          commit(batch);
+        } catch (SQLException e) {
+          throw new IllegalStateException("Datalogger cannot insert data", e);
+        }
+      }
+      
+      batch.add(inFrame);
+      
+      boolean due;
+      if (groupCommitInterval > 0) {
+        due = (batch.size() >= batchSize ||
+               System.currentTimeMillis() - lastGroupCommit >=
+                                                         groupCommitInterval);
+      } else {
+        due = (batch.size() >= batchSize || batch.getAge() >= batchInterval);
+      }
+      
+      if (due) {
+        try {
+          commit(batch);
+        } catch (SQLException e) {
+          /* The rows are kept in the batch, the next row will try again. */
+          try {
+            log("Failed addFrame: " + tableName + ": " + e.getMessage(),
+                true);
+          } catch (IllegalStateException ise) {
+            /* nothing to do */
+          }
+        }
+      }
+    }
+  }
+  
+  /**
+   * Binds the values of a row to the parameters of a prepared statement.
+   * The timestamp is bound as a number, or as text in the date format of the
+   * data logger, according to the type of its column.
+   *
+   * @param inStatement the prepared statement
+   * @param inIndex the index of the first parameter of the row
+   * @param inBatch the batch of the row
+   * @param inFrame the frame of the row
+   * @return the index of the parameter after the row
+   * @throws SQLException if a value cannot be bound
+   */
+  protected int bindRow(PreparedStatement inStatement,
+                        int inIndex,
+                        TableBatch inBatch,
+                        SampleFrame inFrame)
+    throws SQLException {
+    List<SQLHeader> headers = inBatch.getHeaders();
+    int[] slots = inBatch.getSlots(inFrame);
+    
+    // the first column is always the timestamp
+    if (headers.get(0).getDataType() == DataType.TEXT)
+      inStatement.setString(inIndex++,
+                            formatTimestamp(inFrame.getTimestamp()));
+    else
+      inStatement.setLong(inIndex++, inFrame.getTimestamp());
+    
+    for (int i = 1; i < slots.length; i++) {
+      if (slots[i] == TableBatch.QUALITY_SLOT)
+        inStatement.setString(inIndex++, inBatch.getQuality(inFrame));
+      else
+        bindSlot(inStatement, inIndex++, headers.get(i).getDataType(),
+                 inFrame, slots[i]);
+    }
+    
+    return inIndex;
+  }
+  
+  /**
+   * Binds the value of a slot of a frame to a parameter of a prepared
+   * statement, according to the data type of its column.  Numbers and
+   * boolean values are bound without conversions to text; a text value is
+   * bound as by {@link #bindValue(PreparedStatement, int, DataType, String)}.
+   *
+   * @param inStatement the prepared statement
+   * @param inIndex the index of the parameter, the first is 1
+   * @param inDataType the data type of the column
+   * @param inFrame the frame
+   * @param inSlot the index of the slot, or -1 if the frame has no value for
+   *               this column
+   * @throws SQLException if the value cannot be bound
+   */
+  protected static void bindSlot(PreparedStatement inStatement,
+                                 int inIndex,
+                                 DataType inDataType,
+                                 SampleFrame inFrame,
+                                 int inSlot)
+    throws SQLException {
+    if (inSlot < 0 || inFrame.isNull(inSlot) ||
+        inFrame.getKind(inSlot) == SampleFrame.Kind.TEXT) {
+      bindValue(inStatement, inIndex, inDataType,
+                inSlot < 0 ? null : inFrame.getText(inSlot));
+      return;
+    }
+    
+    switch (inDataType) {
+      case BOOLEAN:
+        inStatement.setBoolean(inIndex, inFrame.getBoolean(inSlot));
+        return;
+      case INTEGER:
+      case DOUBLE_INTEGER:
+      case BYTE:
+      case WORD:
+      case DOUBLE_WORD:
+        if (inFrame.getKind(inSlot) == SampleFrame.Kind.FLOAT ||
+            inFrame.getKind(inSlot) == SampleFrame.Kind.DOUBLE)
+          inStatement.setDouble(inIndex, inFrame.getDouble(inSlot));
+        else
+          inStatement.setLong(inIndex, inFrame.getLong(inSlot));
+        return;
+      case FLOAT:
+      case REAL:
+        inStatement.setDouble(inIndex, inFrame.getDouble(inSlot));
+        return;
+      default:
+        inStatement.setString(inIndex, inFrame.getText(inSlot));
+        return;
+    }
+  }
+  
+  /**
+   * Binds a value to a parameter of a prepared statement, according to its
+   * data type.  A <code>null</code> value is bound as SQL NULL, and a value
+   * that cannot be parsed is bound as text.
+   *
+   * @param inStatement the prepared statement
+   * @param inIndex the index of the parameter, the first is 1
+   * @param inDataType the data type of the value
+   * @param inValue the value as a text string
+   * @throws SQLException if the value cannot be bound
+   */
+  protected static void bindValue(PreparedStatement inStatement,
+                                  int inIndex,
+                                  DataType inDataType,
+                                  String inValue)
+    throws SQLException {
+    switch (inDataType) {
+      case BOOLEAN:
+        if (inValue == null)
+          inStatement.setNull(inIndex, Types.BOOLEAN);
+        else
+          inStatement.setBoolean(inIndex, inValue.equalsIgnoreCase("true") ||
+                                          inValue.equals("1"));
+        return;
+      case INTEGER:
+      case DOUBLE_INTEGER:
+      case BYTE:
+      case WORD:
+      case DOUBLE_WORD:
+        if (inValue == null) {
+          inStatement.setNull(inIndex, Types.BIGINT);
+        } else {
+          try {
+            inStatement.setLong(inIndex, Long.parseLong(inValue));
+          } catch (NumberFormatException e) {
+            inStatement.setString(inIndex, inValue);
+          }
+        }
+        return;
+      case FLOAT:
+      case REAL:
+        if (inValue == null) {
+          inStatement.setNull(inIndex, Types.DOUBLE);
+        } else {
+          try {
+            inStatement.setDouble(inIndex, Double.parseDouble(inValue));
+          } catch (NumberFormatException e) {
+            inStatement.setString(inIndex, inValue);
+          }
+        }
+        return;
+      default:
+        if (inValue == null)
+          inStatement.setNull(inIndex, Types.VARCHAR);
+        else
+          inStatement.setString(inIndex, inValue);
+        return;
+    }
+  }
+  
+  /**
+   * Stores the rows held in the batches.
+   *
+   * @param inForce <code>true</code> to store all the batches,
+   *                <code>false</code> to store only the batches whose oldest
+   *                row waited too long, or all of them if the group commit is
+   *                due
+   * @throws IllegalStateException when the rows cannot be stored
+   */
+  @Override
+  protected void flushEntries(boolean inForce)
+    throws IllegalStateException {
+    synchronized (storageLock) {
+      SQLException failure = null;
+      
+      if (groupCommitInterval > 0) {
+        if (inForce ||
+            System.currentTimeMillis() - lastGroupCommit >=
+                                                         groupCommitInterval) {
+          try {
+            commitGroup();
+          } catch (SQLException e) {
+            throw new IllegalStateException("Datalogger cannot insert data",
+                                            e);
+          }
+        }
+        
+        return;
+      }
+      
+      for (final TableBatch batch : batches.values()) {
+        if (batch.size() > 0 &&
+            (inForce || batch.failed || batch.getAge() >= batchInterval)) {
+          try {
+            commit(batch);
+          } catch (SQLException e) {
+            failure = e;
+          }
+        }
+      }
+      
+      if (failure != null)
+        throw new IllegalStateException("Datalogger cannot insert data",
+                                        failure);
+    }
+  }
+  
+  /**
+   * Stores a batch.  It executes the statements of the batch on the
+   * connection, in a transaction which is already open. Subclasses can
+   * override it to store the rows in a more efficient way.
+   *
+   * @param inBatch the batch to store
+   * @throws SQLException if the rows cannot be stored
+   */
+  protected void flushBatch(TableBatch inBatch)
+    throws SQLException {
+    PreparedStatement ps = inBatch.statement;
+    List<SampleFrame> rows = inBatch.getRows();
+    
+    if (ps == null) {
+      ps = connection.prepareStatement(buildInsertStatement(inBatch, 1));
+      inBatch.statement = ps;
+    }
+    
+    for (int r = 0; r < rows.size(); r++) {
+      bindRow(ps, 1, inBatch, rows.get(r));
+      ps.addBatch();
+    }
+    
+    ps.executeBatch();
+  }
+  
+  /**
+   * Returns an INSERT statement for a table with a placeholder for each
+   * value.
+   *
+   * @param inBatch the batch of the target table
+   * @param inRows the number of rows of the statement
+   * @return the SQL statement
+   */
+  protected String buildInsertStatement(TableBatch inBatch, int inRows) {
+    List<SQLHeader> headers = inBatch.getHeaders();
+    StringBuilder sb = new StringBuilder("INSERT INTO ");
+    StringBuilder values = new StringBuilder("(?");
+    
+    sb.append(quoteIdentifier(inBatch.getTableName())).append(" (");
+    
+    for (int i = 0; i < headers.size(); i++) {
+      if (i > 0) {
+        sb.append(',');
+        values.append(",?");
+      }
+      sb.append(quoteIdentifier(headers.get(i).getHeader()));
+    }
+    values.append(')');
+    
+    sb.append(") VALUES ").append(values);
+    for (int i = 1; i < inRows; i++) {
+      sb.append(',').append(values);
+    }
+    
+    return sb.toString();
+  }
+  
+  /**
+   * Returns a timestamp as text, in the date format of the data logger.
+   *
+   * @param inTimestamp the timestamp in milliseconds since the epoch
+   * @return the timestamp as a text string
+   */
+  protected String formatTimestamp(long inTimestamp) {
+    return TimeString.convertMillisToString(inTimestamp, getDateFormat());
+  }
+  
+  /**
+   * Returns the statements which create an empty copy of a table, with a
+   * numeric timestamp column.  The other columns keep their types. The
+   * default implementation declares the columns with the names of their data
+   * types, as in SQLite.
+   *
+   * @param inCopy the name of the new table
+   * @param inTable the name of the table to copy
+   * @param inHeaders the headers of the table to copy
+   * @return the list of statements to execute, in order
+   */
+  protected List<String> buildEpochTableStatements(String inCopy,
+                                                   String inTable,
+                                                   List<SQLHeader> inHeaders) {
+    StringBuilder sb = new StringBuilder("CREATE TABLE ");
+    List<String> statements = new ArrayList<String>();
+    
+    sb.append(quoteIdentifier(inCopy)).append(" (")
+      .append(quoteIdentifier(inHeaders.get(0).getHeader()))
+      .append(" BIGINT");
+    for (int i = 1; i < inHeaders.size(); i++) {
+      sb.append(", ").append(quoteIdentifier(inHeaders.get(i).getHeader()))
+        .append(' ').append(inHeaders.get(i).getDataType().toString());
+    }
+    sb.append(");");
+    statements.add(sb.toString());
+    
+    return statements;
+  }
+  
+  /**
+   * Returns the statement which indexes the timestamp column of a table.
+   *
+   * @param inTable the name of the table
+   * @param inColumn the name of the timestamp column
+   * @return the SQL statement
+   */
+  protected String buildTimestampIndexStatement(String inTable,
+                                                String inColumn) {
+    return "CREATE INDEX " + quoteIdentifier(inTable + " " + inColumn) +
+           " ON " + quoteIdentifier(inTable) + " (" +
+           quoteIdentifier(inColumn) + ");";
+  }
+  
+  /**
+   * Returns the data type of a timestamp column.  An integer column holds
+   * numeric timestamps, any other column text timestamps.
+   *
+   * @param inColumnType the type of the column, as reported by the database
+   * @return {@link DataType#INTEGER} or {@link DataType#TEXT}
+   */
+  protected static DataType timestampTypeOf(String inColumnType) {
+    if (inColumnType != null &&
+        inColumnType.toUpperCase().contains("INT"))
+      return DataType.INTEGER;
+    
+    return DataType.TEXT;
+  }
+  
+  /**
+   * Returns an identifier, e.g. a table name, quoted according to the rules
+   * of the database engine.
+   *
+   * @param inIdentifier the identifier to quote
+   * @return the quoted identifier
+   */
+  protected abstract String quoteIdentifier(String inIdentifier);
+  
+  /**
+   * Configures a new connection to the database.  It is called every time
+   * the data logger connects to the database, before storing any data. The
+   * default implementation does nothing.
+   *
+   * @throws SQLException if the connection cannot be configured
+   */
+  protected void configureConnection()
+    throws SQLException {
+    /* nothing to do */
+  }
+  
+  /**
+   * Stores a batch, or all the batches if the group commit is enabled.
+   *
+   * @param inBatch the batch to store
+   * @throws SQLException if the rows cannot be stored
+   */
+  private void commit(TableBatch inBatch)
+    throws SQLException {
+    if (groupCommitInterval > 0) {
+      commitGroup();
+    } else {
+      List<TableBatch> list = new ArrayList<TableBatch>(1);
+      list.add(inBatch);
+      commitBatches(list);
+    }
+  }
+  
+  /**
+   * Stores all the batches which have some rows in a single transaction.
+   *
+   * @throws SQLException if the rows cannot be stored
+   */
+  private void commitGroup()
+    throws SQLException {
+    List<TableBatch> list = new ArrayList<TableBatch>();
+    
+    for (final TableBatch b : batches.values()) {
+      if (b.size() > 0)
+        list.add(b);
+    }
+    
+    if (!list.isEmpty())
+      commitBatches(list);
+    
+    lastGroupCommit = System.currentTimeMillis();
+  }
+  
+  /**
+   * Stores some batches in a single transaction.  If it fails, the
+   * transaction is rolled back and the rows are kept in the batches.
+   *
+   * @param inBatches the batches to store
+   * @throws SQLException if the rows cannot be stored
+   */
+  private void commitBatches(List<TableBatch> inBatches)
+    throws SQLException {
+    if (connection == null)
+      throw new SQLException("Not connected to " + databaseEngineName);
+    
+    if (connectionSuspect)
+      reconnect();
+    
+    try {
+      connection.setAutoCommit(false);
+      for (final TableBatch b : inBatches) {
+        flushBatch(b);
+      }
+      
+      long start = System.nanoTime();
+      connection.commit();
+      long elapsed = System.nanoTime() - start;
+      
+      commitCount++;
+      commitTotalTime += elapsed;
+      commitLastTime = elapsed;
+      if (elapsed > commitMaxTime)
+        commitMaxTime = elapsed;
+    } catch (SQLException e) {
+      connectionSuspect = true;
+      
       try {
-        connection.close();
+        connection.rollback();
+      } catch (SQLException re) {
+        /* nothing to do */
+      }
+      for (final TableBatch b : inBatches) {
+        b.failed = true;
+        if (b.statement != null) {
+          try {
+            b.statement.close();
+          } catch (SQLException ce) {
+            /* nothing to do */
+          }
+          b.statement = null;
+        }
+      }
+      
+      throw e;
+    } finally {
+      try {
+        connection.setAutoCommit(true);
       } catch (SQLException e) {
-        e.printStackTrace();
-      } finally {
-        connection = null;
+        connectionSuspect = true;
+      }
+    }
+    
+    for (final TableBatch b : inBatches) {
+      flushedBatches++;
+      flushedRows += b.size();
+      b.clear();
+    }
+  }
+  
+  /**
+   * Converts the timestamps of a table from text to numbers.  The rows are
+   * copied into a new table, in a transaction, then the new table replaces
+   * the old one. The storage lock must be held.
+   *
+   * @param inTable the name of the table
+   * @param inHeaders the headers of the table, the first one is updated
+   * @return the number of copied rows and the number of dropped rows
+   * @throws SQLException if the table cannot be converted
+   */
+  private long[] migrateTable(String inTable, ArrayList<SQLHeader> inHeaders)
+    throws SQLException {
+    if (connection == null)
+      throw new SQLException("Not connected to " + databaseEngineName);
+    
+    String copy = inTable + MIGRATION_SUFFIX;
+    String column = inHeaders.get(0).getHeader();
+    StringBuilder select = new StringBuilder("SELECT ");
+    long rows = 0;
+    long dropped = 0;
+    boolean replaced = false;
+    
+    for (int i = 0; i < inHeaders.size(); i++) {
+      if (i > 0)
+        select.append(',');
+      select.append(quoteIdentifier(inHeaders.get(i).getHeader()));
+    }
+    select.append(" FROM ").append(quoteIdentifier(inTable));
+    
+    closeStatements();
+    connection.setAutoCommit(false);
+    try (Statement ddl = connection.createStatement();
+         Statement query = connection.createStatement()) {
+      for (final String sql :
+                         buildEpochTableStatements(copy, inTable, inHeaders)) {
+        ddl.executeUpdate(sql);
+      }
+      
+      try (PreparedStatement ps = connection.prepareStatement(
+                 buildInsertStatement(new TableBatch(copy, inHeaders,
+                                                     getQualityS()), 1));
+           ResultSet rs = query.executeQuery(select.toString())) {
+        ResultSetMetaData md = rs.getMetaData();
+        
+        while (rs.next()) {
+          try {
+            ps.setLong(1, TimeString.convertStringToMillis(rs.getString(1),
+                                                           getDateFormat()));
+          } catch (IllegalArgumentException e) {
+            dropped++;
+            continue;
+          }
+          
+          for (int i = 2; i <= inHeaders.size(); i++) {
+            Object v = rs.getObject(i);
+            
+            if (v == null)
+              ps.setNull(i, md.getColumnType(i));
+            else
+              ps.setObject(i, v);
+          }
+          ps.addBatch();
+          
+          if (++rows % MIGRATION_BATCH_SIZE == 0)
+            ps.executeBatch();
+        }
+        ps.executeBatch();
       }
+      
+      replaced = true;
+      ddl.executeUpdate("DROP TABLE " + quoteIdentifier(inTable) + ";");
+      ddl.executeUpdate("ALTER TABLE " + quoteIdentifier(copy) +
+                        " RENAME TO " + quoteIdentifier(inTable) + ";");
+      ddl.executeUpdate(buildTimestampIndexStatement(inTable, column));
+      connection.commit();
+    } catch (SQLException e) {
+      try {
+        connection.rollback();
+      } catch (SQLException re) {
+        /* nothing to do */
+      }
+      
+      /* Some engines, e.g. MariaDB, commit each DDL statement: drop the
+       * copy, unless it already holds the only data of the table. */
+      if (!replaced) {
+        try (Statement ddl = connection.createStatement()) {
+          ddl.executeUpdate("DROP TABLE IF EXISTS " + quoteIdentifier(copy) +
+                            ";");
+        } catch (SQLException de) {
+          /* It is dropped at the next start. */
+        }
+      }
+      
+      throw e;
+    } finally {
+      connection.setAutoCommit(true);
     }
+    
+    inHeaders.set(0, new SQLHeader(column, DataType.INTEGER));
+    
+    return new long[] {rows, dropped};
+  }
+  
+  /**
+   * Adds the headers of a table found in the database.  The copies left by
+   * an interrupted migration of the timestamps are kept apart, since they
+   * are not data tables.
+   *
+   * @param inTable the name of the table
+   * @param inHeaders the headers of the table, the first one is the
+   *                  timestamp
+   */
+  protected void putTableHeaders(String inTable,
+                                 ArrayList<SQLHeader> inHeaders) {
+    if (inTable.endsWith(MIGRATION_SUFFIX))
+      migrationTables.put(inTable, inHeaders);
+    else
+      sqlHeaders.put(inTable, inHeaders);
+  }
+  
+  /**
+   * Closes the cached statements of all the batches.
+   */
+  private void closeStatements() {
+    for (final TableBatch b : batches.values()) {
+      if (b.statement != null) {
+        try {
+          b.statement.close();
+        } catch (SQLException e) {
+          /* nothing to do */
+        }
+        b.statement = null;
+      }
+    }
+  }
+  
+  /**
+   * Opens a new connection to the database, if the current one is not valid
+   * anymore.
+   *
+   * @throws SQLException if the connection cannot be opened
+   */
+  private void reconnect()
+    throws SQLException {
+    if (connection.isValid(2)) {
+      connectionSuspect = false;
+      return;
+    }
+    
+    closeStatements();
+    try {
+      connection.close();
+    } catch (SQLException e) {
+      /* nothing to do */
+    }
+    
+    connection = DriverManager.getConnection(databaseURL, connectionConfig);
+    connectionSuspect = false;
+    configureConnection();
   }
 
   /**
@@ -276,20 +1293,232 @@ public abstract class SQLDataLogger extends DataLogger {
     Statement stmt = null;
     A retValue = null;
 
-    try {
-      // this throws an exception if SQLite is unavailable
-      Class.forName(JDBCClassName);
-    } catch (ClassNotFoundException e) {
-      stopLogging();
-      throw new IllegalArgumentException(databaseEngineName + 
-                                         " driver is not available", e);
-    }
-    
-    stmt = connection.createStatement();
+    synchronized (storageLock) {
+      if (connection == null)
+        throw new SQLException("Not connected to " + databaseEngineName);
+      
+      stmt = connection.createStatement();
 
-    retValue = f.go(sqlStatement, stmt);
-    stmt.close();
+      try {
+        retValue = f.go(sqlStatement, stmt);
+      } finally {
+        stmt.close();
+      }
+    }
     
     return retValue;
   }
+  
+  /**
+   * TableBatch
+   * The rows of a table waiting to be stored.  Each row is a sample frame;
+   * the batch maps the columns of the table to the slots of the frames. The
+   * frames are released when the batch is cleared.
+   *
+   * @version 0.8
+   * @author Stefano Guidoni
+   */
+  protected static final class TableBatch {
+    /**
+     * The slot of the quality column, which has no value of its own.
+     */
+    public static final int QUALITY_SLOT = -2;
+    
+    /**
+     * The name of the table.
+     */
+    private final String tableName;
+    
+    /**
+     * The headers of the table.
+     */
+    private final List<SQLHeader> headers;
+    
+    /**
+     * The rows waiting to be stored.
+     */
+    private final List<SampleFrame> rows;
+    
+    /**
+     * The slots of each column, by the slot names of the frames.  The frames
+     * of a pool share the same array of names.
+     */
+    private final Map<String[], int[]> slotMaps;
+    
+    /**
+     * The time the oldest row was added, in milliseconds since the epoch.
+     */
+    private long firstRowTime;
+    
+    /**
+     * This is <code>true</code> if the last attempt to store the batch
+     * failed.
+     */
+    private boolean failed;
+    
+    /**
+     * The cached insert statement of the table.
+     */
+    private PreparedStatement statement;
+    
+    /**
+     * The index of the quality column, -1 if the table has none.
+     */
+    private final int qualityColumn;
+    
+    /**
+     * Class constructor.
+     *
+     * @param inTableName the name of the table
+     * @param inHeaders the headers of the table
+     * @param inQualityName the name of the optional quality column
+     */
+    TableBatch(String inTableName, List<SQLHeader> inHeaders,
+               String inQualityName) {
+      int q = -1;
+      
+      for (int i = 1; i < inHeaders.size(); i++) {
+        if (inHeaders.get(i).getHeader().equalsIgnoreCase(inQualityName))
+          q = i;
+      }
+      
+      tableName = inTableName;
+      headers = inHeaders;
+      qualityColumn = q;
+      rows = new ArrayList<SampleFrame>();
+      slotMaps = new IdentityHashMap<String[], int[]>();
+      firstRowTime = 0;
+      failed = false;
+      statement = null;
+    }
+    
+    /**
+     * Adds a row to the batch.
+     *
+     * @param inFrame the frame of the row
+     */
+    public void add(SampleFrame inFrame) {
+      if (rows.isEmpty())
+        firstRowTime = System.currentTimeMillis();
+      
+      rows.add(inFrame);
+    }
+    
+    /**
+     * Removes all the rows from the batch and releases their frames.
+     */
+    public void clear() {
+      for (int r = 0; r < rows.size(); r++) {
+        rows.get(r).release();
+      }
+      rows.clear();
+      failed = false;
+    }
+    
+    /**
+     * Returns the time the oldest row has been waiting.
+     *
+     * @return the age of the batch in milliseconds, zero if it is empty
+     */
+    public long getAge() {
+      return rows.isEmpty() ? 0 : System.currentTimeMillis() - firstRowTime;
+    }
+    
+    /**
+     * Returns the headers of the table.
+     *
+     * @return the list of headers, the first one is the timestamp
+     */
+    public List<SQLHeader> getHeaders() {
+      return headers;
+    }
+    
+    /**
+     * Returns the rows of the batch.
+     *
+     * @return the list of rows
+     */
+    public List<SampleFrame> getRows() {
+      return rows;
+    }
+    
+    /**
+     * Returns the slots of a frame matching the columns of the table.  The
+     * slots of the frames of a pool are computed once.
+     *
+     * @param inFrame a frame of the batch
+     * @return the index of the slot of each column, -1 if the frame has no
+     *         value for that column, {@link #QUALITY_SLOT} for the quality
+     *         column; the first column is the timestamp and it has no slot
+     */
+    public int[] getSlots(SampleFrame inFrame) {
+      int[] slots = slotMaps.get(inFrame.getNames());
+      
+      if (slots == null) {
+        slots = new int[headers.size()];
+        slots[0] = -1;
+        for (int i = 1; i < slots.length; i++) {
+          slots[i] = (i == qualityColumn ?
+                      QUALITY_SLOT :
+                      inFrame.indexOf(headers.get(i).getHeader()));
+        }
+        
+        /* Frames out of a pool, e.g. replayed ones, have their own names. */
+        if (inFrame.getPool() != null)
+          slotMaps.put(inFrame.getNames(), slots);
+      }
+      
+      return slots;
+    }
+    
+    /**
+     * Returns the value of the quality column of a row: a character for each
+     * other column, in order, after the timestamp. It is <code>G</code> for
+     * a value read, <code>U</code> for a value which did not change since it
+     * was last logged, <code>B</code> for a value which could not be read and
+     * <code>-</code> for a column without a variable.
+     *
+     * @param inFrame a frame of the batch
+     * @return the quality of the values of the row
+     */
+    public String getQuality(SampleFrame inFrame) {
+      int[] slots = getSlots(inFrame);
+      char[] quality = new char[slots.length - 2];
+      int k = 0;
+      
+      for (int i = 1; i < slots.length; i++) {
+        if (slots[i] == QUALITY_SLOT)
+          continue;
+        
+        if (slots[i] < 0)
+          quality[k++] = '-';
+        else if (inFrame.isUnchanged(slots[i]))
+          quality[k++] = 'U';
+        else if (inFrame.isNull(slots[i]))
+          quality[k++] = 'B';
+        else
+          quality[k++] = 'G';
+      }
+      
+      return new String(quality);
+    }
+    
+    /**
+     * Returns the name of the table.
+     *
+     * @return the name of the table
+     */
+    public String getTableName() {
+      return tableName;
+    }
+    
+    /**
+     * Returns the number of rows of the batch.
+     *
+     * @return the number of rows
+     */
+    public int size() {
+      return rows.size();
+    }
+  }
 }
@@ -29,10 +29,11 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import static java.util.concurrent.TimeUnit.HOURS;
 
@@ -58,6 +59,41 @@ public class SQLiteDataLogger extends SQLDataLogger {
    */
   private static ScheduledExecutorService archiver = null;
 
+  /**
+   * The valid values of the journal mode.
+   */
+  private static final List<String> JOURNAL_MODES =
+    Arrays.asList("DELETE", "TRUNCATE", "PERSIST", "MEMORY", "WAL", "OFF");
+
+  /**
+   * The valid values of the synchronous flag.
+   */
+  private static final List<String> SYNCHRONOUS_LEVELS =
+    Arrays.asList("OFF", "NORMAL", "FULL", "EXTRA", "0", "1", "2", "3");
+
+  /**
+   * The journal mode, or <code>null</code> to keep the one of the database.
+   */
+  private String journalMode = null;
+
+  /**
+   * The synchronous flag, or <code>null</code> to keep the default one.
+   */
+  private String synchronous = null;
+
+  /**
+   * The size of the page cache, or <code>null</code> to keep the default
+   * one.  A positive number is a number of pages, a negative number is a
+   * number of kibibytes.
+   */
+  private Integer cacheSize = null;
+
+  /**
+   * The maximum size of the memory-mapped I/O in bytes, or <code>null</code>
+   * to keep the default one.
+   */
+  private Long mmapSize = null;
+
   /**
    * Class constructor.  It calls the parent class constructor setting the
    * name and the working directory of the database.
@@ -98,18 +134,25 @@ public class SQLiteDataLogger extends SQLDataLogger {
                   "WHERE name NOT LIKE '" + getTimestampS() + "' ORDER BY cid;";
 
           ArrayList<String> types = executeQueryStatement(query);
+          
+          query = "SELECT type FROM pragma_table_info('" + s + "') " +
+                  "WHERE name LIKE '" + getTimestampS() + "';";
+          
+          ArrayList<String> timestampType = executeQueryStatement(query);
                     
           ArrayList<SQLHeader> sqlh = new ArrayList<SQLHeader>();
           
-          // the first column
-          sqlh.add(new SQLHeader(getTimestampS(), DataType.TEXT));
+          // the first column, text or number
+          sqlh.add(new SQLHeader(getTimestampS(),
+                                 timestampTypeOf(timestampType.isEmpty() ?
+                                                 null : timestampType.get(0))));
           // all the others
           for (int i = 0; i < headers.size(); i++) {
             sqlh.add(new SQLHeader(headers.get(i), 
                      DataType.valueOf(types.get(i))));
           }
           
-          sqlHeaders.put(s, sqlh);
+          putTableHeaders(s, sqlh);
         }
         
         log("Loading: " + databaseURL, false);
@@ -149,6 +192,16 @@ public class SQLiteDataLogger extends SQLDataLogger {
     return map;
   }
   
+  /**
+   * Returns the journal mode.
+   *
+   * @return the journal mode, or <code>null</code> if it is the one of the
+   *         database
+   */
+  public String getJournalMode() {
+    return journalMode;
+  }
+
   /**
    * Returns true if this data logger works with an embedded database.
    *
@@ -213,14 +266,14 @@ public class SQLiteDataLogger extends SQLDataLogger {
       /* If the backup is monthly, do it only on the first week of the month.
        */
       if (monthly)  {
-        String today = TimeString.getTodayDateS().substring(8,2);
+        String today = TimeString.getTodayDateS().substring(8, 10);
         if (Integer.parseInt(today) > 7)
           return;
         
         daysToBackup = 30 + Integer.parseInt(today); //FIXME: hackish
       }
       
-      Set<String> tables = sqlHeaders.keySet();
+      List<String> tables = new ArrayList<String>(sqlHeaders.keySet());
       
       //backup old data
       String sql;
@@ -239,9 +292,20 @@ public class SQLiteDataLogger extends SQLDataLogger {
       tables.add(diagnosticsTableName);
       
       //delete old data
-      for (final String i : tables.toArray(new String[0])) {
-        sql = "DELETE FROM '" + i + "' WHERE " + getTimestampS() + 
-              "< date('now', '-" + daysToBackup + " days');";
+      long limit = System.currentTimeMillis() - daysToBackup * 86400000L;
+      
+      for (final String i : tables) {
+        ArrayList<SQLHeader> headers = sqlHeaders.get(i);
+        
+        if (headers != null &&
+            headers.get(0).getDataType() != DataType.TEXT) {
+          // numeric timestamps, the index makes this a range scan
+          sql = "DELETE FROM '" + i + "' WHERE " + getTimestampS() +
+                " < " + limit + ";";
+        } else {
+          sql = "DELETE FROM '" + i + "' WHERE " + getTimestampS() + 
+                "< date('now', '-" + daysToBackup + " days');";
+        }
         
         try {
           executeUpdateStatement(sql);
@@ -284,6 +348,70 @@ public class SQLiteDataLogger extends SQLDataLogger {
                                                                   inUseMonths));
   }
   
+  /**
+   * Sets the size of the page cache.  It is applied the next time the data
+   * logging is started.
+   *
+   * @param inSize a positive number of pages, or a negative number of
+   *               kibibytes
+   */
+  public void setCacheSize(int inSize) {
+    cacheSize = Integer.valueOf(inSize);
+  }
+
+  /**
+   * Sets the journal mode.  Write-ahead logging, i.e. <code>WAL</code>,
+   * allows the fastest commits. It is applied the next time the data logging
+   * is started.
+   *
+   * @param inMode the journal mode: DELETE, TRUNCATE, PERSIST, MEMORY, WAL or
+   *               OFF
+   * @throws IllegalArgumentException if <code>inMode</code> is not a valid
+   *                                  journal mode
+   */
+  public void setJournalMode(String inMode)
+    throws IllegalArgumentException {
+    if (inMode == null || !JOURNAL_MODES.contains(inMode.toUpperCase()))
+      throw new IllegalArgumentException("Invalid journal mode: " + inMode);
+
+    journalMode = inMode.toUpperCase();
+  }
+
+  /**
+   * Sets the maximum size of the memory-mapped I/O.  It is applied the next
+   * time the data logging is started.
+   *
+   * @param inSize the size in bytes, zero to disable memory-mapped I/O
+   * @throws IllegalArgumentException if <code>inSize</code> is a negative
+   *                                  number
+   */
+  public void setMmapSize(long inSize)
+    throws IllegalArgumentException {
+    if (inSize < 0)
+      throw new IllegalArgumentException("mmap size cannot be negative");
+
+    mmapSize = Long.valueOf(inSize);
+  }
+
+  /**
+   * Sets the synchronous flag.  It decides how often SQLite waits for the
+   * data to reach the disk: with <code>NORMAL</code> and the
+   * <code>WAL</code> journal mode, commits do not wait for the disk, but the
+   * database cannot be corrupted by a power loss. It is applied the next time
+   * the data logging is started.
+   *
+   * @param inLevel the synchronous flag: OFF, NORMAL, FULL or EXTRA
+   * @throws IllegalArgumentException if <code>inLevel</code> is not a valid
+   *                                  synchronous flag
+   */
+  public void setSynchronous(String inLevel)
+    throws IllegalArgumentException {
+    if (inLevel == null || !SYNCHRONOUS_LEVELS.contains(inLevel.toUpperCase()))
+      throw new IllegalArgumentException("Invalid synchronous: " + inLevel);
+
+    synchronous = inLevel.toUpperCase();
+  }
+
   /**
    * Stops the archiving service.
    */
@@ -293,44 +421,41 @@ public class SQLiteDataLogger extends SQLDataLogger {
   }
 
   /**
-   * Inserts a new row into a table.  It adds a new row to a target table of the
-   * database.
+   * Configures a new connection to the database.  It applies the performance
+   * settings, if any.
    *
-   * @param inTableName the name of the target table
-   * @param inData a map of datapoints
+   * @throws SQLException if the connection cannot be configured
    */
   @Override
-  protected void addEntry(String inTableName,
-                          Map<String, String> inData) {
-    String sql;
-    ArrayList<SQLHeader> headers = sqlHeaders.get(inTableName);
-
-    // build the VALUES and HEADER part of the SQL statement
-    // the first element is always the timestamp and it is always there
-    String sqlValues =  "VALUES ('" + inData.get(getTimestampS()) + "'";
-    String sqlHeader = "(" + getTimestampS();
-
-    // try to read all the other data
-    for (int i = 1; i < headers.size(); i++) {
-      /* Let's insert a value only if it is not null.
-       * SQLite automatically sets to null column values which are not
-       * inserted, when adding a new row.
-       */
-      if (inData.get(headers.get(i).getHeader()) != null) {
-        sqlValues += "," + (headers.get(i).getDataType() == DataType.TEXT? 
-                            "'" + inData.get(headers.get(i).getHeader()) + "'":
-                            inData.get(headers.get(i).getHeader()));
-        sqlHeader += ",'" + headers.get(i).getHeader() + "'";
+  protected void configureConnection()
+    throws SQLException {
+    try (Statement stmt = connection.createStatement()) {
+      if (journalMode != null) {
+        try (ResultSet rs = stmt.executeQuery("PRAGMA journal_mode=" +
+                                              journalMode + ";")) {
+          /* SQLite returns the journal mode actually in use. */
+          if (rs.next() && !journalMode.equalsIgnoreCase(rs.getString(1)))
+            log("Cannot set journal_mode=" + journalMode, false);
+        }
       }
+      if (synchronous != null)
+        stmt.execute("PRAGMA synchronous=" + synchronous + ";");
+      if (cacheSize != null)
+        stmt.execute("PRAGMA cache_size=" + cacheSize + ";");
+      if (mmapSize != null)
+        stmt.execute("PRAGMA mmap_size=" + mmapSize + ";");
     }
-    sqlHeader += ") ";
-    sql = "INSERT INTO '" +  inTableName + "' " + sqlHeader + sqlValues + ");";
+  }
 
-    try {
-      executeUpdateStatement(sql);
-    } catch (SQLException e) {
-      log("Failed addEntry: " + sql, true);
-    }
+  /**
+   * Returns an identifier quoted for SQLite.
+   *
+   * @param inIdentifier the identifier to quote
+   * @return the quoted identifier
+   */
+  @Override
+  protected String quoteIdentifier(String inIdentifier) {
+    return "\"" + inIdentifier.replace("\"", "\"\"") + "\"";
   }
 
   /**
@@ -0,0 +1,525 @@
+/**
+ * SampleFrame.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.datalogger;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import com.github.ilguido.jidl.variable.ValueSink;
+
+/**
+ * SampleFrame
+ * The values read from a connection in one cycle, with their timestamp.  There
+ * is a slot for each variable, in the same order of the variable readers of
+ * the connection. Numbers and boolean values are kept in primitive arrays, so
+ * that filling and storing a frame does not create any object; frames are
+ * reused through a {@link SampleFramePool}.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public final class SampleFrame implements ValueSink {
+  /**
+   * The kind of value held by a slot.
+   */
+  public enum Kind {
+    /**
+     * The slot is empty.
+     */
+    NULL,
+    /**
+     * A boolean value.
+     */
+    BOOLEAN,
+    /**
+     * An integer value, up to 64 bits.
+     */
+    INTEGER,
+    /**
+     * A single precision floating point value.
+     */
+    FLOAT,
+    /**
+     * A double precision floating point value.
+     */
+    DOUBLE,
+    /**
+     * A text string, or any value which is not a primitive number.
+     */
+    TEXT,
+    /**
+     * The slot is empty, because its value did not change since it was last
+     * logged.
+     */
+    UNCHANGED
+  }
+
+  /**
+   * The name of the table where the frame is to be stored.
+   */
+  private final String table;
+
+  /**
+   * The names of the slots.  The array is shared by all the frames of a pool
+   * and must not be modified.
+   */
+  private final String[] names;
+
+  /**
+   * The kinds of the values.
+   */
+  private final Kind[] kinds;
+
+  /**
+   * The values of the boolean and integer slots.
+   */
+  private final long[] longs;
+
+  /**
+   * The values of the floating point slots.
+   */
+  private final double[] doubles;
+
+  /**
+   * The values of the text slots.
+   */
+  private final String[] texts;
+
+  /**
+   * The pool of this frame, or <code>null</code>.
+   */
+  private final SampleFramePool pool;
+
+  /**
+   * The timestamp of the values, in milliseconds since the epoch.
+   */
+  private long timestamp;
+
+  /**
+   * This is <code>true</code> while the frame waits in its pool.
+   */
+  boolean free;
+
+  /**
+   * Class constructor.  It creates a frame which does not belong to any pool.
+   *
+   * @param inTable the name of the table where the frame is to be stored
+   * @param inNames the names of the slots
+   */
+  public SampleFrame(String inTable, String[] inNames) {
+    this(inTable, inNames, null);
+  }
+
+  /**
+   * Class constructor.
+   *
+   * @param inTable the name of the table where the frame is to be stored
+   * @param inNames the names of the slots
+   * @param inPool the pool of the frame, or <code>null</code>
+   */
+  SampleFrame(String inTable, String[] inNames, SampleFramePool inPool) {
+    table = inTable;
+    names = inNames;
+    kinds = new Kind[inNames.length];
+    longs = new long[inNames.length];
+    doubles = new double[inNames.length];
+    texts = new String[inNames.length];
+    pool = inPool;
+    free = false;
+    clear();
+  }
+
+  /**
+   * Appends the value of a slot to a string builder, as text.  Numbers are
+   * appended without creating any object.
+   *
+   * @param inSlot the index of the slot
+   * @param inBuilder the string builder
+   * @return the string builder
+   */
+  public StringBuilder appendText(int inSlot, StringBuilder inBuilder) {
+    switch (kinds[inSlot]) {
+      case BOOLEAN:
+        return inBuilder.append(longs[inSlot] != 0);
+      case INTEGER:
+        return inBuilder.append(longs[inSlot]);
+      case FLOAT:
+        return inBuilder.append((float) doubles[inSlot]);
+      case DOUBLE:
+        return inBuilder.append(doubles[inSlot]);
+      case TEXT:
+        return inBuilder.append(texts[inSlot]);
+      default:
+        return inBuilder;
+    }
+  }
+
+  /**
+   * Empties all the slots.
+   */
+  public void clear() {
+    for (int i = 0; i < kinds.length; i++) {
+      kinds[i] = Kind.NULL;
+      texts[i] = null;
+    }
+    timestamp = 0;
+  }
+
+  /**
+   * Returns the value of a slot as a boolean.  A number is
+   * <code>true</code> if it is not zero.
+   *
+   * @param inSlot the index of the slot
+   * @return the value of the slot
+   */
+  public boolean getBoolean(int inSlot) {
+    switch (kinds[inSlot]) {
+      case FLOAT:
+      case DOUBLE:
+        return doubles[inSlot] != 0;
+      case TEXT:
+        return texts[inSlot].equalsIgnoreCase("true") ||
+               texts[inSlot].equals("1");
+      default:
+        return longs[inSlot] != 0;
+    }
+  }
+
+  /**
+   * Returns the value of a slot as a double.
+   *
+   * @param inSlot the index of the slot
+   * @return the value of the slot, zero if it is not a number
+   */
+  public double getDouble(int inSlot) {
+    switch (kinds[inSlot]) {
+      case BOOLEAN:
+      case INTEGER:
+        return longs[inSlot];
+      case FLOAT:
+      case DOUBLE:
+        return doubles[inSlot];
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Returns the kind of value held by a slot.
+   *
+   * @param inSlot the index of the slot
+   * @return the kind of the value
+   */
+  public Kind getKind(int inSlot) {
+    return kinds[inSlot];
+  }
+
+  /**
+   * Returns the value of a slot as a long.  A floating point value is
+   * truncated.
+   *
+   * @param inSlot the index of the slot
+   * @return the value of the slot, zero if it is not a number
+   */
+  public long getLong(int inSlot) {
+    switch (kinds[inSlot]) {
+      case BOOLEAN:
+      case INTEGER:
+        return longs[inSlot];
+      case FLOAT:
+      case DOUBLE:
+        return (long) doubles[inSlot];
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Returns the names of the slots.  The array must not be modified.
+   *
+   * @return the names of the slots, in order
+   */
+  public String[] getNames() {
+    return names;
+  }
+
+  /**
+   * Returns the pool of this frame.
+   *
+   * @return the pool of the frame, or <code>null</code> if it does not belong
+   *         to any pool
+   */
+  public SampleFramePool getPool() {
+    return pool;
+  }
+
+  /**
+   * Returns the name of the table where the frame is to be stored.
+   *
+   * @return the name of the table
+   */
+  public String getTable() {
+    return table;
+  }
+
+  /**
+   * Returns the value of a slot as a text string, as it would be returned by
+   * the <code>toString()</code> method of the original value.
+   *
+   * @param inSlot the index of the slot
+   * @return the value of the slot, or <code>null</code> if it is empty
+   */
+  public String getText(int inSlot) {
+    switch (kinds[inSlot]) {
+      case BOOLEAN:
+        return longs[inSlot] != 0 ? "true" : "false";
+      case INTEGER:
+        return Long.toString(longs[inSlot]);
+      case FLOAT:
+        return Float.toString((float) doubles[inSlot]);
+      case DOUBLE:
+        return Double.toString(doubles[inSlot]);
+      case TEXT:
+        return texts[inSlot];
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Returns the timestamp of the values.
+   *
+   * @return the timestamp in milliseconds since the epoch
+   */
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+  /**
+   * Returns the number of slots.
+   *
+   * @return the number of slots of the frame
+   */
+  public int getWidth() {
+    return names.length;
+  }
+
+  /**
+   * Returns the index of the slot with the given name.
+   *
+   * @param inName the name of the slot
+   * @return the index of the slot, or -1 if there is no such slot
+   */
+  public int indexOf(String inName) {
+    for (int i = 0; i < names.length; i++) {
+      if (names[i].equals(inName))
+        return i;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns <code>true</code> if a slot is empty, either because there is no
+   * value or because the value did not change.
+   *
+   * @param inSlot the index of the slot
+   * @return <code>true</code> if the slot holds no value
+   */
+  public boolean isNull(int inSlot) {
+    return kinds[inSlot] == Kind.NULL || kinds[inSlot] == Kind.UNCHANGED;
+  }
+
+  /**
+   * Returns <code>true</code> if a slot is empty, because its value did not
+   * change since it was last logged.
+   *
+   * @param inSlot the index of the slot
+   * @return <code>true</code> if the value did not change
+   */
+  public boolean isUnchanged(int inSlot) {
+    return kinds[inSlot] == Kind.UNCHANGED;
+  }
+
+  /**
+   * Gives the frame back to its pool.  The frame must not be used anymore.
+   * It quietly does nothing, if the frame does not belong to any pool.
+   */
+  public void release() {
+    if (pool != null)
+      pool.release(this);
+  }
+
+  /**
+   * Sets a slot to a boolean value.
+   *
+   * @param inSlot the index of the slot
+   * @param inValue the value
+   */
+  @Override
+  public void setBoolean(int inSlot, boolean inValue) {
+    kinds[inSlot] = Kind.BOOLEAN;
+    longs[inSlot] = inValue ? 1 : 0;
+    texts[inSlot] = null;
+  }
+
+  /**
+   * Sets a slot to a double precision floating point value.
+   *
+   * @param inSlot the index of the slot
+   * @param inValue the value
+   */
+  @Override
+  public void setDouble(int inSlot, double inValue) {
+    kinds[inSlot] = Kind.DOUBLE;
+    doubles[inSlot] = inValue;
+    texts[inSlot] = null;
+  }
+
+  /**
+   * Sets a slot to a single precision floating point value.
+   *
+   * @param inSlot the index of the slot
+   * @param inValue the value
+   */
+  @Override
+  public void setFloat(int inSlot, float inValue) {
+    kinds[inSlot] = Kind.FLOAT;
+    doubles[inSlot] = inValue;
+    texts[inSlot] = null;
+  }
+
+  /**
+   * Sets a slot to an integer value.
+   *
+   * @param inSlot the index of the slot
+   * @param inValue the value
+   */
+  @Override
+  public void setLong(int inSlot, long inValue) {
+    kinds[inSlot] = Kind.INTEGER;
+    longs[inSlot] = inValue;
+    texts[inSlot] = null;
+  }
+
+  /**
+   * Empties a slot.
+   *
+   * @param inSlot the index of the slot
+   */
+  public void setNull(int inSlot) {
+    kinds[inSlot] = Kind.NULL;
+    texts[inSlot] = null;
+  }
+
+  /**
+   * Empties a slot, because its value did not change since it was last
+   * logged.
+   *
+   * @param inSlot the index of the slot
+   */
+  public void setUnchanged(int inSlot) {
+    kinds[inSlot] = Kind.UNCHANGED;
+    texts[inSlot] = null;
+  }
+
+  /**
+   * Sets the value of a slot as a text string.
+   *
+   * @param inSlot the index of the slot
+   * @param inValue the value, it can be <code>null</code>
+   */
+  public void setText(int inSlot, String inValue) {
+    kinds[inSlot] = (inValue == null ? Kind.NULL : Kind.TEXT);
+    texts[inSlot] = inValue;
+  }
+
+  /**
+   * Sets the timestamp of the values.
+   *
+   * @param inTimestamp the timestamp in milliseconds since the epoch
+   */
+  public void setTimestamp(long inTimestamp) {
+    timestamp = inTimestamp;
+  }
+
+  /**
+   * Sets the value of a slot.  Boolean values and primitive numbers are
+   * unboxed into the slot; any other value is kept as text.  A primitive
+   * value is better set by its typed setter, which needs no boxing.
+   *
+   * @param inSlot the index of the slot
+   * @param inValue the value, it can be <code>null</code>
+   */
+  @Override
+  public void setValue(int inSlot, Object inValue) {
+    texts[inSlot] = null;
+
+    if (inValue == null) {
+      kinds[inSlot] = Kind.NULL;
+    } else if (inValue instanceof Boolean) {
+      kinds[inSlot] = Kind.BOOLEAN;
+      longs[inSlot] = ((Boolean) inValue).booleanValue() ? 1 : 0;
+    } else if (inValue instanceof Float) {
+      kinds[inSlot] = Kind.FLOAT;
+      doubles[inSlot] = ((Float) inValue).floatValue();
+    } else if (inValue instanceof Double) {
+      kinds[inSlot] = Kind.DOUBLE;
+      doubles[inSlot] = ((Double) inValue).doubleValue();
+    } else if (inValue instanceof Number &&
+               !(inValue instanceof BigInteger) &&
+               !(inValue instanceof BigDecimal)) {
+      /* Byte, Short, Integer and Long. */
+      kinds[inSlot] = Kind.INTEGER;
+      longs[inSlot] = ((Number) inValue).longValue();
+    } else {
+      kinds[inSlot] = Kind.TEXT;
+      texts[inSlot] = inValue.toString();
+    }
+  }
+
+  /**
+   * Returns the frame as text, for diagnostics.
+   *
+   * @return the table name, the timestamp and the values of the frame
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder(table);
+
+    sb.append(" @").append(timestamp).append(" {");
+    for (int i = 0; i < names.length; i++) {
+      if (i > 0)
+        sb.append(", ");
+      sb.append(names[i]).append('=');
+      if (isUnchanged(i))
+        sb.append("unchanged");
+      else if (isNull(i))
+        sb.append("null");
+      else
+        appendText(i, sb);
+    }
+
+    return sb.append('}').toString();
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * SampleFramePool.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.datalogger;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SampleFramePool
+ * A pool of {@link SampleFrame} objects of the same shape, i.e. the frames of
+ * a connection.  A frame is taken from the pool by the acquisition and given
+ * back by the storage, once its values are stored. New frames are created
+ * only while the pool is empty: in the steady state, the same frames go round
+ * and no garbage is made.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public class SampleFramePool {
+  /**
+   * The name of the table of the frames.
+   */
+  private final String table;
+
+  /**
+   * The names of the slots of the frames.
+   */
+  private final String[] names;
+
+  /**
+   * The frames ready to be used.
+   */
+  private final ArrayBlockingQueue<SampleFrame> frames;
+
+  /**
+   * The number of frames created by the pool.
+   */
+  private final AtomicLong createdCount;
+
+  /**
+   * Class constructor.  The pool starts empty and it grows as frames are
+   * given back, up to its capacity; frames given back to a full pool are
+   * left to the garbage collector.
+   *
+   * @param inTable the name of the table of the frames
+   * @param inNames the names of the slots of the frames
+   * @param inCapacity the maximum number of frames kept by the pool
+   * @throws IllegalArgumentException if the capacity is not a positive number
+   */
+  public SampleFramePool(String inTable, String[] inNames, int inCapacity)
+    throws IllegalArgumentException {
+    if (inCapacity < 1)
+      throw new IllegalArgumentException("Capacity must be a positive int");
+
+    table = inTable;
+    names = inNames.clone();
+    frames = new ArrayBlockingQueue<SampleFrame>(inCapacity);
+    createdCount = new AtomicLong(0);
+  }
+
+  /**
+   * Takes an empty frame from the pool.  If the pool is empty, a new frame is
+   * created.
+   *
+   * @return an empty frame
+   */
+  public SampleFrame acquire() {
+    SampleFrame frame = frames.poll();
+
+    if (frame == null) {
+      createdCount.incrementAndGet();
+      return new SampleFrame(table, names, this);
+    }
+
+    frame.free = false;
+    return frame;
+  }
+
+  /**
+   * Returns the number of frames created by the pool.  If it keeps growing,
+   * the pool is too small for the frames in flight.
+   *
+   * @return the number of frames created since the pool was created
+   */
+  public long getCreatedCount() {
+    return createdCount.get();
+  }
+
+  /**
+   * Returns the number of frames ready to be used.
+   *
+   * @return the number of frames in the pool
+   */
+  public int getFreeCount() {
+    return frames.size();
+  }
+
+  /**
+   * Returns the number of slots of the frames.
+   *
+   * @return the width of the frames
+   */
+  public int getWidth() {
+    return names.length;
+  }
+
+  /**
+   * Gives a frame back to the pool.  A frame given back twice is ignored.
+   *
+   * @param inFrame a frame of this pool
+   */
+  void release(SampleFrame inFrame) {
+    synchronized (inFrame) {
+      if (inFrame.free)
+        return;
+      inFrame.free = true;
+    }
+
+    inFrame.clear();
+    frames.offer(inFrame);
+  }
+}
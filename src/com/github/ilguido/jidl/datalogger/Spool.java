@@ -0,0 +1,1121 @@
+/**
+ * Spool.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.datalogger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Spool
+ * A local, append-only store of sample frames, where a {@link DataLogger}
+ * keeps the frames it cannot store in the database, e.g. during a
+ * maintenance window, or that do not fit in its write-behind buffer.  The
+ * frames are replayed in order, once the database is back: each replay takes
+ * the new frames queued behind the spool, plus a bounded number of older
+ * ones, so that the spool drains at the replay rate whatever the rate of the
+ * new frames.
+ * <p>
+ * The spool is a directory of segments, memory-mapped files of fixed size
+ * which are filled one after the other. Each record is preceded by its
+ * length and its CRC-32: a record torn by a crash fails the check and it
+ * ends its segment. A record is either a frame, with its timestamp and its
+ * values, or the schema of the following frames of a table, i.e. the name of
+ * the table and of its slots, written once per segment. The position of the replay is saved in a checkpoint file,
+ * which is replaced atomically after the replayed frames are committed to the
+ * database; the segments before the checkpoint are deleted. After a crash,
+ * the frames replayed since the last checkpoint are replayed again.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public class Spool {
+  /**
+   * The default size of a segment, in bytes.
+   */
+  public static final int DEFAULT_SEGMENT_SIZE = 8 * 1024 * 1024;
+
+  /**
+   * The default number of spooled frames replayed per second, on top of the
+   * new frames queued behind them.
+   */
+  public static final int DEFAULT_REPLAY_RATE = 1000;
+
+  /**
+   * The interval between two checks of the drain of the spool, in
+   * milliseconds.
+   */
+  public static final long DRAIN_CHECK_TIME = 60000;
+
+  /**
+   * The size of the header of a record: its length and its CRC-32.
+   */
+  private static final int HEADER_SIZE = 8;
+
+  /**
+   * The type of a schema record.
+   */
+  private static final byte SCHEMA_RECORD = 1;
+
+  /**
+   * The type of a frame record.
+   */
+  private static final byte FRAME_RECORD = 2;
+
+  /**
+   * The extension of the segment files.
+   */
+  private static final String SEGMENT_EXTENSION = ".seg";
+
+  /**
+   * The directory of the spool.
+   */
+  private final Path directory;
+
+  /**
+   * The checkpoint file.
+   */
+  private final Path checkpointPath;
+
+  /**
+   * The size of a new segment, in bytes.
+   */
+  private final int segmentSize;
+
+  /**
+   * The number of older frames replayed per second, on top of the new ones,
+   * zero for no limit.
+   */
+  private final int replayRate;
+
+  /**
+   * Only one thread at a time can replay the frames.
+   */
+  private final ReentrantLock replayLock;
+
+  /**
+   * The buffer where a frame, and its schema if needed, are encoded before
+   * they are appended.
+   */
+  private ByteBuffer scratch;
+
+  /**
+   * The length of the schema record at the start of <code>scratch</code>,
+   * zero if there is none.
+   */
+  private int schemaLength;
+
+  /**
+   * The schemas of the segment being written, by the names of their slots.
+   */
+  private final IdentityHashMap<String[], Integer> writeSchemaIds;
+
+  /**
+   * The tables of the schemas of the segment being written, by schema.
+   */
+  private final List<String> writeSchemaTables;
+
+  /**
+   * The schemas of the segment being read, by schema.
+   */
+  private final List<Schema> readSchemas;
+
+  /**
+   * The sequence number of the segment of <code>readSchemas</code>.
+   */
+  private long readSchemasSeq;
+
+  /**
+   * The position up to which the segment being read was scanned for
+   * schemas.
+   */
+  private int readSchemasOffset;
+
+  /**
+   * The checksum of the records.
+   */
+  private final CRC32 crc;
+
+  /**
+   * The sequence number of the segment being written.
+   */
+  private long writeSeq;
+
+  /**
+   * The segment being written, or <code>null</code> if it is not open yet.
+   */
+  private MappedByteBuffer writeBuffer;
+
+  /**
+   * The channel of the segment being written.
+   */
+  private FileChannel writeChannel;
+
+  /**
+   * This is <code>true</code> if the segment being written has data not
+   * forced to disk yet.
+   */
+  private boolean dirty;
+
+  /**
+   * The sequence number of the segment being read.
+   */
+  private long readSeq;
+
+  /**
+   * The position of the next record in the segment being read.
+   */
+  private int readOffset;
+
+  /**
+   * The length of the record found by {@link #readNext()}.
+   */
+  private int recordLength;
+
+  /**
+   * The segment being read, mapped read-only, or <code>null</code>.
+   */
+  private ByteBuffer readBuffer;
+
+  /**
+   * The sequence number of <code>readBuffer</code>.
+   */
+  private long readBufferSeq;
+
+  /**
+   * The sequence number of the segment saved in the checkpoint.
+   */
+  private long checkpointSeq;
+
+  /**
+   * The position saved in the checkpoint.
+   */
+  private int checkpointOffset;
+
+  /**
+   * This is <code>true</code> while the frames are being replayed.
+   */
+  private boolean replaying;
+
+  /**
+   * The number of frames that can be replayed now, according to the rate.
+   */
+  private double allowance;
+
+  /**
+   * The last time <code>allowance</code> was updated, in milliseconds.
+   */
+  private long allowanceTime;
+
+  /**
+   * The number of new frames queued behind the spool, since
+   * <code>allowance</code> was updated.
+   */
+  private long queuedCount;
+
+  /**
+   * The last time the drain of the spool was checked, in milliseconds.
+   */
+  private long drainCheckTime;
+
+  /**
+   * The backlog at the last check of the drain, in bytes.
+   */
+  private long drainCheckBacklog;
+
+  /**
+   * The number of spooled frames.
+   */
+  private long spooledCount;
+
+  /**
+   * The number of replayed frames.
+   */
+  private long replayedCount;
+
+  /**
+   * Class constructor.  It opens the spool in the directory
+   * <code>inName.spool</code>, creating it if needed; the frames left by a
+   * previous run are replayed from the last checkpoint. New frames always go
+   * to a new segment.
+   *
+   * @param inDir the working directory
+   * @param inName the name of the spool
+   * @param inSegmentSize the size of a segment in bytes
+   * @param inReplayRate the number of older frames replayed per second, on
+   *                     top of the new frames queued behind them, zero for
+   *                     no limit
+   * @throws IllegalArgumentException if the size or the rate are out of
+   *                                  range
+   * @throws IOException if the spool cannot be opened
+   */
+  public Spool(String inDir, String inName, int inSegmentSize,
+               int inReplayRate)
+    throws IllegalArgumentException, IOException {
+    if (inSegmentSize < 4096)
+      throw new IllegalArgumentException("Segment size too small: " +
+                                         inSegmentSize);
+    if (inReplayRate < 0)
+      throw new IllegalArgumentException("Replay rate cannot be negative");
+
+    directory = Paths.get(inDir, inName + ".spool");
+    checkpointPath = directory.resolve("checkpoint");
+    segmentSize = inSegmentSize;
+    replayRate = inReplayRate;
+    replayLock = new ReentrantLock();
+    scratch = ByteBuffer.allocate(4096);
+    schemaLength = 0;
+    writeSchemaIds = new IdentityHashMap<String[], Integer>();
+    writeSchemaTables = new ArrayList<String>();
+    readSchemas = new ArrayList<Schema>();
+    readSchemasSeq = -1;
+    readSchemasOffset = 0;
+    crc = new CRC32();
+
+    Files.createDirectories(directory);
+
+    TreeMap<Long, Path> segments = listSegments();
+
+    readCheckpoint();
+    /* The checkpoint is behind the first segment, if it was reset. */
+    if (segments.isEmpty() || segments.firstKey() > checkpointSeq) {
+      checkpointSeq = segments.isEmpty() ? 0 : segments.firstKey();
+      checkpointOffset = 0;
+    }
+
+    /* The segments before the checkpoint were already replayed. */
+    for (final Long seq : segments.headMap(checkpointSeq).keySet()) {
+      Files.deleteIfExists(segments.get(seq));
+    }
+
+    readSeq = checkpointSeq;
+    readOffset = checkpointOffset;
+    readBuffer = null;
+    writeSeq = segments.isEmpty() ? checkpointSeq :
+                                    Math.max(segments.lastKey() + 1,
+                                             checkpointSeq);
+    writeBuffer = null;
+    writeChannel = null;
+    dirty = false;
+    replaying = false;
+    allowance = inReplayRate;
+    allowanceTime = System.currentTimeMillis();
+    queuedCount = 0;
+    drainCheckTime = allowanceTime;
+    drainCheckBacklog = 0;
+    spooledCount = 0;
+    replayedCount = 0;
+  }
+
+  /**
+   * Appends a frame to the spool.  The frame is copied, so it still belongs
+   * to the caller.
+   *
+   * @param inFrame the frame
+   * @throws IOException if the frame cannot be written
+   */
+  public synchronized void append(SampleFrame inFrame)
+    throws IOException {
+    int size = encode(inFrame);
+
+    if (writeBuffer == null || writeBuffer.remaining() < size) {
+      /* The new segment needs the schema too. */
+      writeSchemaIds.clear();
+      writeSchemaTables.clear();
+      size = encode(inFrame);
+      roll(size);
+    }
+
+    if (schemaLength > 0) {
+      ByteBuffer schema = scratch.duplicate();
+
+      schema.limit(schemaLength);
+      putRecord(schema);
+      writeSchemaIds.put(inFrame.getNames(),
+                         Integer.valueOf(writeSchemaTables.size()));
+      writeSchemaTables.add(inFrame.getTable());
+      scratch.position(schemaLength);
+    }
+
+    putRecord(scratch);
+    dirty = true;
+    spooledCount++;
+  }
+
+  /**
+   * Appends a frame to the spool, only if there are frames waiting to be
+   * replayed, so that the frames are always stored in order.
+   *
+   * @param inFrame the frame
+   * @return <code>true</code> if the frame was appended,
+   *         <code>false</code> if the spool is empty and the frame can be
+   *         stored directly
+   * @throws IOException if the frame cannot be written
+   */
+  public synchronized boolean appendIfPending(SampleFrame inFrame)
+    throws IOException {
+    if (!replaying && isEmpty())
+      return false;
+
+    append(inFrame);
+    queuedCount++;
+    return true;
+  }
+
+  /**
+   * Closes the spool.  If every frame was replayed and checkpointed, the
+   * files of the spool are deleted.
+   */
+  public synchronized void close() {
+    boolean empty = isEmpty() &&
+                    readSeq == checkpointSeq &&
+                    readOffset == checkpointOffset;
+
+    sync();
+    if (writeChannel != null) {
+      try {
+        writeChannel.close();
+      } catch (IOException e) {
+        /* nothing to do */
+      }
+    }
+    writeChannel = null;
+    writeBuffer = null;
+    readBuffer = null;
+
+    if (empty) {
+      try {
+        for (final Path p : listSegments().values()) {
+          Files.deleteIfExists(p);
+        }
+        Files.deleteIfExists(checkpointPath);
+      } catch (IOException e) {
+        /* They are deleted at the next start. */
+      }
+    }
+  }
+
+  /**
+   * Returns the size of the frames waiting to be replayed.  It is an
+   * estimate, since the segments are assumed to be full.
+   *
+   * @return the size of the frames waiting to be replayed, in bytes
+   */
+  public synchronized long getBacklog() {
+    long written = (writeBuffer == null ? 0 : writeBuffer.position());
+
+    return Math.max(0, (writeSeq - readSeq) * segmentSize + written -
+                       readOffset);
+  }
+
+  /**
+   * Returns the number of replayed frames.
+   *
+   * @return the number of frames replayed since this object was created
+   */
+  public synchronized long getReplayedCount() {
+    return replayedCount;
+  }
+
+  /**
+   * Returns the number of spooled frames.
+   *
+   * @return the number of frames spooled since this object was created
+   */
+  public synchronized long getSpooledCount() {
+    return spooledCount;
+  }
+
+  /**
+   * Returns <code>true</code> if there are no frames waiting to be replayed.
+   * It can return <code>false</code> for a spool whose last segments hold no
+   * valid record, until they are replayed.
+   *
+   * @return <code>true</code> if the spool is empty
+   */
+  public synchronized boolean isEmpty() {
+    if (readSeq < writeSeq)
+      return false;
+
+    return writeBuffer == null || readOffset >= writeBuffer.position();
+  }
+
+  /**
+   * Returns <code>true</code> if the spool is not draining, i.e. its backlog
+   * did not shrink since the last check. The check is done at most once
+   * every {@link #DRAIN_CHECK_TIME} milliseconds; between two checks, this
+   * method returns <code>false</code>.
+   *
+   * @return <code>true</code> if the backlog did not shrink over the last
+   *         interval
+   */
+  public synchronized boolean isStalled() {
+    long now = System.currentTimeMillis();
+
+    if (now - drainCheckTime < DRAIN_CHECK_TIME)
+      return false;
+
+    long backlog = getBacklog();
+    boolean stalled = backlog > 0 && drainCheckBacklog > 0 &&
+                      backlog >= drainCheckBacklog;
+
+    drainCheckTime = now;
+    drainCheckBacklog = backlog;
+
+    return stalled;
+  }
+
+  /**
+   * Replays the spooled frames in order, passing each of them to a sink, as
+   * many as the replay rate allows. Then it runs a commit task and, if it
+   * succeeds, it saves the checkpoint. If the sink or the commit task throw
+   * an exception, the replay stops: the next call resumes from the frame
+   * that failed. If another thread is replaying, it returns immediately.
+   * <p>
+   * The frames do not belong to any pool.
+   *
+   * @param inSink the consumer of the frames
+   * @param inCommit the task which makes the frames passed to the sink
+   *                 durable
+   * @return the number of replayed frames
+   * @throws IOException if the spool cannot be read or the checkpoint cannot
+   *                     be saved
+   */
+  public int replay(Consumer<SampleFrame> inSink, Runnable inCommit)
+    throws IOException {
+    if (!replayLock.tryLock())
+      return 0;
+
+    try {
+      int budget;
+
+      synchronized (this) {
+        if (isEmpty())
+          return 0;
+
+        budget = takeAllowance();
+        if (budget == 0)
+          return 0;
+
+        replaying = true;
+      }
+
+      int n = 0;
+
+      try {
+        while (n < budget) {
+          SampleFrame frame;
+          int next;
+
+          synchronized (this) {
+            frame = readNext();
+            if (frame == null)
+              break;
+            next = readOffset + HEADER_SIZE + recordLength;
+          }
+
+          inSink.accept(frame);
+          n++;
+
+          synchronized (this) {
+            readOffset = next;
+            replayedCount++;
+          }
+        }
+
+        if (n > 0)
+          inCommit.run();
+
+        boolean moved;
+
+        synchronized (this) {
+          moved = (readSeq != checkpointSeq || readOffset != checkpointOffset);
+        }
+
+        /* Also the ended segments are checkpointed, to delete them. */
+        if (moved)
+          writeCheckpoint();
+      } finally {
+        synchronized (this) {
+          replaying = false;
+          allowance -= n;
+        }
+      }
+
+      return n;
+    } finally {
+      replayLock.unlock();
+    }
+  }
+
+  /**
+   * Forces the spooled frames to disk.  Without it, the frames survive a
+   * crash of the process, but not a crash of the system.
+   */
+  public synchronized void sync() {
+    if (dirty && writeBuffer != null) {
+      writeBuffer.force();
+      dirty = false;
+    }
+  }
+
+  /**
+   * Decodes a record.  A schema is added to the schemas of the segment being
+   * read.
+   *
+   * @param inBuffer the record, without its header
+   * @return a new frame, which does not belong to any pool, or
+   *         <code>null</code> if the record is not a frame, or the schema of
+   *         the frame is unknown
+   */
+  private SampleFrame decode(ByteBuffer inBuffer) {
+    byte type = inBuffer.get();
+    int id = inBuffer.getInt();
+
+    if (type == SCHEMA_RECORD) {
+      String table = getString(inBuffer);
+      String[] names = new String[inBuffer.getInt()];
+
+      for (int i = 0; i < names.length; i++) {
+        names[i] = getString(inBuffer);
+      }
+
+      if (id == readSchemas.size())
+        readSchemas.add(new Schema(table, names));
+
+      return null;
+    }
+
+    if (type != FRAME_RECORD || id < 0 || id >= readSchemas.size())
+      return null;
+
+    Schema schema = readSchemas.get(id);
+    String[] names = schema.names;
+    long timestamp = inBuffer.getLong();
+    SampleFrame frame = new SampleFrame(schema.table, names);
+    SampleFrame.Kind[] kinds = SampleFrame.Kind.values();
+
+    for (int i = 0; i < names.length; i++) {
+      switch (kinds[inBuffer.get()]) {
+        case BOOLEAN:
+          frame.setBoolean(i, inBuffer.getLong() != 0);
+          break;
+        case INTEGER:
+          frame.setLong(i, inBuffer.getLong());
+          break;
+        case FLOAT:
+          frame.setFloat(i, (float) inBuffer.getDouble());
+          break;
+        case DOUBLE:
+          frame.setDouble(i, inBuffer.getDouble());
+          break;
+        case TEXT:
+          frame.setText(i, getString(inBuffer));
+          break;
+        case UNCHANGED:
+          frame.setUnchanged(i);
+          break;
+        default:
+          frame.setNull(i);
+          break;
+      }
+    }
+    frame.setTimestamp(timestamp);
+
+    return frame;
+  }
+
+  /**
+   * Reads a text string.
+   *
+   * @param inBuffer the buffer
+   * @return the string
+   */
+  private static String getString(ByteBuffer inBuffer) {
+    byte[] bytes = new byte[inBuffer.getInt()];
+
+    inBuffer.get(bytes);
+    return new String(bytes, UTF_8);
+  }
+
+  /**
+   * Encodes a frame into <code>scratch</code>, ready to be read.  If the
+   * schema of the frame is not in the segment being written yet, the schema
+   * is encoded first, and its length is left in <code>schemaLength</code>.
+   *
+   * @param inFrame the frame
+   * @return the room needed by the records, headers included
+   */
+  private int encode(SampleFrame inFrame) {
+    String[] names = inFrame.getNames();
+    Integer id = writeSchemaIds.get(names);
+
+    if (id != null &&
+        !writeSchemaTables.get(id.intValue()).equals(inFrame.getTable()))
+      id = null;
+
+    scratch.clear();
+    schemaLength = 0;
+
+    if (id == null) {
+      id = Integer.valueOf(writeSchemaTables.size());
+      reserve(5);
+      scratch.put(SCHEMA_RECORD);
+      scratch.putInt(id.intValue());
+      putString(inFrame.getTable());
+      reserve(4);
+      scratch.putInt(names.length);
+
+      for (final String n : names) {
+        putString(n);
+      }
+
+      schemaLength = scratch.position();
+    }
+
+    reserve(13);
+    scratch.put(FRAME_RECORD);
+    scratch.putInt(id.intValue());
+    scratch.putLong(inFrame.getTimestamp());
+
+    for (int i = 0; i < names.length; i++) {
+      SampleFrame.Kind kind = inFrame.getKind(i);
+
+      reserve(9);
+      scratch.put((byte) kind.ordinal());
+      switch (kind) {
+        case BOOLEAN:
+        case INTEGER:
+          scratch.putLong(inFrame.getLong(i));
+          break;
+        case FLOAT:
+        case DOUBLE:
+          scratch.putDouble(inFrame.getDouble(i));
+          break;
+        case TEXT:
+          putString(inFrame.getText(i));
+          break;
+        default:
+          break;
+      }
+    }
+
+    scratch.flip();
+
+    return (schemaLength > 0 ? 2 * HEADER_SIZE : HEADER_SIZE) +
+           scratch.remaining();
+  }
+
+  /**
+   * Returns the segment files of the spool.
+   *
+   * @return the paths of the segments, by sequence number
+   * @throws IOException if the directory cannot be read
+   */
+  private TreeMap<Long, Path> listSegments()
+    throws IOException {
+    TreeMap<Long, Path> segments = new TreeMap<Long, Path>();
+
+    try (DirectoryStream<Path> ds =
+           Files.newDirectoryStream(directory, "*" + SEGMENT_EXTENSION)) {
+      for (final Path p : ds) {
+        String fn = p.getFileName().toString();
+
+        try {
+          segments.put(Long.valueOf(fn.substring(0, fn.length() -
+                                                 SEGMENT_EXTENSION.length())),
+                       p);
+        } catch (NumberFormatException e) {
+          /* Not a segment. */
+        }
+      }
+    }
+
+    return segments;
+  }
+
+  /**
+   * Maps a segment for reading.
+   *
+   * @param inSeq the sequence number of the segment
+   * @return the segment, or <code>null</code> if it does not exist
+   * @throws IOException if the segment cannot be read
+   */
+  private ByteBuffer mapSegment(long inSeq)
+    throws IOException {
+    if (inSeq == writeSeq)
+      return writeBuffer == null ? null : writeBuffer.duplicate();
+
+    Path p = segmentPath(inSeq);
+
+    if (!Files.exists(p))
+      return null;
+
+    try (FileChannel fc = FileChannel.open(p, READ)) {
+      return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+    }
+  }
+
+  /**
+   * Writes a record into the segment being written.
+   *
+   * @param inPayload the record, without its header
+   */
+  private void putRecord(ByteBuffer inPayload) {
+    int length = inPayload.remaining();
+
+    crc.reset();
+    crc.update(inPayload.duplicate());
+
+    int start = writeBuffer.position();
+
+    /* The length is written last, a record is visible only when complete. */
+    writeBuffer.position(start + 4);
+    writeBuffer.putInt((int) crc.getValue());
+    writeBuffer.put(inPayload);
+    writeBuffer.putInt(start, length);
+  }
+
+  /**
+   * Writes a text string into <code>scratch</code>.
+   *
+   * @param inString the string
+   */
+  private void putString(String inString) {
+    byte[] bytes = inString.getBytes(UTF_8);
+
+    reserve(4 + bytes.length);
+    scratch.putInt(bytes.length);
+    scratch.put(bytes);
+  }
+
+  /**
+   * Reads the checkpoint.  A missing or damaged checkpoint is a checkpoint
+   * at the beginning of the spool.
+   */
+  private void readCheckpoint() {
+    checkpointSeq = 0;
+    checkpointOffset = 0;
+
+    try {
+      if (!Files.exists(checkpointPath))
+        return;
+
+      ByteBuffer b = ByteBuffer.wrap(Files.readAllBytes(checkpointPath));
+
+      if (b.remaining() != 16)
+        return;
+
+      crc.reset();
+      crc.update(b.array(), 0, 12);
+      if ((int) crc.getValue() == b.getInt(12)) {
+        checkpointSeq = b.getLong(0);
+        checkpointOffset = b.getInt(8);
+      }
+    } catch (IOException e) {
+      /* Replay everything. */
+    }
+  }
+
+  /**
+   * Reads the next record, moving on to the next segment at the end of a
+   * segment.  The read position is left on the record, and the length of
+   * the record is left in <code>recordLength</code>.
+   *
+   * @return the frame of the record, or <code>null</code> if there are no
+   *         more records
+   * @throws IOException if a segment cannot be read
+   */
+  private SampleFrame readNext()
+    throws IOException {
+    while (readSeq <= writeSeq) {
+      if (readBuffer == null || readBufferSeq != readSeq) {
+        readBuffer = mapSegment(readSeq);
+        readBufferSeq = readSeq;
+      }
+
+      if (readSchemasSeq != readSeq) {
+        readSchemas.clear();
+        readSchemasSeq = readSeq;
+        readSchemasOffset = 0;
+      }
+
+      if (readBuffer != null) {
+        int limit = (readSeq == writeSeq ? writeBuffer.position() :
+                                           readBuffer.capacity());
+        int length;
+
+        /* After a restart, the schemas are before the checkpoint. */
+        while (readSchemasOffset < readOffset &&
+               (length = checkRecord(readSchemasOffset, limit)) > 0) {
+          if (readBuffer.get(readSchemasOffset + HEADER_SIZE) ==
+              SCHEMA_RECORD)
+            decode(record(readSchemasOffset, length));
+          readSchemasOffset += HEADER_SIZE + length;
+        }
+
+        while ((length = checkRecord(readOffset, limit)) > 0) {
+          SampleFrame frame = decode(record(readOffset, length));
+
+          if (frame != null) {
+            recordLength = length;
+            readSchemasOffset = readOffset + HEADER_SIZE + length;
+            return frame;
+          }
+
+          /* A schema, or a frame that cannot be decoded. */
+          readOffset += HEADER_SIZE + length;
+          readSchemasOffset = readOffset;
+        }
+      }
+
+      /* The end of the segment, or a torn record. */
+      if (readSeq == writeSeq)
+        return null;
+
+      readSeq++;
+      readOffset = 0;
+    }
+
+    return null;
+  }
+
+  /**
+   * Checks the record at the given position of the segment being read.
+   *
+   * @param inOffset the position of the record
+   * @param inLimit the end of the data of the segment
+   * @return the length of the record, without its header, or zero if there
+   *         is no valid record
+   */
+  private int checkRecord(int inOffset, int inLimit) {
+    if (inOffset + HEADER_SIZE > inLimit)
+      return 0;
+
+    int length = readBuffer.getInt(inOffset);
+
+    if (length <= 0 || length > inLimit - inOffset - HEADER_SIZE)
+      return 0;
+
+    crc.reset();
+    crc.update(record(inOffset, length));
+
+    if ((int) crc.getValue() != readBuffer.getInt(inOffset + 4))
+      return 0;
+
+    return length;
+  }
+
+  /**
+   * Returns a record of the segment being read, without its header.
+   *
+   * @param inOffset the position of the record
+   * @param inLength the length of the record, without its header
+   * @return a view of the record
+   */
+  private ByteBuffer record(int inOffset, int inLength) {
+    ByteBuffer record = readBuffer.duplicate();
+
+    record.limit(inOffset + HEADER_SIZE + inLength);
+    record.position(inOffset + HEADER_SIZE);
+
+    return record;
+  }
+
+  /**
+   * Reserves some room in <code>scratch</code>, growing it if needed.
+   *
+   * @param inBytes the number of bytes to write
+   */
+  private void reserve(int inBytes) {
+    if (scratch.remaining() < inBytes) {
+      ByteBuffer b = ByteBuffer.allocate(Math.max(scratch.capacity() * 2,
+                                                  scratch.position() +
+                                                  inBytes));
+      scratch.flip();
+      b.put(scratch);
+      scratch = b;
+    }
+  }
+
+  /**
+   * Closes the segment being written and opens a new one.
+   *
+   * @param inBytes the size of the record which does not fit in the current
+   *                segment
+   * @throws IOException if the new segment cannot be created
+   */
+  private void roll(int inBytes)
+    throws IOException {
+    if (writeBuffer != null) {
+      sync();
+      writeChannel.close();
+      writeSeq++;
+    }
+
+    writeBuffer = null;
+    writeSchemaIds.clear();
+    writeSchemaTables.clear();
+    writeChannel = FileChannel.open(segmentPath(writeSeq),
+                                    CREATE_NEW, READ, WRITE);
+    writeBuffer = writeChannel.map(FileChannel.MapMode.READ_WRITE, 0,
+                                   Math.max(segmentSize, inBytes));
+  }
+
+  /**
+   * Returns the path of a segment.
+   *
+   * @param inSeq the sequence number of the segment
+   * @return the path of the segment file
+   */
+  private Path segmentPath(long inSeq) {
+    return directory.resolve(String.format("%020d", inSeq) +
+                             SEGMENT_EXTENSION);
+  }
+
+  /**
+   * Updates the replay allowance and returns the number of frames that can
+   * be replayed now.  The new frames queued behind the spool since the last
+   * update are always allowed, so that the backlog shrinks at the replay
+   * rate, whatever the rate of the new frames.
+   *
+   * @return the number of frames that can be replayed
+   */
+  private int takeAllowance() {
+    if (replayRate == 0)
+      return Integer.MAX_VALUE;
+
+    long now = System.currentTimeMillis();
+
+    /* At most one second worth of older frames at once. */
+    allowance = Math.min(replayRate + queuedCount,
+                         allowance + queuedCount +
+                         (now - allowanceTime) * replayRate / 1000.0);
+    allowanceTime = now;
+    queuedCount = 0;
+
+    return (int) Math.min(Integer.MAX_VALUE, allowance);
+  }
+
+  /**
+   * Saves the read position in the checkpoint file, replacing it atomically,
+   * then deletes the segments before it.
+   *
+   * @throws IOException if the checkpoint cannot be saved
+   */
+  private void writeCheckpoint()
+    throws IOException {
+    long seq;
+    int offset;
+
+    synchronized (this) {
+      seq = readSeq;
+      offset = readOffset;
+    }
+
+    ByteBuffer b = ByteBuffer.allocate(16);
+    CRC32 c = new CRC32();
+
+    b.putLong(seq).putInt(offset);
+    c.update(b.array(), 0, 12);
+    b.putInt((int) c.getValue());
+    b.flip();
+
+    Path tmp = directory.resolve("checkpoint.tmp");
+
+    try (FileChannel fc = FileChannel.open(tmp, CREATE, WRITE,
+                                           TRUNCATE_EXISTING)) {
+      while (b.hasRemaining()) {
+        fc.write(b);
+      }
+      fc.force(true);
+    }
+    Files.move(tmp, checkpointPath, ATOMIC_MOVE, REPLACE_EXISTING);
+
+    long previous;
+
+    synchronized (this) {
+      previous = checkpointSeq;
+      checkpointSeq = seq;
+      checkpointOffset = offset;
+      if (readBuffer != null && readBufferSeq < seq)
+        readBuffer = null;
+    }
+
+    for (long s = previous; s < seq; s++) {
+      try {
+        Files.deleteIfExists(segmentPath(s));
+      } catch (IOException e) {
+        /* Still mapped, it is deleted at the next start. */
+      }
+    }
+  }
+
+  /**
+   * The schema of the frames of a table: the name of the table and of its
+   * slots.
+   */
+  private static final class Schema {
+    /**
+     * The name of the table.
+     */
+    final String table;
+
+    /**
+     * The names of the slots, shared by the frames of the schema.
+     */
+    final String[] names;
+
+    /**
+     * Class constructor.
+     *
+     * @param inTable the name of the table
+     * @param inNames the names of the slots
+     */
+    Schema(String inTable, String[] inNames) {
+      table = inTable;
+      names = inNames;
+    }
+  }
+}
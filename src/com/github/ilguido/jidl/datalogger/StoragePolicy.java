@@ -0,0 +1,68 @@
+/**
+ * StoragePolicy.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.datalogger;
+
+/**
+ * StoragePolicy
+ * What to do with a new entry when the write-behind buffer of a
+ * {@link DataLogger} is full.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public enum StoragePolicy {
+  /**
+   * The acquisition waits until there is room in the buffer.
+   */
+  BLOCK,
+  /**
+   * The oldest entry of the buffer is dropped.
+   */
+  DROP_OLDEST,
+  /**
+   * The new entry is appended to the spool on disk, and stored later.
+   */
+  SPILL;
+
+  /**
+   * Returns the policy matching a configuration value.  The value is not case
+   * sensitive and it can use a hyphen instead of the underscore, e.g.
+   * "drop-oldest".
+   *
+   * @param inValue the name of the policy
+   * @return the matching policy
+   * @throws IllegalArgumentException if there is no such policy
+   */
+  public static StoragePolicy valueOfPolicy(String inValue)
+    throws IllegalArgumentException {
+    if (inValue == null)
+      throw new IllegalArgumentException("Storage policy cannot be null");
+
+    try {
+      return valueOf(inValue.trim().toUpperCase().replace('-', '_'));
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Unknown storage policy: " + inValue,
+                                         e);
+    }
+  }
+}
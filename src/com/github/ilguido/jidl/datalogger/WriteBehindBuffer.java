@@ -0,0 +1,325 @@
+/**
+ * WriteBehindBuffer.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.datalogger;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * WriteBehindBuffer
+ * A bounded ring buffer of sample frames, which sits between the acquisition
+ * and the storage of a {@link DataLogger}.  The acquisition puts the frames in
+ * the buffer, a storage thread takes them out and stores them. The slots of
+ * the ring are allocated once, when the buffer is created. A frame dropped by
+ * the buffer is given back to its pool.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public class WriteBehindBuffer {
+  /**
+   * The frames in the buffer.
+   */
+  private final SampleFrame[] frames;
+
+  /**
+   * What to do when the buffer is full.
+   */
+  private final StoragePolicy policy;
+
+  /**
+   * The lock guarding the ring.
+   */
+  private final ReentrantLock lock;
+
+  /**
+   * Signalled when a frame is put in the buffer.
+   */
+  private final Condition notEmpty;
+
+  /**
+   * Signalled when a frame is taken from the buffer.
+   */
+  private final Condition notFull;
+
+  /**
+   * The index of the oldest frame.
+   */
+  private int head;
+
+  /**
+   * The number of frames in the buffer.
+   */
+  private int size;
+
+  /**
+   * The maximum number of frames ever held by the buffer.
+   */
+  private int highWaterMark;
+
+  /**
+   * The number of frames dropped.
+   */
+  private long dropCount;
+
+  /**
+   * This is <code>true</code> when the buffer does not accept new frames.
+   */
+  private boolean closed;
+
+  /**
+   * Class constructor.
+   *
+   * @param inCapacity the maximum number of frames
+   * @param inPolicy what to do when the buffer is full
+   * @throws IllegalArgumentException if the capacity is not a positive number
+   *                                  or the policy is <code>null</code>
+   */
+  public WriteBehindBuffer(int inCapacity, StoragePolicy inPolicy)
+    throws IllegalArgumentException {
+    if (inCapacity < 1)
+      throw new IllegalArgumentException("Capacity must be a positive int");
+    if (inPolicy == null)
+      throw new IllegalArgumentException("Storage policy cannot be null");
+
+    frames = new SampleFrame[inCapacity];
+    policy = inPolicy;
+    lock = new ReentrantLock();
+    notEmpty = lock.newCondition();
+    notFull = lock.newCondition();
+    head = 0;
+    size = 0;
+    highWaterMark = 0;
+    dropCount = 0;
+    closed = false;
+  }
+
+  /**
+   * Closes the buffer.  It does not accept new frames anymore, but the
+   * frames in the buffer can still be taken.
+   */
+  public void close() {
+    lock.lock();
+    try {
+      closed = true;
+      notEmpty.signalAll();
+      notFull.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes all the frames from the buffer and counts them as dropped.
+   *
+   * @return the number of removed frames
+   */
+  public int discard() {
+    lock.lock();
+    try {
+      int n = size;
+
+      while (size > 0) {
+        removeHead().release();
+      }
+      dropCount += n;
+      notFull.signalAll();
+
+      return n;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the maximum number of frames.
+   *
+   * @return the capacity of the buffer
+   */
+  public int getCapacity() {
+    return frames.length;
+  }
+
+  /**
+   * Returns the number of frames in the buffer.
+   *
+   * @return the depth of the buffer
+   */
+  public int getDepth() {
+    lock.lock();
+    try {
+      return size;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the number of frames dropped.  They were dropped because the
+   * buffer was full or closed.
+   *
+   * @return the number of dropped frames
+   */
+  public long getDropCount() {
+    lock.lock();
+    try {
+      return dropCount;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the maximum number of frames ever held by the buffer.
+   *
+   * @return the high-water mark of the buffer
+   */
+  public int getHighWaterMark() {
+    lock.lock();
+    try {
+      return highWaterMark;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Returns the policy of the buffer.
+   *
+   * @return what to do when the buffer is full
+   */
+  public StoragePolicy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * Returns <code>true</code> if the buffer was closed.
+   *
+   * @return <code>true</code> if the buffer does not accept new frames
+   */
+  public boolean isClosed() {
+    lock.lock();
+    try {
+      return closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Puts a frame in the buffer.  If the buffer is full, it acts according to
+   * its policy: it waits for some room, it drops the oldest frame, or it
+   * refuses the new frame, so that the caller can spill it. A refused frame
+   * still belongs to the caller.
+   *
+   * @param inFrame the frame
+   * @return <code>true</code> if the frame was put in the buffer,
+   *         <code>false</code> if the buffer is full and its policy is
+   *         {@link StoragePolicy#SPILL}, or if the buffer is closed
+   * @throws InterruptedException if interrupted while waiting for some room
+   */
+  public boolean put(SampleFrame inFrame)
+    throws InterruptedException {
+    lock.lock();
+    try {
+      if (size == frames.length) {
+        switch (policy) {
+          case DROP_OLDEST:
+            removeHead().release();
+            dropCount++;
+            break;
+          case SPILL:
+            return false;
+          default:
+            while (size == frames.length && !closed) {
+              notFull.await();
+            }
+            break;
+        }
+      }
+
+      if (closed) {
+        dropCount++;
+        return false;
+      }
+
+      int tail = (head + size) % frames.length;
+      frames[tail] = inFrame;
+      size++;
+      if (size > highWaterMark)
+        highWaterMark = size;
+      notEmpty.signal();
+
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Takes the oldest frame out of the buffer.  It waits for a frame, if the
+   * buffer is empty and not closed.
+   *
+   * @param inTimeout the maximum time to wait, in milliseconds
+   * @return the frame, or <code>null</code> if the time elapsed or the buffer
+   *         is closed and empty
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public SampleFrame take(long inTimeout)
+    throws InterruptedException {
+    long nanos = MILLISECONDS.toNanos(inTimeout);
+
+    lock.lock();
+    try {
+      while (size == 0) {
+        if (closed || nanos <= 0)
+          return null;
+        nanos = notEmpty.awaitNanos(nanos);
+      }
+
+      SampleFrame frame = removeHead();
+      notFull.signal();
+
+      return frame;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Removes the oldest frame.  The lock must be held.
+   *
+   * @return the removed frame
+   */
+  private SampleFrame removeHead() {
+    SampleFrame frame = frames[head];
+
+    frames[head] = null;
+    head = (head + 1) % frames.length;
+    size--;
+
+    return frame;
+  }
+}
@@ -0,0 +1,372 @@
+/**
+ * TimingWheelScheduler.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.datalogger.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.function.LongConsumer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * TimingWheelScheduler
+ * A hierarchical timing wheel, which fires periodic tasks with a resolution of
+ * one decisecond.  Every task has its own schedule: its deadlines are computed
+ * from the start of the scheduler, so that they do not drift, and scheduling
+ * a task costs O(1) regardless of the number of tasks.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public class TimingWheelScheduler {
+  /**
+   * The duration of one tick in milliseconds.  Our basic unit is the
+   * decisecond.
+   */
+  public static final long TICK = 100;
+
+  /**
+   * The number of bits of a slot index.
+   */
+  private static final int WHEEL_BITS = 6;
+
+  /**
+   * The number of slots of each wheel.
+   */
+  private static final int WHEEL_SIZE = 1 << WHEEL_BITS;
+
+  /**
+   * The mask of a slot index.
+   */
+  private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+  /**
+   * The number of wheels.  Four wheels of 64 slots cover 64^4 ticks, that is
+   * about 19 days; longer delays are parked in the last slot of the outermost
+   * wheel and placed again when that slot expires.
+   */
+  private static final int LEVELS = 4;
+
+  /**
+   * The name of the driver thread.
+   */
+  private final String name;
+
+  /**
+   * The wheels, each one an array of slots.
+   */
+  private final ArrayDeque<ScheduledTask>[][] wheels;
+
+  /**
+   * The last processed tick.
+   */
+  private long currentTick;
+
+  /**
+   * The time of tick zero, as given by <code>System.nanoTime()</code>.
+   */
+  private long startNanos;
+
+  /**
+   * The time of tick zero in milliseconds since the epoch.
+   */
+  private long startMillis;
+
+  /**
+   * The number of scheduled tasks.
+   */
+  private int taskCount;
+
+  /**
+   * The thread that advances the wheels.
+   */
+  private ScheduledExecutorService driver;
+
+  /**
+   * Class constructor.
+   *
+   * @param inName a name for the driver thread
+   */
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public TimingWheelScheduler(String inName) {
+    name = inName + "-scheduler";
+    wheels = new ArrayDeque[LEVELS][WHEEL_SIZE];
+
+    for (int l = 0; l < LEVELS; l++) {
+      for (int s = 0; s < WHEEL_SIZE; s++) {
+        wheels[l][s] = new ArrayDeque<ScheduledTask>();
+      }
+    }
+
+    currentTick = 0;
+    taskCount = 0;
+    driver = null;
+  }
+
+  /**
+   * Returns the number of scheduled tasks.
+   *
+   * @return the number of scheduled tasks
+   */
+  public synchronized int getTaskCount() {
+    return taskCount;
+  }
+
+  /**
+   * Returns <code>true</code> if the scheduler is running.
+   *
+   * @return <code>true</code> if the scheduler was started and not stopped
+   */
+  public synchronized boolean isStarted() {
+    return driver != null;
+  }
+
+  /**
+   * Schedules a periodic task.  The task fires for the first time after one
+   * period, then every period, until it is cancelled or the scheduler is
+   * stopped. The action of a task runs on the driver thread and receives the
+   * time the task was due, in milliseconds since the epoch: it must return
+   * quickly, e.g. handing the real work to some other thread.
+   *
+   * @param inPeriod the period of the task in ticks, i.e. deciseconds
+   * @param inAction the action to run when the task fires
+   * @return the scheduled task
+   * @throws IllegalArgumentException if the period is not a positive number
+   */
+  public synchronized ScheduledTask schedule(int inPeriod,
+                                             LongConsumer inAction)
+    throws IllegalArgumentException {
+    if (inPeriod < 1)
+      throw new IllegalArgumentException("Period must be a positive int");
+
+    ScheduledTask task = new ScheduledTask(inPeriod, inAction);
+    task.deadline = currentTick + inPeriod;
+    place(task);
+    taskCount++;
+
+    return task;
+  }
+
+  /**
+   * Starts the scheduler.  Tick zero is now. It quietly does nothing, if the
+   * scheduler was already started.
+   */
+  public synchronized void start() {
+    if (driver != null)
+      return;
+
+    startNanos = System.nanoTime();
+    startMillis = System.currentTimeMillis();
+
+    driver = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+      Thread t = new Thread(r, name);
+      t.setDaemon(true);
+      return t;
+    });
+    driver.scheduleAtFixedRate(this::advance, TICK, TICK, MILLISECONDS);
+  }
+
+  /**
+   * Stops the scheduler and removes all the tasks.
+   */
+  public void stop() {
+    ScheduledExecutorService d;
+
+    synchronized (this) {
+      d = driver;
+      driver = null;
+    }
+
+    if (d != null) {
+      d.shutdown();
+      try {
+        if (!d.awaitTermination(3, SECONDS)) {
+          d.shutdownNow();
+        }
+      } catch (InterruptedException e) {
+        d.shutdownNow();
+      }
+    }
+
+    synchronized (this) {
+      for (int l = 0; l < LEVELS; l++) {
+        for (int s = 0; s < WHEEL_SIZE; s++) {
+          wheels[l][s].clear();
+        }
+      }
+      taskCount = 0;
+    }
+  }
+
+  /**
+   * Processes all the ticks elapsed since the last call.  If the driver
+   * thread was late, the missed ticks are processed now, in order.
+   */
+  private synchronized void advance() {
+    if (driver == null)
+      return;
+
+    long target = (System.nanoTime() - startNanos) / (TICK * 1000000);
+
+    while (currentTick < target) {
+      currentTick++;
+      processTick(currentTick);
+    }
+  }
+
+  /**
+   * Places a task in the slot matching its deadline.  The task goes into the
+   * innermost wheel which can hold its delay.
+   *
+   * @param inTask the task to place
+   */
+  private void place(ScheduledTask inTask) {
+    long deadline = inTask.deadline;
+
+    if (deadline <= currentTick) {
+      /* Already due: the slot of the current tick is processed after the
+       * cascades, so the task fires within this tick. */
+      wheels[0][(int) (currentTick & WHEEL_MASK)].add(inTask);
+      return;
+    }
+
+    for (int l = 0; l < LEVELS; l++) {
+      int shift = l * WHEEL_BITS;
+
+      if ((deadline >> shift) - (currentTick >> shift) < WHEEL_SIZE) {
+        wheels[l][(int) ((deadline >> shift) & WHEEL_MASK)].add(inTask);
+        return;
+      }
+    }
+
+    /* Too far in the future: park it in the outermost wheel. */
+    int shift = (LEVELS - 1) * WHEEL_BITS;
+    wheels[LEVELS - 1][(int) (((currentTick >> shift) + WHEEL_MASK) &
+                              WHEEL_MASK)].add(inTask);
+  }
+
+  /**
+   * Processes one tick.  First the outer wheels cascade their expiring slot
+   * into the inner wheels, then the tasks of the current slot of the innermost
+   * wheel fire and are placed again at their next deadline.
+   *
+   * @param inTick the tick to process
+   */
+  private void processTick(long inTick) {
+    for (int l = LEVELS - 1; l > 0; l--) {
+      int shift = l * WHEEL_BITS;
+
+      if ((inTick & ((1L << shift) - 1)) == 0) {
+        ArrayDeque<ScheduledTask> slot =
+                              wheels[l][(int) ((inTick >> shift) & WHEEL_MASK)];
+        int n = slot.size();
+
+        for (int i = 0; i < n; i++) {
+          place(slot.poll());
+        }
+      }
+    }
+
+    ArrayDeque<ScheduledTask> slot = wheels[0][(int) (inTick & WHEEL_MASK)];
+    /* Tasks placed again in this same slot belong to a later round. */
+    int n = slot.size();
+
+    for (int i = 0; i < n; i++) {
+      ScheduledTask task = slot.poll();
+
+      if (task.cancelled) {
+        taskCount--;
+        continue;
+      }
+
+      try {
+        task.action.accept(startMillis + task.deadline * TICK);
+      } catch (RuntimeException re) {
+        /* A faulty task must not stop the other ones. */
+      }
+
+      task.deadline += task.period;
+      place(task);
+    }
+  }
+
+  /**
+   * ScheduledTask
+   * A periodic task of a {@link TimingWheelScheduler}.
+   *
+   * @version 0.8
+   * @author Stefano Guidoni
+   */
+  public static final class ScheduledTask {
+    /**
+     * The period of the task in ticks.
+     */
+    private final int period;
+
+    /**
+     * The action to run when the task fires.
+     */
+    private final LongConsumer action;
+
+    /**
+     * The next deadline of the task, as an absolute tick.
+     */
+    private long deadline;
+
+    /**
+     * This is <code>true</code> when the task has been cancelled.
+     */
+    private volatile boolean cancelled;
+
+    /**
+     * Class constructor.
+     *
+     * @param inPeriod the period of the task in ticks
+     * @param inAction the action to run when the task fires
+     */
+    private ScheduledTask(int inPeriod, LongConsumer inAction) {
+      period = inPeriod;
+      action = inAction;
+      cancelled = false;
+    }
+
+    /**
+     * Cancels the task.  The task is removed from its wheel the next time its
+     * slot expires.
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+    /**
+     * Returns the period of the task.
+     *
+     * @return the period in ticks, i.e. deciseconds
+     */
+    public int getPeriod() {
+      return period;
+    }
+  }
+}
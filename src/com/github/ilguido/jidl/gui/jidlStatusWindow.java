@@ -201,11 +201,8 @@ public class jidlStatusWindow extends JFrame
           doc.insertString(doc.getLength(), 
                            rb.getString("status") + ": ",
                            doc.getStyle("regular"));
-          if (!cm.isInitialized()) {
-            doc.insertString(doc.getLength(),
-                             rb.getString("ERROR!") + "\n",
-                             doc.getStyle("italic"));
-          } else if (cm.getStatus()) {
+          /* The connections are initialized when they connect. */
+          if (cm.isInitialized() && cm.getStatus()) {
             doc.insertString(doc.getLength(),
                              rb.getString("connected") + "\n",
                              doc.getStyle("italic"));
@@ -193,7 +193,7 @@ public class jidlss extends jidl {
         @Override
         public void uncaughtException(Thread inT, Throwable inE) {
           trayIcon.displayMessage("JIDL", 
-                            rb.getString("Data logging unexpectedly stopped: ") +
+                            rb.getString("Cannot store the data, retrying: ") +
                                   inE.toString() + inE.getMessage(), 
                                   TrayIcon.MessageType.ERROR);
         }
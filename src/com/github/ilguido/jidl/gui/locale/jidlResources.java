@@ -32,6 +32,7 @@ public class jidlResources extends ListResourceBundle
       {"About", "About"},
       {"Quit", "Quit"},
       {"Data logging unexpectedly stopped: ", "Data logging unexpectedly stopped: "},
+      {"Cannot store the data, retrying: ", "Cannot store the data, retrying: "},
       {"Configuration not loaded", "Configuration not loaded"},
       {"Cannot start the data logging: ", "Cannot start the data logging: "},
       {"Data logging already running", "Data logging already running"},
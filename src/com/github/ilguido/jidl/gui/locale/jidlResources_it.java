@@ -32,6 +32,7 @@ public class jidlResources_it extends ListResourceBundle
       {"About", "Informazioni"},
       {"Quit", "Esci"},
       {"Data logging unexpectedly stopped: ", "Archiviazione arrestata inaspettatamente: "},
+      {"Cannot store the data, retrying: ", "Impossibile salvare i dati, nuovo tentativo in corso: "},
       {"Configuration not loaded", "Configurazione non caricata"},
       {"Cannot start the data logging: ", "Impossibile avviare l'archiviazione: "},
       {"Data logging already running", "Archiviazione già avviata"},
@@ -0,0 +1,61 @@
+/**
+ * IPCServerInterface.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.ipc;
+
+import java.io.IOException;
+
+/**
+ * IPCServerInterface
+ * An interface for the servers of the Jidl Protocol.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+public interface IPCServerInterface {
+  /**
+   * Returns the port of the server.
+   *
+   * @return the port of the server
+   */
+  int getPort();
+
+  /**
+   * Returns <code>true</code> if the server was started.  This does not
+   * strictly mean that it is running now.
+   *
+   * @return <code>true</code> if the server was started
+   */
+  boolean isStarted();
+
+  /**
+   * Starts the server.  It quietly does nothing, if the server was already
+   * started.
+   *
+   * @throws IOException if the socket could not be created
+   */
+  void start() throws IOException;
+
+  /**
+   * Stops the server and closes the open connections.
+   */
+  void stop();
+}
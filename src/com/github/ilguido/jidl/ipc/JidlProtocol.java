@@ -25,6 +25,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.AbstractMap;
 import java.util.Map;
@@ -56,9 +57,90 @@ public final class JidlProtocol {
    */
   private static final int MAX_SIZE = 64 * 1024;
 
+  /**
+   * The size of the header of a message: the flag, the status code and the
+   * length of the body.
+   */
+  public static final int HEADER_SIZE = 7;
+
+  /**
+   * The maximum size of a message.
+   */
+  public static final int MAX_MESSAGE_SIZE = HEADER_SIZE + 0xffff;
+
+  /**
+   * The method of the request asking a server which extensions of the
+   * protocol it supports.  It is a JSON request, answered by the protocol
+   * itself; an older server passes it to its request handler, which refuses
+   * it as an unknown method.
+   */
+  public static final String HELLO_METHOD = "jidl_hello";
+
+  /**
+   * The key of the hello response telling that binary bodies are supported.
+   */
+  public static final String BINARY_EXTENSION = "binary";
+
+  /**
+   * The key of the hello response telling that the connections are kept
+   * open between requests.
+   */
+  public static final String KEEP_ALIVE_EXTENSION = "keep_alive";
+
+  /**
+   * Handles a request.  The hello request is answered with the extensions
+   * supported by this implementation of the protocol; any other request is
+   * passed to the request handler.
+   *
+   * @param inHandler the request handler of the server
+   * @param inRequest the request
+   * @return the payload of the response
+   */
+  public static JsonObject handleRequest(RequestHandlerInterface inHandler,
+                                         Request inRequest) {
+    if (!HELLO_METHOD.equals(inRequest.getKey()))
+      return inHandler.handleRequest(inRequest.getKey(), inRequest.getValue());
+
+    JsonObject extensions = new JsonObject();
+
+    extensions.put(BINARY_EXTENSION, Boolean.TRUE);
+    extensions.put(KEEP_ALIVE_EXTENSION, Boolean.TRUE);
+
+    return extensions;
+  }
+
+  /**
+   * Returns the size of the message at the start of a buffer, from its
+   * header.  The buffer is read from index zero up to its position, as it is
+   * while being filled; it is not modified.
+   *
+   * @param inBuffer a buffer being filled with a message
+   * @return the size of the whole message, header included, or -1 if the
+   *         header is not complete yet
+   * @throws JidlProtocolException if the buffer does not start with a
+   *                               message of this protocol
+   */
+  public static int messageSize(ByteBuffer inBuffer)
+    throws JidlProtocolException {
+    int length = inBuffer.position();
+
+    for (int i = 0; i < FLAG.length && i < length; i++) {
+      if (inBuffer.get(i) != FLAG[i])
+        throw new JidlProtocolException(JidlProtocolStatusCode.BAD_RESPONSE_UNRECOGNIZED_PROTOCOL);
+    }
+
+    if (length < HEADER_SIZE)
+      return -1;
+
+    // Bytes 6-7: LENGTH (little endian)
+    return HEADER_SIZE + ((inBuffer.get(5) & 0xff) | 
+                          ((inBuffer.get(6) & 0xff) << 8));
+  }
+
   /**
    * Reads a request from an input stream and returns a map with the request 
-   * method as key and the payload as value.
+   * method as key and the payload as value.  The response should be written
+   * with the same encoding of the request, see {@link Request#isBinary()}.
    *
    * @param inStream an input stream
    * @return a <code>Map</code> with the method as a string as key and the 
@@ -66,7 +148,7 @@ public final class JidlProtocol {
    * @throws IOException if reading the stream failed
    * @throws JidlProtocolException if the message is malformed
    */
-  public static Map.Entry<String, JsonObject> readRequest(InputStream inStream)
+  public static Request readRequest(InputStream inStream)
     throws IOException, JidlProtocolException {
     Map.Entry<JidlProtocolStatusCode, JsonObject> entry = read(inStream);
     JidlProtocolStatusCode statusCode = entry.getKey();
@@ -78,7 +160,8 @@ public final class JidlProtocol {
     
     String method = body.getString(Keys.METHOD);
     JsonObject payload = body.getMapOrDefault(Keys.PAYLOAD);
-    return new AbstractMap.SimpleEntry<>(method, payload);
+    return new Request(method, payload,
+                       JidlProtocolStatusCode.isBinary(statusCode));
   }
 
   /**
@@ -134,7 +217,8 @@ public final class JidlProtocol {
   }
   
   /**
-   * Writes a response with the requested data to an output stream.
+   * Writes a response with the requested data to an output stream, with a
+   * JSON body.
    *
    * @param inStream the stream to write
    * @param inPayload the requested data
@@ -143,12 +227,31 @@ public final class JidlProtocol {
   public static void writeResponse(OutputStream inStream, 
                                    JsonObject inPayload) 
     throws IOException {
+    writeResponse(inStream, inPayload, false);
+  }
+
+  /**
+   * Writes a response with the requested data to an output stream.
+   *
+   * @param inStream the stream to write
+   * @param inPayload the requested data
+   * @param inBinary <code>true</code> for a binary body, <code>false</code>
+   *                 for a JSON body
+   * @throws IOException if the writing to stream failed
+   */
+  public static void writeResponse(OutputStream inStream, 
+                                   JsonObject inPayload,
+                                   boolean inBinary) 
+    throws IOException {
     JsonObject body = new JsonObject();
     if (inPayload != null) {
       /* All okay so far: we have a payload to provide. */
       body.put(Keys.PAYLOAD.getKey(), inPayload);
       try {
-        write(inStream, JidlProtocolStatusCode.GOOD_RESPONSE_WITH_PAYLOAD, body);
+        write(inStream, 
+              inBinary ? JidlProtocolStatusCode.GOOD_RESPONSE_BINARY_WITH_PAYLOAD
+                       : JidlProtocolStatusCode.GOOD_RESPONSE_WITH_PAYLOAD,
+              body);
       } catch (JidlProtocolException jpe) {
         /* If there is an error preparing the response, write a bad response. */
         writeResponse(inStream, jpe.getStatusCode());
@@ -156,12 +259,14 @@ public final class JidlProtocol {
     } else {
       /* The operation is done, otherwise there should be an exception, just 
        * there is not a payload.  */
-      writeResponse(inStream, JidlProtocolStatusCode.GOOD_RESPONSE);
+      writeResponse(inStream, 
+                    inBinary ? JidlProtocolStatusCode.GOOD_RESPONSE_BINARY
+                             : JidlProtocolStatusCode.GOOD_RESPONSE);
     }
   }
   
   /**
-   * Writes a request to an output stream.
+   * Writes a request to an output stream, with a JSON body.
    *
    * @param inOutputStream the stream to write
    * @param inMethod the invoked method
@@ -172,9 +277,29 @@ public final class JidlProtocol {
                                   String inMethod, 
                                   JsonObject inPayload) 
     throws IOException {
+    writeRequest(inOutputStream, inMethod, inPayload, false);
+  }
+
+  /**
+   * Writes a request to an output stream.  A server which does not know the
+   * binary encoding answers a binary request with
+   * <code>BAD_RESPONSE_INVALID_STATUS_CODE</code>.
+   *
+   * @param inOutputStream the stream to write
+   * @param inMethod the invoked method
+   * @param inPayload the data of the request
+   * @param inBinary <code>true</code> for a binary body, <code>false</code>
+   *                 for a JSON body
+   * @throws IOException if writing the data failed 
+   */
+  public static void writeRequest(OutputStream inOutputStream, 
+                                  String inMethod, 
+                                  JsonObject inPayload,
+                                  boolean inBinary) 
+    throws IOException {
     /* Request codes: 0 request, 1 without method, 2 without payload, 3 without
-     * method and payload. */
-    int rc = 0;
+     * method and payload; plus 32 for a binary body. */
+    int rc = inBinary ? JidlProtocolStatusCode.BINARY_FLAG : 0;
     JsonObject body = new JsonObject();
     
     if (inMethod != null) {
@@ -262,11 +387,16 @@ public final class JidlProtocol {
     buf = buffer.toByteArray();
 
     try {
-      String jsonText = new String(buf, StandardCharsets.UTF_8);
-      JsonObject body = Jsoner.deserialize(jsonText, new JsonObject());
+      JsonObject body;
+      if (JidlProtocolStatusCode.isBinary(statusCode)) {
+        body = JidlProtocolBinaryCodec.decode(buf);
+      } else {
+        String jsonText = new String(buf, StandardCharsets.UTF_8);
+        body = Jsoner.deserialize(jsonText, new JsonObject());
+      }
       return new AbstractMap.SimpleEntry<>(statusCode, body);
     } catch (Exception e) {
-      /* Probably the body is not valid Json data. */
+      /* Probably the body is not valid Json or binary data. */
       throw new JidlProtocolException(JidlProtocolStatusCode.BAD_RESPONSE_INVALID_BODY);
     }
   }
@@ -284,32 +414,73 @@ public final class JidlProtocol {
                             JidlProtocolStatusCode inStatusCode, 
                             JsonObject inBody)
     throws IOException, JidlProtocolException {
+    /* Encode the body first: if it fails, nothing is written and a bad
+     * response can still be sent. */
+    byte[] buf;
+    if (JidlProtocolStatusCode.isBinary(inStatusCode)) {
+      buf = JidlProtocolBinaryCodec.encode(inBody);
+    } else {
+      buf = Jsoner.serialize(inBody).getBytes(StandardCharsets.UTF_8);
+    }
+
+    int len = buf.length;
+    /* If the data exceeds the maximum size allowed by the protocol, 
+     * throw an exception. */
+    if (len > MAX_SIZE)
+      throw new JidlProtocolException(JidlProtocolStatusCode.BAD_RESPONSE_BUFFER_OVERFLOW);
+
     // Bytes 1-4: FLAG
     inOutputStream.write(FLAG);
 
     // Byte 5: STATUS CODE
     inOutputStream.write(inStatusCode.rawValue);
 
-    // make json object
-    byte[] buf = Jsoner.serialize(inBody).getBytes(StandardCharsets.UTF_8);
-
     // Bytes 6-7: LENGTH (little endian)
-    int len = buf.length;
-    /* If the data exceeds the maximum size allowed by the protocol, 
-     * throw an exception. */
-    if (len > MAX_SIZE)
-      throw new JidlProtocolException(JidlProtocolStatusCode.BAD_RESPONSE_BUFFER_OVERFLOW);
     int b0 = len & 0xff;
     int b1 = (len & 0xff00) >> 8;
     inOutputStream.write(b0);
     inOutputStream.write(b1);
 
-    // Bytes 8-XXX: JSON OBJECT
+    // Bytes 8-XXX: JSON OBJECT or binary body
     inOutputStream.write(buf);
 
     inOutputStream.flush();
   }
   
+  /**
+   * A request read from a stream: the method as key and the payload as value.
+   */
+  public static final class Request 
+    extends AbstractMap.SimpleEntry<String, JsonObject> {
+    /**
+     * It is <code>true</code> if the request had a binary body.
+     */
+    private final boolean binary;
+
+    /**
+     * Class constructor.
+     *
+     * @param inMethod the invoked method
+     * @param inPayload the data of the request
+     * @param inBinary <code>true</code> if the request had a binary body
+     */
+    private Request(String inMethod, JsonObject inPayload, boolean inBinary) {
+      super(inMethod, inPayload);
+
+      binary = inBinary;
+    }
+
+    /**
+     * Returns <code>true</code> if the request had a binary body.
+     *
+     * @return <code>true</code> for a binary body, <code>false</code> for a
+     *         JSON body
+     */
+    public boolean isBinary() {
+      return binary;
+    }
+  }
+
   /**
    * An enumeration of standard keys.
    */
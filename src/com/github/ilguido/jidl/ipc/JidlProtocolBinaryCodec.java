@@ -0,0 +1,363 @@
+/**
+ * JidlProtocolBinaryCodec.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.ipc;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+
+import com.github.cliftonlabs.json_simple.JsonArray;
+import com.github.cliftonlabs.json_simple.JsonObject;
+
+/**
+ * JidlProtocolBinaryCodec
+ * The binary encoding of the body of a message of the Jidl Protocol, an
+ * alternative to JSON text.  The values are typed, so numbers are neither
+ * formatted nor parsed.
+ * <p>
+ * The body is a map. Each value is encoded as a type byte followed by its
+ * data; the numbers are little endian, as the length in the header of a
+ * message:
+ * <ul>
+ *   <li>0x00 null, no data</li>
+ *   <li>0x01 boolean, one byte: 0 or 1</li>
+ *   <li>0x02 int32, four bytes</li>
+ *   <li>0x03 int64, eight bytes</li>
+ *   <li>0x04 float32, four bytes, IEEE 754</li>
+ *   <li>0x05 float64, eight bytes, IEEE 754</li>
+ *   <li>0x06 string, the length as two bytes, then the UTF-8 text</li>
+ *   <li>0x07 timestamp, eight bytes, milliseconds since the epoch</li>
+ *   <li>0x08 map, the number of entries as two bytes, then for each entry
+ *       the length of the key as two bytes, the UTF-8 key and the
+ *       value</li>
+ *   <li>0x09 array, the number of values as two bytes, then the values</li>
+ * </ul>
+ * Maps are decoded as <code>JsonObject</code>, arrays as
+ * <code>JsonArray</code> and timestamps as <code>Instant</code>. Bytes and
+ * shorts are encoded as int32, other numbers as float64, any other object as
+ * the string of its <code>toString()</code> method.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+final class JidlProtocolBinaryCodec {
+  /**
+   * The type of a null value.
+   */
+  private static final int NULL = 0x00;
+
+  /**
+   * The type of a boolean value.
+   */
+  private static final int BOOLEAN = 0x01;
+
+  /**
+   * The type of a 32 bit integer.
+   */
+  private static final int INT32 = 0x02;
+
+  /**
+   * The type of a 64 bit integer.
+   */
+  private static final int INT64 = 0x03;
+
+  /**
+   * The type of a single precision floating point number.
+   */
+  private static final int FLOAT32 = 0x04;
+
+  /**
+   * The type of a double precision floating point number.
+   */
+  private static final int FLOAT64 = 0x05;
+
+  /**
+   * The type of a text string.
+   */
+  private static final int STRING = 0x06;
+
+  /**
+   * The type of a timestamp.
+   */
+  private static final int TIMESTAMP = 0x07;
+
+  /**
+   * The type of a map.
+   */
+  private static final int MAP = 0x08;
+
+  /**
+   * The type of an array.
+   */
+  private static final int ARRAY = 0x09;
+
+  /**
+   * The maximum length of a string, or number of items of a map or array.
+   */
+  private static final int MAX_COUNT = 0xffff;
+
+  /**
+   * The maximum nesting depth of maps and arrays in a body.
+   */
+  private static final int MAX_DEPTH = 32;
+
+  /**
+   * Private constructor, this class has only static methods.
+   */
+  private JidlProtocolBinaryCodec() {
+  }
+
+  /**
+   * Decodes a body.
+   *
+   * @param inData the encoded body
+   * @return the body
+   * @throws JidlProtocolException if the data is not a valid encoded map
+   */
+  static JsonObject decode(byte[] inData)
+    throws JidlProtocolException {
+    ByteBuffer buffer = ByteBuffer.wrap(inData).order(ByteOrder.LITTLE_ENDIAN);
+
+    try {
+      Object body = decodeValue(buffer, 1);
+
+      if (!(body instanceof JsonObject) || buffer.hasRemaining())
+        throw new JidlProtocolException(JidlProtocolStatusCode.BAD_RESPONSE_INVALID_BODY);
+
+      return (JsonObject) body;
+    } catch (BufferUnderflowException e) {
+      throw new JidlProtocolException(JidlProtocolStatusCode.BAD_RESPONSE_INVALID_BODY);
+    }
+  }
+
+  /**
+   * Encodes a body.
+   *
+   * @param inBody the body
+   * @return the encoded body
+   * @throws JidlProtocolException if a string, a map or an array is too
+   *                               large
+   */
+  static byte[] encode(JsonObject inBody)
+    throws JidlProtocolException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+
+    encodeValue(out, inBody);
+
+    return out.toByteArray();
+  }
+
+  /**
+   * Decodes a value and its type.
+   *
+   * @param inBuffer the buffer, at the type of the value
+   * @param inDepth the nesting depth of the value, 1 for the body
+   * @return the value
+   * @throws JidlProtocolException if the type is unknown, or if maps and
+   *                               arrays are nested too deep
+   */
+  private static Object decodeValue(ByteBuffer inBuffer, int inDepth)
+    throws JidlProtocolException {
+    int type = inBuffer.get() & 0xff;
+
+    switch (type) {
+      case NULL:
+        return null;
+      case BOOLEAN:
+        return Boolean.valueOf(inBuffer.get() != 0);
+      case INT32:
+        return Integer.valueOf(inBuffer.getInt());
+      case INT64:
+        return Long.valueOf(inBuffer.getLong());
+      case FLOAT32:
+        return Float.valueOf(inBuffer.getFloat());
+      case FLOAT64:
+        return Double.valueOf(inBuffer.getDouble());
+      case STRING:
+        return decodeString(inBuffer);
+      case TIMESTAMP:
+        return Instant.ofEpochMilli(inBuffer.getLong());
+      case MAP:
+        if (inDepth > MAX_DEPTH)
+          throw new JidlProtocolException(JidlProtocolStatusCode.BAD_RESPONSE_INVALID_BODY);
+
+        JsonObject map = new JsonObject();
+
+        for (int n = inBuffer.getShort() & 0xffff; n > 0; n--) {
+          String key = decodeString(inBuffer);
+
+          map.put(key, decodeValue(inBuffer, inDepth + 1));
+        }
+        return map;
+      case ARRAY:
+        if (inDepth > MAX_DEPTH)
+          throw new JidlProtocolException(JidlProtocolStatusCode.BAD_RESPONSE_INVALID_BODY);
+
+        JsonArray array = new JsonArray();
+
+        for (int n = inBuffer.getShort() & 0xffff; n > 0; n--) {
+          array.add(decodeValue(inBuffer, inDepth + 1));
+        }
+        return array;
+      default:
+        throw new JidlProtocolException(JidlProtocolStatusCode.BAD_RESPONSE_INVALID_BODY);
+    }
+  }
+
+  /**
+   * Decodes a string, without its type.
+   *
+   * @param inBuffer the buffer, at the length of the string
+   * @return the string
+   */
+  private static String decodeString(ByteBuffer inBuffer) {
+    int length = inBuffer.getShort() & 0xffff;
+
+    if (length > inBuffer.remaining())
+      throw new BufferUnderflowException();
+
+    String s = new String(inBuffer.array(), inBuffer.position(), length,
+                          StandardCharsets.UTF_8);
+    inBuffer.position(inBuffer.position() + length);
+
+    return s;
+  }
+
+  /**
+   * Encodes a value and its type.
+   *
+   * @param inOut the encoded data
+   * @param inValue the value
+   * @throws JidlProtocolException if a string, a map or an array is too
+   *                               large
+   */
+  private static void encodeValue(ByteArrayOutputStream inOut, Object inValue)
+    throws JidlProtocolException {
+    if (inValue == null) {
+      inOut.write(NULL);
+    } else if (inValue instanceof Boolean) {
+      inOut.write(BOOLEAN);
+      inOut.write(((Boolean) inValue).booleanValue() ? 1 : 0);
+    } else if (inValue instanceof Integer ||
+               inValue instanceof Short ||
+               inValue instanceof Byte) {
+      inOut.write(INT32);
+      writeInt(inOut, ((Number) inValue).intValue());
+    } else if (inValue instanceof Long) {
+      inOut.write(INT64);
+      writeLong(inOut, ((Long) inValue).longValue());
+    } else if (inValue instanceof Float) {
+      inOut.write(FLOAT32);
+      writeInt(inOut, Float.floatToIntBits(((Float) inValue).floatValue()));
+    } else if (inValue instanceof Number) {
+      /* Double, and the numbers parsed from JSON text. */
+      inOut.write(FLOAT64);
+      writeLong(inOut,
+                Double.doubleToLongBits(((Number) inValue).doubleValue()));
+    } else if (inValue instanceof Instant) {
+      inOut.write(TIMESTAMP);
+      writeLong(inOut, ((Instant) inValue).toEpochMilli());
+    } else if (inValue instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) inValue;
+
+      inOut.write(MAP);
+      writeCount(inOut, map.size());
+      for (final Map.Entry<?, ?> e : map.entrySet()) {
+        writeString(inOut, String.valueOf(e.getKey()));
+        encodeValue(inOut, e.getValue());
+      }
+    } else if (inValue instanceof Collection) {
+      Collection<?> array = (Collection<?>) inValue;
+
+      inOut.write(ARRAY);
+      writeCount(inOut, array.size());
+      for (final Object o : array) {
+        encodeValue(inOut, o);
+      }
+    } else {
+      inOut.write(STRING);
+      writeString(inOut, inValue.toString());
+    }
+  }
+
+  /**
+   * Writes the length of a string, or the number of items of a map or
+   * array.
+   *
+   * @param inOut the encoded data
+   * @param inCount the number
+   * @throws JidlProtocolException if the number is too large
+   */
+  private static void writeCount(ByteArrayOutputStream inOut, int inCount)
+    throws JidlProtocolException {
+    if (inCount > MAX_COUNT)
+      throw new JidlProtocolException(JidlProtocolStatusCode.BAD_RESPONSE_BUFFER_OVERFLOW);
+
+    inOut.write(inCount & 0xff);
+    inOut.write((inCount >> 8) & 0xff);
+  }
+
+  /**
+   * Writes a 32 bit integer.
+   *
+   * @param inOut the encoded data
+   * @param inValue the integer
+   */
+  private static void writeInt(ByteArrayOutputStream inOut, int inValue) {
+    for (int i = 0; i < 4; i++) {
+      inOut.write((inValue >> (8 * i)) & 0xff);
+    }
+  }
+
+  /**
+   * Writes a 64 bit integer.
+   *
+   * @param inOut the encoded data
+   * @param inValue the integer
+   */
+  private static void writeLong(ByteArrayOutputStream inOut, long inValue) {
+    for (int i = 0; i < 8; i++) {
+      inOut.write((int) (inValue >> (8 * i)) & 0xff);
+    }
+  }
+
+  /**
+   * Writes a string, without its type.
+   *
+   * @param inOut the encoded data
+   * @param inValue the string
+   * @throws JidlProtocolException if the string is too long
+   */
+  private static void writeString(ByteArrayOutputStream inOut, String inValue)
+    throws JidlProtocolException {
+    byte[] b = inValue.getBytes(StandardCharsets.UTF_8);
+
+    writeCount(inOut, b.length);
+    inOut.write(b, 0, b.length);
+  }
+}
@@ -26,8 +26,11 @@ import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.SocketTimeoutException;
 import java.rmi.ServerException;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
@@ -50,6 +53,15 @@ import com.github.ilguido.jidl.utils.FileManager;
  * JidlProtocolClient
  * A class to manage a client for the Jidl Protocol.  It is based
  * on the ProcBribdge protocol.
+ * <p>
+ * Before the first request, the client asks the server which extensions of
+ * the protocol it supports, with a JSON request which an older server
+ * refuses. If the server supports them, the connection is kept open and
+ * reused by the following requests, so that the TLS handshake is done only
+ * once, and the requests are sent with a binary body, which is faster to
+ * encode and decode than JSON text. A connection idle for too long is not
+ * reused, because the server may have closed it. With an older server, each
+ * request has its own connection and a JSON body.
  *
  * @version 0.8
  * @author Stefano Guidoni
@@ -86,15 +98,72 @@ public class JidlProtocolClient {
    */
   public static final long FOREVER = 0;
 
+  /**
+   * The maximum idle time of a connection to be reused, in milliseconds.  It
+   * is shorter than the default idle timeout of the server.
+   */
+  public static final long MAX_IDLE_TIME = 
+    JidlProtocolServer.DEFAULT_IDLE_TIMEOUT * 2 / 3;
+
+  /**
+   * The socket of the connection to the server, or <code>null</code> if
+   * there is no open connection.
+   */
+  private SSLSocket socket = null;
+
+  /**
+   * The input stream of the connection.
+   */
+  private InputStream inputStream = null;
+
+  /**
+   * The output stream of the connection.
+   */
+  private OutputStream outputStream = null;
+
+  /**
+   * The time of the last response received through the connection, in
+   * milliseconds.
+   */
+  private long lastUsed = 0;
+
+  /**
+   * It is <code>true</code> once the first byte of the response to the last
+   * request arrived.
+   */
+  private volatile boolean responding = false;
+
+  /**
+   * It is <code>true</code> if the requests are to be sent with a binary
+   * body, when the server supports it.
+   */
+  private boolean binary = true;
+
+  /**
+   * It is <code>true</code> once the server told which extensions of the
+   * protocol it supports.
+   */
+  private boolean probed = false;
+
+  /**
+   * It is <code>true</code> if the server supports binary bodies.
+   */
+  private boolean binarySupported = false;
+
+  /**
+   * It is <code>true</code> if the server keeps the connection open between
+   * requests.
+   */
+  private boolean keepAlive = false;
+
   /**
    * Initializes the client and sets a timeout for connections.  It can use an 
    * SSL context to generate the socket. If the SSLContext is <code>null</code>,
    * the default context will be used instead. You can also pass a
-   * <code>null</code> value for the executor, but you should consider to
+   * <code>null</code> value for the executor, then the client creates its own
+   * executor, with a single daemon thread; you should consider to
    * instantiate a common executor, if you plan to instantiate this client 
-   * multiple times. Creating a new executor for each request takes time and 
-   * resources: it is not good for repeated requests, it is absolutely bad 
-   * for multiple concurrent requests.
+   * multiple times.
    *
    * @param inHost the host name or IP address of the remote server
    * @param inPort the port of the remote server
@@ -115,7 +184,11 @@ public class JidlProtocolClient {
     if (inExecutorService != null) {
       this.executor = inExecutorService;
     } else {
-      final ExecutorService executor = Executors.newSingleThreadExecutor();
+      final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "jidl protocol client");
+        t.setDaemon(true);
+        return t;
+      });
       this.executor = executor;
     }
     this.sslContext = inSSLContext;
@@ -125,11 +198,10 @@ public class JidlProtocolClient {
    * Initializes the client and does not set a timeout for connections.  It can
    * use an SSL context to generate the socket. If the SSLContext is
    * <code>null</code>, the default context will be used. You can pass a
-   * <code>null</code> value for the executor, but you should consider to
+   * <code>null</code> value for the executor, then the client creates its own
+   * executor, with a single daemon thread; you should consider to
    * instantiate a common executor, if you plan to instantiate this client 
-   * multiple times. Creating a new executor for each request takes time and 
-   * resources: it is not good for repeated requests, it is absolutely bad 
-   * for multiple concurrent requests.
+   * multiple times.
    *
    * @param inHost the host name or IP address of the remote server
    * @param inPort the port of the remote server
@@ -180,88 +252,268 @@ public class JidlProtocolClient {
   }
 
   /**
-   * Executes a request to the remote server.
+   * Returns <code>true</code> if the requests are sent with a binary body.
+   * It is <code>false</code> if binary bodies are not wanted, or the server
+   * did not tell yet that it supports them.
+   *
+   * @return <code>true</code> for binary bodies, <code>false</code> for JSON
+   *         bodies
+   */
+  public synchronized boolean isBinary() {
+    return binary && binarySupported;
+  }
+
+  /**
+   * Sets whether the requests are to be sent with a binary body or with a
+   * JSON body.  Binary bodies are used only if the server supports them; the
+   * server is asked again before the next request.
+   *
+   * @param inBinary <code>true</code> for binary bodies, <code>false</code>
+   *                 for JSON bodies
+   */
+  public synchronized void setBinary(boolean inBinary) {
+    binary = inBinary;
+    probed = false;
+  }
+
+  /**
+   * Closes the connection to the server, if it is open.  The next request
+   * opens a new connection.
+   */
+  public synchronized void close() {
+    if (socket != null) {
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+      }
+    }
+
+    socket = null;
+    inputStream = null;
+    outputStream = null;
+  }
+
+  /**
+   * Returns <code>true</code> if there is an open connection to the server,
+   * which can be reused by the next request.
+   *
+   * @return <code>true</code> if the connection is open and it was not idle
+   *         for too long
+   */
+  public synchronized boolean isConnected() {
+    return socket != null && !socket.isClosed() &&
+           System.currentTimeMillis() - lastUsed < MAX_IDLE_TIME;
+  }
+
+  /**
+   * Executes a request to the remote server.  The request is sent through
+   * the open connection, if any, or through a new one. If the open
+   * connection turns out to be closed by the server, the request is sent
+   * again through a new connection. The first request is preceded by a
+   * hello request, see {@link JidlProtocol#HELLO_METHOD}.
    *
    * @param inMethod the method called by the request, it is a string which
    *                 is a meaningful command for the receiving server
    * @param inData some json data or <code>null</code>
-   * @throws IOException if writing the request failed
+   * @throws IOException if writing the request or reading the response
+   *                     failed, or there was no response in time
    * @throws RuntimeException if the client got interrupted after sending the
    *                          request
    * @throws ServerException if the response from the server is not positive
    */
-  public final JsonObject request(String inMethod, 
-                                  JsonObject inData) 
+  public final synchronized JsonObject request(String inMethod, 
+                                               JsonObject inData) 
     throws IOException, RuntimeException, ServerException {
-     // response from the server
-    final JidlProtocolStatusCode[] respStatusCode = { null };
-    // data received from the server
-    final JsonObject[] respPayload = { null };
-    /* If the client thread throws an exception, put it here:
-     */
-    final Throwable[] innerException = { null };
+    if (!probed)
+      hello();
 
-    /* Get a SocketFactory from the SSLContext passed to this server.
-     * If the context is null, use the default.
-     * Having a specific SSLContext is useful when there are multiple
-     * connections, each using different certificates to differentiate roles
-     * and functions.
-     */
-    SocketFactory factory;
-    
-    if (sslContext != null) {
-      factory = sslContext.getSocketFactory();
+    Map.Entry<JidlProtocolStatusCode, JsonObject> response = 
+      send(inMethod, inData, isBinary());
+
+    if (!keepAlive) {
+      /* An older server answers a single request on each connection. */
+      close();
+    }
+
+    if (!JidlProtocolStatusCode.isGood(response.getKey())) {
+      throw new ServerException(response.getKey().textMessage);
+    }
+
+    return response.getValue();
+  }
+
+  /**
+   * Asks the server which extensions of the protocol it supports.  An older
+   * server refuses the request, then none is used.
+   *
+   * @throws IOException if the request failed
+   * @throws RuntimeException if the client got interrupted
+   */
+  private void hello()
+    throws IOException, RuntimeException {
+    Map.Entry<JidlProtocolStatusCode, JsonObject> response =
+      send(JidlProtocol.HELLO_METHOD, null, false);
+    JsonObject extensions = response.getValue();
+
+    if (JidlProtocolStatusCode.isGood(response.getKey()) &&
+        extensions != null) {
+      binarySupported =
+        Boolean.TRUE.equals(extensions.get(JidlProtocol.BINARY_EXTENSION));
+      keepAlive =
+        Boolean.TRUE.equals(extensions.get(JidlProtocol.KEEP_ALIVE_EXTENSION));
     } else {
-      factory = SSLSocketFactory.getDefault();
+      binarySupported = false;
+      keepAlive = false;
     }
-    
-    try (final SSLSocket socket = (SSLSocket) factory.createSocket(host, port)) 
-      {
-      socket.setEnabledCipherSuites(new String[] { "TLS_RSA_WITH_AES_128_GCM_SHA256" });
-      socket.setEnabledProtocols(new String[] { "TLSv1.2" });
-      Runnable task = () -> {
-        try {
-          OutputStream os = new BufferedOutputStream(socket.getOutputStream());
-          InputStream is = new BufferedInputStream(socket.getInputStream());
+    probed = true;
 
-          JidlProtocol.writeRequest(os, inMethod, inData);
-          Map.Entry<JidlProtocolStatusCode, JsonObject> entry = 
-                                                  JidlProtocol.readResponse(is);
-          respStatusCode[0] = entry.getKey();
-          respPayload[0] = entry.getValue();
+    if (!keepAlive)
+      close();
+  }
 
-        } catch (Exception ex) {
-          innerException[0] = ex;
-        }
-      };
+  /**
+   * Sends a request and waits for its response.  If the open connection
+   * turns out to be closed by the server, the request is sent again through
+   * a new connection.  A request is sent again only if no byte of its
+   * response arrived, since the server could not have answered it; when the
+   * response broke midway, the error is thrown, because the server may have
+   * already executed the request.
+   *
+   * @param inMethod the method called by the request
+   * @param inData some json data or <code>null</code>
+   * @param inBinary <code>true</code> for a binary body
+   * @return a <code>Map</code> entry with the status of the response as key
+   *         and its payload as value
+   * @throws IOException if the request failed
+   * @throws RuntimeException if the client got interrupted
+   */
+  private Map.Entry<JidlProtocolStatusCode, JsonObject>
+                        send(String inMethod, JsonObject inData, boolean inBinary)
+    throws IOException, RuntimeException {
+    final boolean reused = isConnected();
+
+    try {
+      return exchange(inMethod, inData, inBinary);
+    } catch (SocketTimeoutException e) {
+      throw e;
+    } catch (IOException e) {
+      if (!reused || responding)
+        throw e;
+
+      /* The server closed the connection meanwhile. */
+      return exchange(inMethod, inData, inBinary);
+    }
+  }
+
+  /**
+   * Sends a request and waits for its response.  If something goes wrong,
+   * the connection is closed, since the data stream cannot be trusted
+   * anymore.
+   *
+   * @param inMethod the method called by the request
+   * @param inData some json data or <code>null</code>
+   * @param inBinary <code>true</code> for a binary body
+   * @return a <code>Map</code> entry with the status of the response as key
+   *         and its payload as value
+   * @throws IOException if the request failed, or a 
+   *                     <code>SocketTimeoutException</code> if there was no
+   *                     response in time
+   * @throws RuntimeException if the client got interrupted
+   */
+  private Map.Entry<JidlProtocolStatusCode, JsonObject> 
+          exchange(String inMethod, JsonObject inData, boolean inBinary)
+    throws IOException, RuntimeException {
+    if (!isConnected()) {
+      close();
+      open();
+    }
+
+    final InputStream is = inputStream;
+    final OutputStream os = outputStream;
+    responding = false;
+    Callable<Map.Entry<JidlProtocolStatusCode, JsonObject>> task = () -> {
+      JidlProtocol.writeRequest(os, inMethod, inData, inBinary);
+
+      /* Peek at the first byte, to tell a connection closed before the
+       * request from a response broken midway.
+       */
+      is.mark(1);
+      responding = is.read() >= 0;
+      is.reset();
+
+      return JidlProtocol.readResponse(is);
+    };
+
+    try {
+      Map.Entry<JidlProtocolStatusCode, JsonObject> response;
 
       if (timeout <= 0) {
-        task.run();
+        response = task.call();
       } else {
-        Future future = executor.submit(task);
+        Future<Map.Entry<JidlProtocolStatusCode, JsonObject>> future = 
+          executor.submit(task);
 
         try {
-          future.get(timeout, TimeUnit.MILLISECONDS);
+          response = future.get(timeout, TimeUnit.MILLISECONDS);
         } catch (TimeoutException e) {
           future.cancel(true);
-          throw new IOException(e);
-        } catch (Exception e) {
-          throw new IOException(e);
-        } finally {
-          executor.shutdownNow();
+          throw new SocketTimeoutException("No response in " + timeout +
+                                           " ms");
+        } catch (ExecutionException e) {
+          throw e.getCause();
         }
       }
+
+      lastUsed = System.currentTimeMillis();
+      return response;
+    } catch (InterruptedException e) {
+      close();
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    } catch (IOException e) {
+      close();
+      throw e;
+    } catch (Throwable e) {
+      close();
+      throw new IOException(e);
     }
+  }
 
-    if (innerException[0] != null) {
-      throw new RuntimeException(innerException[0]);
+  /**
+   * Opens a new connection to the server.
+   *
+   * @throws IOException if the connection could not be established
+   */
+  private void open()
+    throws IOException {
+    /* Get a SocketFactory from the SSLContext passed to this server.
+     * If the context is null, use the default.
+     * Having a specific SSLContext is useful when there are multiple
+     * connections, each using different certificates to differentiate roles
+     * and functions.
+     */
+    SocketFactory factory;
+    
+    if (sslContext != null) {
+      factory = sslContext.getSocketFactory();
+    } else {
+      factory = SSLSocketFactory.getDefault();
     }
+    
+    final SSLSocket socket = (SSLSocket) factory.createSocket(host, port);
 
-    if (!JidlProtocolStatusCode.isGood(respStatusCode[0])) {
-      throw new ServerException(respStatusCode[0].textMessage);
+    try {
+      socket.setEnabledCipherSuites(new String[] { "TLS_RSA_WITH_AES_128_GCM_SHA256" });
+      socket.setEnabledProtocols(new String[] { "TLSv1.2" });
+      socket.setTcpNoDelay(true);
+
+      outputStream = new BufferedOutputStream(socket.getOutputStream());
+      inputStream = new BufferedInputStream(socket.getInputStream());
+    } catch (IOException e) {
+      socket.close();
+      throw e;
     }
 
-    return respPayload[0];
+    this.socket = socket;
   }
-
 } 
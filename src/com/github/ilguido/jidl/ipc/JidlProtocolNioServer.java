@@ -0,0 +1,1152 @@
+/**
+ * JidlProtocolNioServer.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.ipc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLSession;
+
+import com.github.cliftonlabs.json_simple.JsonObject;
+
+/**
+ * JidlProtocolNioServer
+ * A server for the Jidl Protocol built on non-blocking channels, for a large
+ * number of clients.  A small, fixed number of event loop threads handle the
+ * TLS sessions and the messages of all the connections, while the requests
+ * are handled by a bounded pool of worker threads. It is an alternative to
+ * {@link com.github.ilguido.jidl.ipc.JidlProtocolServer}, which takes a thread
+ * for each connection.
+ * <p>
+ * A connection handles one request at a time: it reads no more data while its
+ * request is being handled. The buffers of a connection are reused by all its
+ * requests. A connection beyond the limit is closed as soon as it is
+ * accepted, and a request finding the worker pool and its queue full is
+ * answered with an error. As with the other server, a connection is kept
+ * open until the client closes it or it stays idle longer than the idle
+ * timeout.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public class JidlProtocolNioServer implements IPCServerInterface {
+  /**
+   * The default number of event loop threads.
+   */
+  public static final int DEFAULT_EVENT_LOOPS = 2;
+
+  /**
+   * The default maximum number of open connections.
+   */
+  public static final int DEFAULT_MAX_CONNECTIONS = 256;
+
+  /**
+   * The default number of worker threads.
+   */
+  public static final int DEFAULT_WORKERS = 4;
+
+  /**
+   * The number of requests waiting in the queue of the workers, for each
+   * worker.
+   */
+  private static final int QUEUE_PER_WORKER = 16;
+
+  /**
+   * The period of the check of the idle connections, in milliseconds.
+   */
+  private static final long IDLE_CHECK_PERIOD = 1000;
+
+  /**
+   * An empty buffer, the source of the handshake messages.
+   */
+  private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+  /**
+   * This server is listening at this port.
+   */
+  private final int port;
+
+  /**
+   * The {@link com.github.ilguido.jidl.ipc.RequestHandlerInterface} used to
+   * process the requests.
+   */
+  private final RequestHandlerInterface requestHandler;
+
+  /**
+   * The context used to generate the TLS sessions.
+   */
+  private final SSLContext sslContext;
+
+  /**
+   * The number of event loop threads.
+   */
+  private final int eventLoopCount;
+
+  /**
+   * The number of worker threads.
+   */
+  private final int workerCount;
+
+  /**
+   * The maximum number of open connections.
+   */
+  private final int maxConnections;
+
+  /**
+   * The number of open connections.
+   */
+  private final AtomicInteger connectionCount = new AtomicInteger(0);
+
+  /**
+   * The number of connections refused, because of the connection limit.
+   */
+  private final AtomicInteger refusedCount = new AtomicInteger(0);
+
+  /**
+   * The idle timeout of the connections, in milliseconds.
+   */
+  private volatile int idleTimeout = JidlProtocolServer.DEFAULT_IDLE_TIMEOUT;
+
+  /**
+   * The channel accepting the connections.
+   */
+  private ServerSocketChannel serverChannel;
+
+  /**
+   * The event loops.
+   */
+  private EventLoop[] eventLoops;
+
+  /**
+   * The executor running the event loops.
+   */
+  private ExecutorService loopExecutor;
+
+  /**
+   * The executor handling the requests, or <code>null</code> if the server
+   * is stopped.
+   */
+  private volatile ThreadPoolExecutor workers;
+
+  /**
+   * The executor running the delegated tasks of the TLS handshakes, or
+   * <code>null</code> if the server is stopped.  Each connection has at most
+   * one batch of tasks queued, so its queue is bounded by the maximum
+   * number of connections.
+   */
+  private volatile ExecutorService handshakeWorkers;
+
+  /**
+   * Flag of server started.
+   */
+  private boolean started;
+
+  /**
+   * Initializes the server with the default number of threads and the
+   * default connection limit.  It can use an SSL context to generate the TLS
+   * sessions. If the SSL context is <code>null</code>, the default context
+   * will be used instead.
+   *
+   * @param inPort the port of the server
+   * @param inRequestHandler the object that actually handles the requests
+   *                         received by the server
+   * @param inSSLContext a context to be used to generate the TLS sessions, it
+   *                     can be <code>null</code>
+   */
+  public JidlProtocolNioServer(final int inPort,
+                               RequestHandlerInterface inRequestHandler,
+                               final SSLContext inSSLContext) {
+    this(inPort, inRequestHandler, inSSLContext, DEFAULT_EVENT_LOOPS,
+         DEFAULT_WORKERS, DEFAULT_MAX_CONNECTIONS);
+  }
+
+  /**
+   * Initializes the server.  It can use an SSL context to generate the TLS
+   * sessions. If the SSL context is <code>null</code>, the default context
+   * will be used instead.
+   *
+   * @param inPort the port of the server
+   * @param inRequestHandler the object that actually handles the requests
+   *                         received by the server
+   * @param inSSLContext a context to be used to generate the TLS sessions, it
+   *                     can be <code>null</code>
+   * @param inEventLoops the number of event loop threads
+   * @param inWorkers the number of worker threads
+   * @param inMaxConnections the maximum number of open connections
+   * @throws IllegalArgumentException if a number of threads or the
+   *                                  connection limit is not a positive
+   *                                  number
+   */
+  public JidlProtocolNioServer(final int inPort,
+                               RequestHandlerInterface inRequestHandler,
+                               final SSLContext inSSLContext,
+                               final int inEventLoops,
+                               final int inWorkers,
+                               final int inMaxConnections)
+    throws IllegalArgumentException {
+    if (inEventLoops < 1 || inWorkers < 1)
+      throw new IllegalArgumentException("Threads must be a positive int");
+    if (inMaxConnections < 1)
+      throw new IllegalArgumentException("Connection limit must be a " +
+                                         "positive int");
+
+    this.port = inPort;
+    this.requestHandler = inRequestHandler;
+    this.sslContext = inSSLContext;
+    this.eventLoopCount = inEventLoops;
+    this.workerCount = inWorkers;
+    this.maxConnections = inMaxConnections;
+
+    this.started = false;
+  }
+
+  /**
+   * Returns the number of open connections.
+   *
+   * @return the number of open connections
+   */
+  public int getConnectionCount() {
+    return connectionCount.get();
+  }
+
+  /**
+   * Returns the idle timeout of the connections.
+   *
+   * @return the idle timeout in milliseconds
+   */
+  public int getIdleTimeout() {
+    return idleTimeout;
+  }
+
+  /**
+   * Returns the maximum number of open connections.
+   *
+   * @return the connection limit
+   */
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * Returns the port of the server.
+   *
+   * @return the port of the server
+   */
+  @Override
+  public final int getPort() {
+    return port;
+  }
+
+  /**
+   * Returns the number of connections refused, because of the connection
+   * limit.
+   *
+   * @return the number of refused connections since the server was created
+   */
+  public int getRefusedCount() {
+    return refusedCount.get();
+  }
+
+  /**
+   * Returns <code>true</code> if the server was started.  This does not
+   * strictly mean that it is running now.
+   *
+   * @return <code>true</code> if the server was started
+   */
+  @Override
+  public final synchronized boolean isStarted() {
+    return started;
+  }
+
+  /**
+   * Sets the idle timeout of the connections.  A connection which receives
+   * no request for this time is closed.
+   *
+   * @param inIdleTimeout the idle timeout in milliseconds
+   * @throws IllegalArgumentException if <code>inIdleTimeout</code> is not a
+   *                                  positive number
+   */
+  public void setIdleTimeout(int inIdleTimeout)
+    throws IllegalArgumentException {
+    if (inIdleTimeout < 1)
+      throw new IllegalArgumentException("Idle timeout must be a positive int");
+
+    idleTimeout = inIdleTimeout;
+  }
+
+  /**
+   * Starts the server.  It quietly does nothing, if the server was already
+   * started.
+   *
+   * @throws IOException if the server channel could not be created
+   */
+  @Override
+  public synchronized void start()
+    throws IOException {
+    if (started) {
+      return;
+    }
+
+    final SSLContext context;
+
+    try {
+      context = (sslContext == null ? SSLContext.getDefault() : sslContext);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IOException(e);
+    }
+
+    final ServerSocketChannel channel = ServerSocketChannel.open();
+    final EventLoop[] loops = new EventLoop[eventLoopCount];
+
+    try {
+      channel.configureBlocking(false);
+      channel.bind(new InetSocketAddress(port));
+
+      for (int i = 0; i < loops.length; i++) {
+        loops[i] = new EventLoop(context);
+      }
+
+      /* The first event loop accepts the connections. */
+      channel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+    } catch (IOException e) {
+      for (final EventLoop loop : loops) {
+        if (loop != null)
+          loop.selector.close();
+      }
+      channel.close();
+      throw e;
+    }
+
+    serverChannel = channel;
+    eventLoops = loops;
+    workers = new ThreadPoolExecutor(workerCount, workerCount,
+                                     0L, TimeUnit.MILLISECONDS,
+                                     new ArrayBlockingQueue<Runnable>(
+                                       workerCount * QUEUE_PER_WORKER));
+    handshakeWorkers = Executors.newFixedThreadPool(workerCount);
+    loopExecutor = Executors.newFixedThreadPool(eventLoopCount);
+    for (final EventLoop loop : loops) {
+      loopExecutor.execute(loop);
+    }
+
+    started = true;
+  }
+
+  /**
+   * Stops the server and closes the open connections.
+   */
+  @Override
+  public synchronized void stop() {
+    if (!started) {
+      return;
+    }
+
+    for (final EventLoop loop : eventLoops) {
+      loop.shutdown();
+    }
+    loopExecutor.shutdown();
+    loopExecutor = null;
+    workers.shutdown();
+    workers = null;
+    handshakeWorkers.shutdown();
+    handshakeWorkers = null;
+
+    try {
+      serverChannel.close();
+    } catch (IOException ignored) {
+    }
+    serverChannel = null;
+
+    started = false;
+  }
+
+  /**
+   * EventLoop
+   * A thread handling the I/O of a set of connections through a selector.
+   * All the state of a connection is handled by its event loop, but for the
+   * request being handled by a worker.
+   *
+   * @version 0.8
+   * @author Stefano Guidoni
+   */
+  private final class EventLoop implements Runnable {
+    /**
+     * The selector of the channels of the event loop.
+     */
+    private final Selector selector;
+
+    /**
+     * The context generating the TLS sessions.
+     */
+    private final SSLContext context;
+
+    /**
+     * The tasks to run on the event loop, posted by the other threads.
+     */
+    private final ConcurrentLinkedQueue<Runnable> tasks =
+      new ConcurrentLinkedQueue<Runnable>();
+
+    /**
+     * The index of the event loop of the next accepted connection.
+     */
+    private int nextLoop = 0;
+
+    /**
+     * This is <code>false</code> when the event loop must stop.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Initializes the event loop and its selector.
+     *
+     * @param inContext the context generating the TLS sessions
+     * @throws IOException if the selector could not be created
+     */
+    EventLoop(SSLContext inContext)
+      throws IOException {
+      selector = Selector.open();
+      context = inContext;
+    }
+
+    /**
+     * Runs a task on the event loop.
+     *
+     * @param inTask the task
+     */
+    void execute(Runnable inTask) {
+      tasks.add(inTask);
+      selector.wakeup();
+    }
+
+    /**
+     * Selects the ready channels and handles them, until the event loop is
+     * stopped.  Then it closes its connections.
+     */
+    @Override
+    public void run() {
+      long lastCheck = System.currentTimeMillis();
+
+      try {
+        while (running) {
+          selector.select(IDLE_CHECK_PERIOD);
+
+          Runnable task;
+          while ((task = tasks.poll()) != null) {
+            task.run();
+          }
+
+          Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+          while (it.hasNext()) {
+            SelectionKey key = it.next();
+            it.remove();
+
+            if (!key.isValid())
+              continue;
+
+            if (key.isAcceptable())
+              accept((ServerSocketChannel) key.channel());
+            else
+              ((NioConnection) key.attachment()).handle(key);
+          }
+
+          long now = System.currentTimeMillis();
+          if (now - lastCheck >= IDLE_CHECK_PERIOD) {
+            closeIdle(now);
+            lastCheck = now;
+          }
+        }
+      } catch (IOException e) {
+        /* the selector failed, stop the event loop */
+      } finally {
+        for (final SelectionKey key : selector.keys()) {
+          if (key.attachment() instanceof NioConnection)
+            ((NioConnection) key.attachment()).close();
+        }
+        try {
+          selector.close();
+        } catch (IOException ignored) {
+        }
+      }
+    }
+
+    /**
+     * Stops the event loop.
+     */
+    void shutdown() {
+      running = false;
+      selector.wakeup();
+    }
+
+    /**
+     * Accepts the pending connections and hands them to the event loops, in
+     * turn.  A connection beyond the limit is closed at once.
+     *
+     * @param inChannel the channel accepting the connections
+     */
+    private void accept(ServerSocketChannel inChannel) {
+      SocketChannel channel;
+
+      while (true) {
+        try {
+          channel = inChannel.accept();
+        } catch (IOException e) {
+          return;
+        }
+
+        if (channel == null)
+          return;
+
+        if (connectionCount.incrementAndGet() > maxConnections) {
+          connectionCount.decrementAndGet();
+          refusedCount.incrementAndGet();
+          try {
+            channel.close();
+          } catch (IOException ignored) {
+          }
+          continue;
+        }
+
+        final EventLoop loop = eventLoops[nextLoop];
+        final SocketChannel accepted = channel;
+
+        nextLoop = (nextLoop + 1) % eventLoops.length;
+        loop.execute(() -> loop.register(accepted));
+      }
+    }
+
+    /**
+     * Closes the connections idle for longer than the idle timeout.  The
+     * connections whose request or handshake is being handled are not
+     * idle.
+     *
+     * @param inNow the current time in milliseconds
+     */
+    private void closeIdle(long inNow) {
+      for (final SelectionKey key : selector.keys()) {
+        if (key.attachment() instanceof NioConnection) {
+          NioConnection conn = (NioConnection) key.attachment();
+
+          if (!conn.busy && !conn.tasking &&
+              inNow - conn.lastActivity > idleTimeout)
+            conn.close();
+        }
+      }
+    }
+
+    /**
+     * Registers a new connection with this event loop and starts its TLS
+     * handshake.
+     *
+     * @param inChannel the channel of the connection
+     */
+    private void register(SocketChannel inChannel) {
+      NioConnection conn = null;
+
+      try {
+        inChannel.configureBlocking(false);
+        inChannel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+
+        SSLEngine engine = context.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setNeedClientAuth(true);
+        engine.setEnabledCipherSuites(new String[] { 
+                                      "TLS_RSA_WITH_AES_128_GCM_SHA256" });
+        engine.setEnabledProtocols(new String[] { "TLSv1.2" });
+
+        conn = new NioConnection(this, inChannel, engine);
+        conn.key = inChannel.register(selector, SelectionKey.OP_READ, conn);
+        engine.beginHandshake();
+        conn.process();
+      } catch (Exception e) {
+        if (conn != null) {
+          conn.close();
+        } else {
+          connectionCount.decrementAndGet();
+          try {
+            inChannel.close();
+          } catch (IOException ignored) {
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * NioConnection
+   * A connection to the server, with its TLS session and its buffers.  It is
+   * handled by its event loop; while a request is being handled, the input
+   * buffer is read by a worker and left alone by the event loop.
+   *
+   * @version 0.8
+   * @author Stefano Guidoni
+   */
+  private final class NioConnection {
+    /**
+     * The event loop of the connection.
+     */
+    private final EventLoop loop;
+
+    /**
+     * The channel of the connection.
+     */
+    private final SocketChannel channel;
+
+    /**
+     * The TLS session of the connection.
+     */
+    private final SSLEngine engine;
+
+    /**
+     * The buffer of the encrypted data received.
+     */
+    private ByteBuffer netIn;
+
+    /**
+     * The buffer of the encrypted data to send.
+     */
+    private ByteBuffer netOut;
+
+    /**
+     * The buffer of the decrypted data received, i.e. the requests.
+     */
+    private ByteBuffer appIn;
+
+    /**
+     * The data of the response being sent.
+     */
+    private ByteBuffer appOut;
+
+    /**
+     * The response of the last request.
+     */
+    private final ResponseBuffer response = new ResponseBuffer();
+
+    /**
+     * The selection key of the channel.
+     */
+    private SelectionKey key = null;
+
+    /**
+     * This is <code>true</code> from the receipt of a request to the end of
+     * its response.
+     */
+    private volatile boolean busy = false;
+
+    /**
+     * This is <code>true</code> while a response is being sent.
+     */
+    private boolean responding = false;
+
+    /**
+     * This is <code>true</code> while the delegated tasks of the handshake
+     * run on a worker.
+     */
+    private boolean tasking = false;
+
+    /**
+     * This is <code>true</code> if the connection must be closed after the
+     * response.
+     */
+    private boolean closing = false;
+
+    /**
+     * This is <code>true</code> once the connection is closed.
+     */
+    private boolean closed = false;
+
+    /**
+     * The time of the last data received or response sent, in milliseconds.
+     */
+    private volatile long lastActivity;
+
+    /**
+     * Initializes the connection and its buffers.
+     *
+     * @param inLoop the event loop of the connection
+     * @param inChannel the channel of the connection
+     * @param inEngine the TLS session of the connection
+     */
+    NioConnection(EventLoop inLoop, SocketChannel inChannel,
+                  SSLEngine inEngine) {
+      SSLSession session = inEngine.getSession();
+
+      loop = inLoop;
+      channel = inChannel;
+      engine = inEngine;
+      netIn = ByteBuffer.allocate(session.getPacketBufferSize());
+      netOut = ByteBuffer.allocate(session.getPacketBufferSize());
+      appIn = ByteBuffer.allocate(session.getApplicationBufferSize());
+      appOut = EMPTY;
+      lastActivity = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes the connection.  It quietly does nothing, if the connection is
+     * already closed.
+     */
+    void close() {
+      if (closed)
+        return;
+
+      closed = true;
+      connectionCount.decrementAndGet();
+      if (key != null)
+        key.cancel();
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+      }
+    }
+
+    /**
+     * Handles the channel, when it is ready.
+     *
+     * @param inKey the selection key of the channel
+     */
+    void handle(SelectionKey inKey) {
+      try {
+        if (inKey.isReadable()) {
+          int n = channel.read(netIn);
+
+          if (n < 0) {
+            close();
+            return;
+          }
+          if (n > 0)
+            lastActivity = System.currentTimeMillis();
+        }
+
+        process();
+      } catch (Exception e) {
+        close();
+      }
+    }
+
+    /**
+     * Moves the data of the connection as far as possible: it sends the
+     * pending data, goes on with the handshake, sends the response,
+     * decrypts the data received and hands a complete request to the
+     * workers. It returns when it must wait for the channel or for a worker.
+     * The delegated tasks of the handshake run on a handshake worker, so
+     * that a slow handshake does not hold up the other connections of the
+     * event loop.
+     *
+     * @throws IOException if the channel or the TLS session failed
+     */
+    void process()
+      throws IOException {
+      while (!closed) {
+        if (!flush() || tasking)
+          return;
+
+        switch (engine.getHandshakeStatus()) {
+          case NEED_TASK:
+            if (delegate())
+              return;
+            continue;
+          case NEED_WRAP:
+            if (!wrap(EMPTY))
+              return;
+            continue;
+          case NEED_UNWRAP:
+            if (!unwrap())
+              return;
+            continue;
+          default:
+            break;
+        }
+
+        if (appOut.hasRemaining()) {
+          if (!wrap(appOut))
+            return;
+          continue;
+        }
+
+        if (responding) {
+          /* the response is sent */
+          responding = false;
+          if (closing) {
+            close();
+            return;
+          }
+          busy = false;
+          lastActivity = System.currentTimeMillis();
+          key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+          continue;
+        }
+
+        if (busy)
+          return;
+
+        if (dispatch())
+          continue;
+
+        if (!unwrap())
+          return;
+      }
+    }
+
+    /**
+     * Hands the request at the start of the input buffer to the workers, if
+     * it is complete.  The connection stops reading until the response is
+     * sent.
+     *
+     * @return <code>true</code> if a request was handed, or answered with an
+     *         error
+     */
+    private boolean dispatch() {
+      final int size;
+
+      try {
+        size = JidlProtocol.messageSize(appIn);
+      } catch (JidlProtocolException jpe) {
+        /* The stream is out of step: answer and close. */
+        reply(jpe.getStatusCode());
+        closing = true;
+        respond(0);
+        return true;
+      }
+
+      if (size < 0 || appIn.position() < size) {
+        if (size > appIn.capacity())
+          appIn = grow(appIn, size);
+        return false;
+      }
+
+      busy = true;
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+      ThreadPoolExecutor pool = workers;
+
+      try {
+        if (pool == null || pool.isShutdown())
+          /* The server is stopping. */
+          throw new RejectedExecutionException();
+        pool.execute(() -> handleRequest(size));
+      } catch (RejectedExecutionException e) {
+        /* Too many requests, or the server is stopping. */
+        reply(JidlProtocolStatusCode.BAD_RESPONSE_FAILED_REQUEST_HANDLING);
+        respond(size);
+      }
+
+      return true;
+    }
+
+    /**
+     * Hands the delegated tasks of the handshake to the handshake workers.
+     * The connection stops reading until they are done, then the event loop
+     * goes on with the handshake.  If the server is stopping, the tasks run
+     * on the event loop.
+     *
+     * @return <code>true</code> if the tasks were handed to a worker,
+     *         <code>false</code> if they ran on the event loop
+     */
+    private boolean delegate() {
+      ExecutorService pool = handshakeWorkers;
+
+      if (pool != null && !pool.isShutdown()) {
+        tasking = true;
+        key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+
+        try {
+          pool.execute(() -> {
+            runDelegatedTasks();
+            loop.execute(this::resume);
+          });
+          return true;
+        } catch (RejectedExecutionException e) {
+          /* The server is stopping. */
+          tasking = false;
+          if (!busy)
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+      }
+
+      runDelegatedTasks();
+      return false;
+    }
+
+    /**
+     * Goes on with the handshake on the event loop, once the delegated tasks
+     * are done.  The connection reads again, unless a request is being
+     * handled.
+     */
+    private void resume() {
+      if (closed)
+        return;
+
+      tasking = false;
+      lastActivity = System.currentTimeMillis();
+      try {
+        if (!busy)
+          key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        process();
+      } catch (Exception e) {
+        close();
+      }
+    }
+
+    /**
+     * Runs the delegated tasks of the handshake.
+     */
+    private void runDelegatedTasks() {
+      Runnable task;
+
+      while ((task = engine.getDelegatedTask()) != null) {
+        task.run();
+      }
+    }
+
+    /**
+     * Sends the pending encrypted data.  If the channel does not take all
+     * the data, it waits for the channel to be writable.
+     *
+     * @return <code>true</code> if there is no pending data left
+     * @throws IOException if writing to the channel failed
+     */
+    private boolean flush()
+      throws IOException {
+      if (netOut.position() > 0) {
+        netOut.flip();
+        channel.write(netOut);
+        netOut.compact();
+      }
+
+      if (netOut.position() > 0) {
+        key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        return false;
+      }
+
+      key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+      return true;
+    }
+
+    /**
+     * Handles a request and writes its response.  It runs on a worker, then
+     * the response is sent by the event loop.
+     *
+     * @param inSize the size of the request at the start of the input buffer
+     */
+    private void handleRequest(int inSize) {
+      boolean bad = false;
+
+      response.reset();
+      try {
+        JidlProtocol.Request req =
+          JidlProtocol.readRequest(new ByteArrayInputStream(appIn.array(), 0,
+                                                            inSize));
+        JsonObject result = null;
+        Exception exception = null;
+        try {
+          result = JidlProtocol.handleRequest(requestHandler, req);
+        } catch (Exception e) {
+          exception = e;
+        }
+
+        if (exception != null) {
+          //TODO: more informative text?
+          JidlProtocol.writeResponse(response, 
+                   JidlProtocolStatusCode.BAD_RESPONSE_FAILED_REQUEST_HANDLING);
+        } else {
+          /* answer with the same encoding of the request */
+          JidlProtocol.writeResponse(response, result, req.isBinary());
+        }
+      } catch (JidlProtocolException jpe) {
+        reply(jpe.getStatusCode());
+        bad = true;
+      } catch (Exception e) {
+        reply(JidlProtocolStatusCode.BAD_RESPONSE);
+        bad = true;
+      }
+
+      final boolean close = bad;
+
+      loop.execute(() -> {
+        if (closed)
+          return;
+        closing |= close;
+        try {
+          respond(inSize);
+          process();
+        } catch (Exception e) {
+          close();
+        }
+      });
+    }
+
+    /**
+     * Writes an error response.
+     *
+     * @param inStatusCode the status code of the response
+     */
+    private void reply(JidlProtocolStatusCode inStatusCode) {
+      response.reset();
+      try {
+        JidlProtocol.writeResponse(response, inStatusCode);
+      } catch (IOException ignored) {
+        /* it cannot happen, writing to memory */
+      }
+    }
+
+    /**
+     * Drops a request from the input buffer and starts sending its
+     * response.  If the connection is to be closed, the whole input is
+     * dropped.
+     *
+     * @param inSize the size of the request
+     */
+    private void respond(int inSize) {
+      if (closing) {
+        appIn.clear();
+      } else {
+        appIn.flip();
+        appIn.position(inSize);
+        appIn.compact();
+      }
+
+      busy = true;
+      responding = true;
+      appOut = response.toByteBuffer();
+    }
+
+    /**
+     * Decrypts the data received into the input buffer.
+     *
+     * @return <code>true</code> if some data was decrypted or the handshake
+     *         went on, <code>false</code> if more data must be received
+     * @throws IOException if the TLS session failed
+     */
+    private boolean unwrap()
+      throws IOException {
+      netIn.flip();
+      SSLEngineResult result = engine.unwrap(netIn, appIn);
+      netIn.compact();
+
+      switch (result.getStatus()) {
+        case BUFFER_UNDERFLOW:
+          int size = engine.getSession().getPacketBufferSize();
+          if (netIn.capacity() < size)
+            netIn = grow(netIn, size);
+          return false;
+        case BUFFER_OVERFLOW:
+          appIn = grow(appIn, appIn.capacity() +
+                              engine.getSession().getApplicationBufferSize());
+          return true;
+        case CLOSED:
+          close();
+          return false;
+        default:
+          return result.bytesConsumed() > 0 || result.bytesProduced() > 0 ||
+                 result.getHandshakeStatus() == 
+                   SSLEngineResult.HandshakeStatus.FINISHED;
+      }
+    }
+
+    /**
+     * Encrypts some data into the output buffer.
+     *
+     * @param inSource the data to encrypt, or an empty buffer for the
+     *                 handshake
+     * @return <code>true</code> if the data was encrypted, <code>false</code>
+     *         if it must wait for the channel to be writable
+     * @throws IOException if the channel or the TLS session failed
+     */
+    private boolean wrap(ByteBuffer inSource)
+      throws IOException {
+      SSLEngineResult result = engine.wrap(inSource, netOut);
+
+      switch (result.getStatus()) {
+        case BUFFER_OVERFLOW:
+          if (!flush())
+            return false;
+          netOut = grow(netOut, engine.getSession().getPacketBufferSize());
+          return true;
+        case CLOSED:
+          close();
+          return false;
+        default:
+          return true;
+      }
+    }
+  }
+
+  /**
+   * Returns a larger copy of a buffer being filled.
+   *
+   * @param inBuffer the buffer
+   * @param inCapacity the capacity of the new buffer
+   * @return the new buffer, with the same data and position, or the same
+   *         buffer if it is already large enough
+   */
+  private static ByteBuffer grow(ByteBuffer inBuffer, int inCapacity) {
+    if (inBuffer.capacity() >= inCapacity)
+      return inBuffer;
+
+    ByteBuffer buffer = ByteBuffer.allocate(inCapacity);
+
+    inBuffer.flip();
+    buffer.put(inBuffer);
+
+    return buffer;
+  }
+
+  /**
+   * ResponseBuffer
+   * A reusable buffer for the responses, which can be sent without copying
+   * its data.
+   *
+   * @version 0.8
+   * @author Stefano Guidoni
+   */
+  private static final class ResponseBuffer extends ByteArrayOutputStream {
+    /**
+     * Returns the data written, as a buffer ready to be read.  The buffer
+     * shares the data of this object.
+     *
+     * @return the data written
+     */
+    ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+}
@@ -27,7 +27,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
-import java.util.Map;
+import java.net.SocketTimeoutException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import javax.net.ServerSocketFactory;
@@ -46,12 +48,21 @@ import com.github.ilguido.jidl.utils.FileManager;
  * JidlProtocolServer
  * A class to manage a server for the Jidl Protocol.  It is based
  * on the ProcBribdge protocol.
+ * <p>
+ * A connection is kept open after a response, to serve the next requests of
+ * the same client, until the client closes it or it stays idle longer than
+ * the idle timeout.
  *
  * @version 0.8
  * @author Stefano Guidoni
  */
  
-public class JidlProtocolServer {
+public class JidlProtocolServer implements IPCServerInterface {
+  /**
+   * The default idle timeout of the connections, in milliseconds.
+   */
+  public static final int DEFAULT_IDLE_TIMEOUT = 30000;
+
   /**
    * This server is listening at this port.
    */
@@ -78,11 +89,21 @@ public class JidlProtocolServer {
    */
   private SSLServerSocket serverSocket;
   
+  /**
+   * The sockets of the open connections.
+   */
+  private final Set<Socket> sockets = ConcurrentHashMap.newKeySet();
+
   /**
    * Flag of server started.
    */
   private boolean started;
 
+  /**
+   * The idle timeout of the connections, in milliseconds.
+   */
+  private volatile int idleTimeout = DEFAULT_IDLE_TIMEOUT;
+
   /**
    * Initializes the server.  It can use an SSL context to generate the server
    * socket. If the SSL context is <code>null</code>, the default context will
@@ -118,6 +139,15 @@ public class JidlProtocolServer {
     return started;
   }
 
+  /**
+   * Returns the idle timeout of the connections.
+   *
+   * @return the idle timeout in milliseconds
+   */
+  public final int getIdleTimeout() {
+    return idleTimeout;
+  }
+
   /**
    * Returns the port of the server.
    *
@@ -127,6 +157,23 @@ public class JidlProtocolServer {
     return port;
   }
 
+  /**
+   * Sets the idle timeout of the connections.  A connection which receives
+   * no request for this time is closed. It applies to the connections opened
+   * after the call.
+   *
+   * @param inIdleTimeout the idle timeout in milliseconds
+   * @throws IllegalArgumentException if <code>inIdleTimeout</code> is not a
+   *                                  positive number
+   */
+  public void setIdleTimeout(int inIdleTimeout)
+    throws IllegalArgumentException {
+    if (inIdleTimeout < 1)
+      throw new IllegalArgumentException("Idle timeout must be a positive int");
+
+    idleTimeout = inIdleTimeout;
+  }
+
   /**
    * Starts the server.  It quietly does nothing, if the server was already
    * started.
@@ -168,8 +215,10 @@ public class JidlProtocolServer {
           JSConnection conn = new JSConnection(socket, requestHandler);
           synchronized (JidlProtocolServer.this) {
             if (!started) {
+              socket.close();
               return; // finish listener
             }
+            sockets.add(socket);
             executor.execute(conn);
           }
         } catch (IOException ioe) {
@@ -183,8 +232,8 @@ public class JidlProtocolServer {
   }
 
   /**
-   * Stops the server.  It also sets to <code>null</code> <code>executor</code>
-   * and <code>serverSocket</code>.
+   * Stops the server and closes the open connections.  It also sets to
+   * <code>null</code> <code>executor</code> and <code>serverSocket</code>.
    */
   public synchronized void stop() {
     if (!started) {
@@ -201,6 +250,13 @@ public class JidlProtocolServer {
     }
     serverSocket = null;
 
+    for (final Socket socket : sockets) {
+      try {
+        socket.close();
+      } catch (IOException ignored) {
+      }
+    }
+
     this.started = false;
   }
 
@@ -237,38 +293,78 @@ public class JidlProtocolServer {
     }
 
     /**
-     * Handles the request and writes the response.
+     * Handles the requests and writes the responses, until the client closes
+     * the connection or the idle timeout expires.
      */
     @Override
     public void run() {
       try {
+        socket.setSoTimeout(idleTimeout);
+        socket.setTcpNoDelay(true);
+
         OutputStream os = new BufferedOutputStream(socket.getOutputStream());
         InputStream is = new BufferedInputStream(socket.getInputStream());
 
-        Map.Entry<String, JsonObject> req = JidlProtocol.readRequest(is);
-        String method = req.getKey();
-        JsonObject payload = req.getValue();
+        while (hasRequest(is)) {
+          JidlProtocol.Request req;
 
-        JsonObject result = null;
-        Exception exception = null;
-        try {
-          result = requestHandler.handleRequest(method, payload);
-        } catch (Exception e) {
-          exception = e;
-        }
+          try {
+            req = JidlProtocol.readRequest(is);
+          } catch (JidlProtocolException jpe) {
+            /* The stream is out of step: answer and close. */
+            JidlProtocol.writeResponse(os, jpe.getStatusCode());
+            return;
+          }
 
-        if (exception != null) {
-          //TODO: more informative text?
-          JidlProtocol.writeResponse(os, 
+          JsonObject result = null;
+          Exception exception = null;
+          try {
+            result = JidlProtocol.handleRequest(requestHandler, req);
+          } catch (Exception e) {
+            exception = e;
+          }
+
+          if (exception != null) {
+            //TODO: more informative text?
+            JidlProtocol.writeResponse(os, 
                    JidlProtocolStatusCode.BAD_RESPONSE_FAILED_REQUEST_HANDLING);
-        } else {
-          JidlProtocol.writeResponse(os, result);
+          } else {
+            /* answer with the same encoding of the request */
+            JidlProtocol.writeResponse(os, result, req.isBinary());
+          }
         }
+      } catch (SocketTimeoutException ste) {
+        /* idle connection */
       } catch (Exception e) {
         //e.printStackTrace(logger);
+      } finally {
+        sockets.remove(socket);
+        try {
+          socket.close();
+        } catch (IOException ignored) {
+        }
       }
     }
 
+    /**
+     * Waits for the next request.
+     *
+     * @param inStream the input stream of the connection
+     * @return <code>true</code> if a request is arriving, <code>false</code>
+     *         if the client closed the connection
+     * @throws IOException if reading failed, or a
+     *                     <code>SocketTimeoutException</code> if the idle
+     *                     timeout expired
+     */
+    private boolean hasRequest(InputStream inStream)
+      throws IOException {
+      inStream.mark(1);
+      if (inStream.read() == -1)
+        return false;
+      inStream.reset();
+
+      return true;
+    }
   }
 
 }
@@ -37,13 +37,22 @@ public enum JidlProtocolStatusCode {
    *      01xxxx good response codes
    *      10xxxx bad response codes
    *      11xxxx reserved
+   * in requests and good responses, the bit x1xxxxx marks a binary body;
+   * bad responses always have a JSON body.
    */
   REQUEST(0, "request"),
   REQUEST_WITHOUT_METHOD(1, "request without method"),
   REQUEST_WITHOUT_PAYLOAD(2, "request without payload"),
   REQUEST_WITHOUT_METHOD_AND_PAYLOAD(3, "request without method and payload"),
+  REQUEST_BINARY(32, "binary request"),
+  REQUEST_BINARY_WITHOUT_METHOD(33, "binary request without method"),
+  REQUEST_BINARY_WITHOUT_PAYLOAD(34, "binary request without payload"),
+  REQUEST_BINARY_WITHOUT_METHOD_AND_PAYLOAD(35,
+                               "binary request without method and payload"),
   GOOD_RESPONSE(64, "OK"),
   GOOD_RESPONSE_WITH_PAYLOAD(65, "payload"), 
+  GOOD_RESPONSE_BINARY(96, "OK"),
+  GOOD_RESPONSE_BINARY_WITH_PAYLOAD(97, "payload"),
   BAD_RESPONSE(128, "error"),
   BAD_RESPONSE_UNRECOGNIZED_PROTOCOL(129, "unrecognized protocol"),
   BAD_RESPONSE_INCOMPLETE_DATA(130, "incomplete data"),
@@ -52,6 +61,11 @@ public enum JidlProtocolStatusCode {
   BAD_RESPONSE_BUFFER_OVERFLOW(133, "buffer overflow"),
   BAD_RESPONSE_FAILED_REQUEST_HANDLING(134, "failed request handling");
 
+  /**
+   * The bit of the raw value which marks a message with a binary body.
+   */
+  public static final int BINARY_FLAG = 0x20;
+
   /**
    * The numeric value of a status code.
    */
@@ -90,6 +104,22 @@ public enum JidlProtocolStatusCode {
     return null;
   }
   
+  /**
+   * Returns <code>true</code> if the provided status code is a request or a
+   * good response with a binary body.
+   *
+   * @param inStatusCode a JidlProtocolStatusCode
+   * @return <code>true</code> for a binary body, <code>false</code> for a JSON
+   *         body
+   */
+  public static boolean isBinary(final JidlProtocolStatusCode inStatusCode) {
+    if ((inStatusCode.rawValue & BINARY_FLAG) != 0 && !isBad(inStatusCode)) {
+      return true;
+    }
+    
+    return false;
+  }
+
   /**
    * Returns <code>true</code> if the provided status code is a bad response.
    *
@@ -39,9 +39,13 @@ import javax.net.ssl.SSLContext;
 import com.github.ilguido.jidl.datalogger.*;
 import com.github.ilguido.jidl.datalogger.dataloggerarchiver.DataLoggerArchiver;
 import com.github.ilguido.jidl.connectionmanager.*;
+import com.github.ilguido.jidl.ipc.JidlProtocolNioServer;
 import com.github.ilguido.jidl.utils.Decrypter;
 import com.github.ilguido.jidl.utils.FileManager;
+import com.github.ilguido.jidl.variable.Deadband;
 import com.github.ilguido.jidl.variable.VariableReader;
+import com.github.ilguido.jidl.variable.VariableWriter;
+import com.github.ilguido.jidl.variable.opcua.OPCUAVariableReader;
 
 /**
  * jidl
@@ -182,6 +186,92 @@ public class jidl implements DataTypes {
                                                sectionMap.get("type"));
         }
         Decrypter.setSecretKey(sectionMap.get("key"));
+        
+        /* Number of connections read or written concurrently. */
+        if (sectionMap.get("workers") != null) {
+          dataLogger.setAcquisitionWorkers(
+                                   Integer.parseInt(sectionMap.get("workers")));
+        }
+        
+        /* Write-behind buffer between the acquisition and the storage. */
+        if (sectionMap.get("buffer_size") != null) {
+          dataLogger.setBufferCapacity(
+                               Integer.parseInt(sectionMap.get("buffer_size")));
+        }
+        if (sectionMap.get("buffer_policy") != null) {
+          dataLogger.setBufferPolicy(
+                  StoragePolicy.valueOfPolicy(sectionMap.get("buffer_policy")));
+        }
+        if (sectionMap.get("storage_threads") != null) {
+          dataLogger.setStorageThreads(
+                           Integer.parseInt(sectionMap.get("storage_threads")));
+        }
+        if (sectionMap.get("replay_rate") != null) {
+          dataLogger.setReplayRate(
+                               Integer.parseInt(sectionMap.get("replay_rate")));
+        }
+        
+        /* Rows are stored in batches, by size or by time. */
+        if (dataLogger instanceof SQLDataLogger) {
+          SQLDataLogger sqldl = (SQLDataLogger) dataLogger;
+          
+          if (sectionMap.get("batch_size") != null) {
+            sqldl.setBatchSize(Integer.parseInt(sectionMap.get("batch_size")));
+          }
+          if (sectionMap.get("batch_interval") != null) {
+            sqldl.setBatchInterval(
+                               Long.parseLong(sectionMap.get("batch_interval")));
+          }
+          if (sectionMap.get("group_commit") != null) {
+            sqldl.setGroupCommitInterval(
+                                 Long.parseLong(sectionMap.get("group_commit")));
+          }
+          
+          /* Timestamps as text or as milliseconds since the epoch. */
+          String timestamp = sectionMap.get("timestamp");
+          if (timestamp != null) {
+            if (timestamp.trim().equalsIgnoreCase("epoch"))
+              sqldl.setEpochTimestamps(true);
+            else if (timestamp.trim().equalsIgnoreCase("text"))
+              sqldl.setEpochTimestamps(false);
+            else
+              throw new IllegalArgumentException("Unknown timestamp: " +
+                                                 timestamp);
+          }
+        }
+        
+        /* MonetDB bulk loading. */
+        if (dataLogger instanceof MonetDBDataLogger &&
+            sectionMap.get("copy_chunk") != null) {
+          ((MonetDBDataLogger) dataLogger).setCopyChunk(
+                                Integer.parseInt(sectionMap.get("copy_chunk")));
+        }
+        
+        /* MariaDB multi-row INSERT statements. */
+        if (dataLogger instanceof MariaDBDataLogger &&
+            sectionMap.get("multi_row") != null) {
+          ((MariaDBDataLogger) dataLogger).setMultiRowInsert(
+                             Boolean.parseBoolean(sectionMap.get("multi_row")));
+        }
+        
+        /* SQLite performance settings. */
+        if (dataLogger instanceof SQLiteDataLogger) {
+          SQLiteDataLogger sqlitedl = (SQLiteDataLogger) dataLogger;
+          
+          if (sectionMap.get("journal_mode") != null) {
+            sqlitedl.setJournalMode(sectionMap.get("journal_mode"));
+          }
+          if (sectionMap.get("synchronous") != null) {
+            sqlitedl.setSynchronous(sectionMap.get("synchronous"));
+          }
+          if (sectionMap.get("cache_size") != null) {
+            sqlitedl.setCacheSize(
+                                Integer.parseInt(sectionMap.get("cache_size")));
+          }
+          if (sectionMap.get("mmap_size") != null) {
+            sqlitedl.setMmapSize(Long.parseLong(sectionMap.get("mmap_size")));
+          }
+        }
       } else if (sectionMap.get("section").equals("dataarchiver")) {
         if (dataLogger.isArchiver()) {
           dataLogger.setArchivingService(
@@ -316,10 +406,26 @@ public class jidl implements DataTypes {
                                            e);
             }
             
-            dataLogger
-              .addIPCServer(Integer.parseInt(sectionMap.get("ipc_port")),
-                            remoteControl,
-                            sslctx);
+            if (Boolean.parseBoolean(sectionMap.get("ipc_nio"))) {
+              /* Non-blocking server, for many clients. */
+              dataLogger
+                .addIPCServer(Integer.parseInt(sectionMap.get("ipc_port")),
+                              remoteControl,
+                              sslctx,
+                              sectionMap.get("ipc_workers") == null ?
+                                JidlProtocolNioServer.DEFAULT_WORKERS :
+                                Integer.parseInt(sectionMap
+                                                   .get("ipc_workers")),
+                              sectionMap.get("ipc_max_connections") == null ?
+                                JidlProtocolNioServer.DEFAULT_MAX_CONNECTIONS :
+                                Integer.parseInt(sectionMap
+                                               .get("ipc_max_connections")));
+            } else {
+              dataLogger
+                .addIPCServer(Integer.parseInt(sectionMap.get("ipc_port")),
+                              remoteControl,
+                              sslctx);
+            }
           }
         } else if (sectionArray[1] == null) {
           ConnectionManager newc = null;
@@ -346,6 +452,11 @@ public class jidl implements DataTypes {
                             Boolean.parseBoolean(sectionMap.get("reversed")),
                                    parseSampleTime(sectionMap.get("seconds"),
                                              sectionMap.get("deciseconds")));
+                /* Unused registers read to merge two requests. */
+                if (sectionMap.get("gap") != null) {
+                  ((ModbusConnectionManager) newc).setGap(
+                                      Integer.parseInt(sectionMap.get("gap")));
+                }
                 break;
               case "opcua":
                 newc = new OPCUAConnectionManager(sectionMap.get("section"),
@@ -371,6 +482,35 @@ public class jidl implements DataTypes {
                                                    ": type = " +
                                                    sectionMap.get("type"));
             }
+            /* What to do when a cycle is due while the previous one is still
+             * running. */
+            if (sectionMap.get("overrun") != null) {
+              newc.setOverrunPolicy(
+                     OverrunPolicy.valueOfPolicy(sectionMap.get("overrun")));
+            }
+            /* Requests in flight at the same time. */
+            if (sectionMap.get("window") != null &&
+                newc instanceof PLCConnectionManager) {
+              ((PLCConnectionManager) newc).setWindow(
+                                 Integer.parseInt(sectionMap.get("window")));
+            }
+            /* Bounds of the adaptive timeouts of the requests. */
+            if ((sectionMap.get("timeout_min") != null ||
+                 sectionMap.get("timeout_max") != null) &&
+                newc instanceof PLCConnectionManager) {
+              ((PLCConnectionManager) newc).setTimeouts(
+                sectionMap.get("timeout_min") == null ?
+                  RttEstimator.DEFAULT_MIN_TIMEOUT :
+                  Long.parseLong(sectionMap.get("timeout_min")),
+                sectionMap.get("timeout_max") == null ?
+                  RttEstimator.DEFAULT_MAX_TIMEOUT :
+                  Long.parseLong(sectionMap.get("timeout_max")));
+            }
+            /* Log all the values or only the changed ones. */
+            if (sectionMap.get("report") != null) {
+              newc.setReportMode(
+                        ReportMode.valueOfMode(sectionMap.get("report")));
+            }
             /* If there is already a client for this connection, use that. */
             setExistingClientIfAvailable(list, newc);
             /* Add the connection to the list. */
@@ -415,19 +555,25 @@ public class jidl implements DataTypes {
                                                        );
                   }
                   
-                  wc.addVariableWriter(name, 
-                                       address, 
-                                       DataType.valueOfDataType(type),
-                                       vrSource);
+                  VariableWriter vw =
+                               wc.addVariableWriter(name,
+                                                    address,
+                                                    DataType.valueOfDataType(type),
+                                                    vrSource);
+                  parseWriteSchedule(vw, sectionMap);
                 } else {
                   /* Add a new VariableReader to the connection and to the map
                    * used to assign a source to VariableWriters.
                    */
-                  vrmap.put(fullname,
-                            cm.addVariableReader(name, 
-                                                 address, 
-                                                 DataType.valueOfDataType(type)
-                                                 ));
+                  VariableReader vr =
+                               cm.addVariableReader(name,
+                                                    address,
+                                                    DataType.valueOfDataType(type)
+                                                    );
+                  vr.setDeadband(parseDeadband(sectionMap));
+                  if (vr instanceof OPCUAVariableReader)
+                    parseSubscription((OPCUAVariableReader) vr, sectionMap);
+                  vrmap.put(fullname, vr);
                 }
                 break;
               }
@@ -443,6 +589,97 @@ public class jidl implements DataTypes {
     return list;
   }
   
+  /**
+   * Parses the change detection settings of a variable reader: the absolute
+   * deadband, the percent deadband and the heartbeat in seconds.
+   *
+   * @param inSectionMap the configuration of the variable reader
+   * @return the deadband of the variable, or <code>null</code> if none of
+   *         its settings is set
+   * @throws IllegalArgumentException if a setting is not a valid number
+   */
+  private static Deadband parseDeadband(Map<String, String> inSectionMap)
+    throws IllegalArgumentException {
+    String absolute = inSectionMap.get("deadband");
+    String percent = inSectionMap.get("deadband_percent");
+    String heartbeat = inSectionMap.get("heartbeat");
+
+    if (absolute == null && percent == null && heartbeat == null)
+      return null;
+
+    try {
+      return new Deadband(absolute == null ? 0 :
+                            Double.parseDouble(absolute.trim()),
+                          percent == null ? 0 :
+                            Double.parseDouble(percent.trim()),
+                          heartbeat == null ? 0 :
+                            Long.parseLong(heartbeat.trim()) * 1000);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(inSectionMap.get("section") +
+                                         ": illegal deadband value", e);
+    }
+  }
+
+  /**
+   * Parses the write-on-change settings of a variable writer: the minimum
+   * interval between two writes in milliseconds and the refresh period in
+   * seconds.
+   *
+   * @param inWriter the variable writer
+   * @param inSectionMap the configuration of the variable writer
+   * @throws IllegalArgumentException if a setting is not a valid number
+   */
+  private static void parseWriteSchedule(VariableWriter inWriter,
+                                         Map<String, String> inSectionMap)
+    throws IllegalArgumentException {
+    String minInterval = inSectionMap.get("min_interval");
+    String refresh = inSectionMap.get("refresh");
+
+    if (minInterval == null && refresh == null)
+      return;
+
+    try {
+      inWriter.getWriteSchedule()
+        .setIntervals(minInterval == null ? 0 :
+                        Long.parseLong(minInterval.trim()),
+                      refresh == null ? 0 :
+                        Long.parseLong(refresh.trim()) * 1000);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(inSectionMap.get("section") +
+                                         ": illegal write interval value", e);
+    }
+  }
+
+  /**
+   * Parses the subscription settings of a OPC UA variable reader: the
+   * sampling interval in milliseconds and the queue size. A variable
+   * without a sampling interval is polled.
+   *
+   * @param inReader the variable reader
+   * @param inSectionMap the configuration of the variable reader
+   * @throws IllegalArgumentException if a setting is not a valid number
+   */
+  private static void parseSubscription(OPCUAVariableReader inReader,
+                                        Map<String, String> inSectionMap)
+    throws IllegalArgumentException {
+    String sampling = inSectionMap.get("sampling");
+    String queueSize = inSectionMap.get("queue_size");
+
+    if (sampling == null && queueSize == null)
+      return;
+
+    try {
+      inReader.setSubscription(sampling == null ? 0 :
+                                 Long.parseLong(sampling.trim()),
+                               queueSize == null ?
+                                 OPCUAVariableReader.DEFAULT_QUEUE_SIZE :
+                                 Integer.parseInt(queueSize.trim()));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(inSectionMap.get("section") +
+                                         ": illegal subscription value", e);
+    }
+  }
+
   /**
    * Parses the sample time setting of a connection.  The sample time of a 
    * connection can be set in seconds or deciseconds, but not both. Sample times
@@ -481,7 +718,9 @@ public class jidl implements DataTypes {
   
   /**
    * Searches for and assigns an existing client to the connection, if found.
-   * Connections to the same device can reuse the same client.
+   * Connections to the same device can reuse the same client: the client of
+   * the first connection to the device is shared with the others, once it is
+   * initialized.
    *
    * @param inList the list of created {@link jidl.ConnectionManager} objects
    * @param inCM the newly created {@link jidl.ConnectionManager}
@@ -501,10 +740,11 @@ public class jidl implements DataTypes {
       if (inCM.getType().equals(cm.getType())) {
         if (inCM.getAddress().equals(cm.getAddress())) {
           try {
-            sc.setClient(cm.getClient());
+            sc.shareClientOf(cm);
           } catch (IllegalArgumentException iae) {
             //TODO: something?
           }
+          return;
         }
       }
     }
@@ -34,7 +34,8 @@ import com.github.cliftonlabs.json_simple.Jsoner;
 
 /**
  * JPJidlClient
- * A client for reading data from a Jidl Protocol connection.
+ * A client for reading data from a Jidl Protocol connection.  The connection
+ * to the server is kept open between two readings.
  *
  * @version 0.8
  * @author Stefano Guidoni
@@ -75,6 +76,12 @@ public class JPJidlClient implements JidlClient {
    * The read data as a <code>JsonObject</code>.
    */
   private JsonObject data;
+
+  /**
+   * It is <code>true</code> if the requests are to be sent with a binary
+   * body, when the server supports it.
+   */
+  private boolean binary = true;
   
   /**
    * Class constructor.  
@@ -103,6 +110,15 @@ public class JPJidlClient implements JidlClient {
     this.initialize();
   }
   
+  /**
+   * Closes the connection to the server, if it is open.  The next reading
+   * opens a new connection.
+   */
+  public void close() {
+    if (client != null)
+      client.close();
+  }
+
   /**
    * Returns the data from the last reading as a <code>JsonObject</code>.
    *
@@ -124,15 +140,18 @@ public class JPJidlClient implements JidlClient {
   }
   
   /**
-   * Reinitializes the client.
+   * Reinitializes the client.  The connection of the previous client, if
+   * any, is closed.
    *
    */
   public void initialize() {
+    close();
     this.client = new JidlProtocolClient(this.address,
                                          this.port,
                                          this.timeOut,
                                          this.executorService,
                                          this.sslContext);
+    this.client.setBinary(binary);
   }
   
   /**
@@ -144,6 +163,19 @@ public class JPJidlClient implements JidlClient {
     return client != null;
   }
   
+  /**
+   * Sets whether the requests are to be sent with a binary body, when the
+   * server supports it, or with a JSON body.
+   *
+   * @param inBinary <code>true</code> for binary bodies, <code>false</code>
+   *                 for JSON bodies
+   */
+  public void setBinary(boolean inBinary) {
+    binary = inBinary;
+    if (client != null)
+      client.setBinary(inBinary);
+  }
+
   /**
    * Reads the data from the remote HTTP server and returns this object.
    *
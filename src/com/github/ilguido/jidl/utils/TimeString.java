@@ -21,20 +21,35 @@
 
 package com.github.ilguido.jidl.utils;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.format.SignStyle;
+import java.time.temporal.ChronoField;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * TimeString
  * A class of static functions used to manipulate textual representations
- * of time and date.
+ * of time and date.  The formats are the patterns of
+ * <code>SimpleDateFormat</code>; each one is compiled once into a
+ * thread-safe formatter, which is cached.
  *
  * @version 0.8
  * @author Stefano Guidoni
  */
 
 public class TimeString {
+  /**
+   * The compiled formatters, by pattern.
+   */
+  private static final ConcurrentHashMap<String, DateTimeFormatter>
+                              formatters = new ConcurrentHashMap<>();
+
   /**
    * Converts a date to a string, according to the given format.
    *
@@ -43,8 +58,39 @@ public class TimeString {
    * @return the input date converted into a text string
    */
   public static String convertDateToString(Date inDate, String inFormat) {
-    DateFormat formatter = new SimpleDateFormat(inFormat);
-    return formatter.format(inDate);
+    return convertMillisToString(inDate.getTime(), inFormat);
+  }
+
+  /**
+   * Converts a time to a string, according to the given format.  The time is
+   * shown in the default time zone.
+   *
+   * @param inMillis the time in milliseconds since the epoch
+   * @param inFormat the format of the date as a string
+   * @return the input time converted into a text string
+   */
+  public static String convertMillisToString(long inMillis, String inFormat) {
+    return getFormatter(inFormat).format(Instant.ofEpochMilli(inMillis));
+  }
+
+  /**
+   * Converts a string to a time, according to the given format.  The string
+   * is read in the default time zone.
+   *
+   * @param inText the time as a text string
+   * @param inFormat the format of the date as a string
+   * @return the time in milliseconds since the epoch
+   * @throws IllegalArgumentException if the string does not match the format
+   */
+  public static long convertStringToMillis(String inText, String inFormat)
+    throws IllegalArgumentException {
+    try {
+      return LocalDateTime.parse(inText, getFormatter(inFormat))
+                          .atZone(ZoneId.systemDefault())
+                          .toInstant().toEpochMilli();
+    } catch (DateTimeParseException | NullPointerException e) {
+      throw new IllegalArgumentException("Not a valid time: " + inText, e);
+    }
   }
   
   /**
@@ -54,8 +100,7 @@ public class TimeString {
    * @return the input date converted into a text string
    */
   public static String getCurrentTimeAsString(String inFormat) {
-    Date now = new Date();
-    return convertDateToString(now, inFormat);
+    return convertMillisToString(System.currentTimeMillis(), inFormat);
   }
   
   /**
@@ -65,7 +110,70 @@ public class TimeString {
    * @return today date converted into a text string
    */
   public static String getTodayDateS() {
-    Date date = new Date() ;
-    return convertDateToString(date, "yyyy-MM-dd");
+    return getCurrentTimeAsString("yyyy-MM-dd");
+  }
+
+  /**
+   * Returns the formatter of a pattern, compiling it the first time.
+   *
+   * @param inFormat the format of the date as a string
+   * @return a thread-safe formatter
+   * @throws IllegalArgumentException if the pattern is not valid
+   */
+  private static DateTimeFormatter getFormatter(String inFormat)
+    throws IllegalArgumentException {
+    DateTimeFormatter f = formatters.get(inFormat);
+
+    if (f == null) {
+      f = compile(inFormat);
+      formatters.putIfAbsent(inFormat, f);
+    }
+
+    return f;
+  }
+
+  /**
+   * Compiles a <code>SimpleDateFormat</code> pattern.  The letters have the
+   * same meaning in both kinds of pattern, but for <code>S</code>: for
+   * <code>SimpleDateFormat</code> it is the number of milliseconds, not a
+   * fraction of second, so it is translated.
+   *
+   * @param inFormat the format of the date as a string
+   * @return a formatter in the default time zone
+   * @throws IllegalArgumentException if the pattern is not valid
+   */
+  private static DateTimeFormatter compile(String inFormat)
+    throws IllegalArgumentException {
+    DateTimeFormatterBuilder b = new DateTimeFormatterBuilder();
+    boolean quoted = false;
+    int start = 0;
+    int i = 0;
+
+    while (i < inFormat.length()) {
+      char c = inFormat.charAt(i);
+
+      if (c == '\'') {
+        quoted = !quoted;
+        i++;
+      } else if (c == 'S' && !quoted) {
+        int n = 0;
+
+        if (i > start)
+          b.appendPattern(inFormat.substring(start, i));
+        while (i < inFormat.length() && inFormat.charAt(i) == 'S') {
+          n++;
+          i++;
+        }
+        b.appendValue(ChronoField.MILLI_OF_SECOND, Math.min(n, 3),
+                      Math.max(n, 3), SignStyle.NOT_NEGATIVE);
+        start = i;
+      } else {
+        i++;
+      }
+    }
+    if (i > start)
+      b.appendPattern(inFormat.substring(start, i));
+
+    return b.toFormatter().withZone(ZoneId.systemDefault());
   }
 } 
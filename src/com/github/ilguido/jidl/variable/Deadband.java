@@ -0,0 +1,151 @@
+/**
+ * Deadband.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.variable;
+
+/**
+ * Deadband
+ * The change detection settings of a variable reader.  When a connection
+ * reports by exception, a new value of the variable is logged only if it
+ * differs from the last logged value by more than the deadband, or if the
+ * last logged value is older than the heartbeat.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public class Deadband {
+  /**
+   * The absolute deadband, in the units of the variable.
+   */
+  private final double absolute;
+
+  /**
+   * The relative deadband, as a percent of the last logged value.
+   */
+  private final double percent;
+
+  /**
+   * The maximum time between two logged values, in milliseconds, or zero.
+   */
+  private final long heartbeat;
+
+  /**
+   * Class constructor.  A zero deadband means any change is logged; if both
+   * deadbands are set, a change must exceed both of them to be logged.
+   *
+   * @param inAbsolute the absolute deadband, zero or a positive number
+   * @param inPercent the relative deadband as a percent of the last logged
+   *                  value, zero or a positive number
+   * @param inHeartbeat the maximum time between two logged values in
+   *                    milliseconds, zero for no heartbeat
+   * @throws IllegalArgumentException if any value is negative or not a number
+   */
+  public Deadband(double inAbsolute, double inPercent, long inHeartbeat)
+    throws IllegalArgumentException {
+    if (!(inAbsolute >= 0) || Double.isInfinite(inAbsolute))
+      throw new IllegalArgumentException("Invalid deadband: " + inAbsolute);
+    if (!(inPercent >= 0) || Double.isInfinite(inPercent))
+      throw new IllegalArgumentException("Invalid deadband percent: " +
+                                         inPercent);
+    if (inHeartbeat < 0)
+      throw new IllegalArgumentException("Invalid heartbeat: " +
+                                         inHeartbeat);
+
+    absolute = inAbsolute;
+    percent = inPercent;
+    heartbeat = inHeartbeat;
+  }
+
+  /**
+   * Returns the absolute deadband.
+   *
+   * @return the absolute deadband, in the units of the variable
+   */
+  public double getAbsolute() {
+    return absolute;
+  }
+
+  /**
+   * Returns the maximum time between two logged values.
+   *
+   * @return the heartbeat in milliseconds, zero if there is no heartbeat
+   */
+  public long getHeartbeat() {
+    return heartbeat;
+  }
+
+  /**
+   * Returns the relative deadband.
+   *
+   * @return the deadband as a percent of the last logged value
+   */
+  public double getPercent() {
+    return percent;
+  }
+
+  /**
+   * Checks whether the time since the last logged value is longer than the
+   * heartbeat.
+   *
+   * @param inElapsed the time since the last logged value, in milliseconds
+   * @return <code>true</code> if a value is due anyway
+   */
+  public boolean isHeartbeatDue(long inElapsed) {
+    return heartbeat > 0 && inElapsed >= heartbeat;
+  }
+
+  /**
+   * Checks whether a new value is outside the deadband around the last
+   * logged value.
+   *
+   * @param inLast the last logged value
+   * @param inValue the new value
+   * @return <code>true</code> if the new value is to be logged
+   */
+  public boolean isOutside(double inLast, double inValue) {
+    double delta = Math.abs(inValue - inLast);
+
+    if (Double.isNaN(delta))
+      /* A NaN is logged once, when it shows up or goes away. */
+      return Double.isNaN(inLast) != Double.isNaN(inValue);
+
+    if (delta == 0)
+      return false;
+    if (absolute > 0 && delta <= absolute)
+      return false;
+    if (percent > 0 && delta <= Math.abs(inLast) * percent / 100)
+      return false;
+
+    return true;
+  }
+
+  /**
+   * Returns the settings as text, for diagnostics.
+   *
+   * @return the deadbands and the heartbeat
+   */
+  @Override
+  public String toString() {
+    return "deadband " + absolute + ", " + percent + "%, heartbeat " +
+           heartbeat + " ms";
+  }
+}
@@ -0,0 +1,51 @@
+/**
+ * PlcVariableReader.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.variable;
+
+import org.apache.plc4x.java.api.messages.PlcReadResponse;
+
+/**
+ * PlcVariableReader
+ * Interface for a variable reader of a PLC4J connection.  The variable can be
+ * read as an item of a read request shared with other variables.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public interface PlcVariableReader extends VariableReader {
+  /**
+   * Sets the value of the variable from an item of a response.  The response
+   * code of the item must be checked by the caller.
+   *
+   * @param inResponse the response of a read request
+   * @param inFieldName the name of the item of the variable
+   */
+  public void decode(PlcReadResponse inResponse, String inFieldName);
+
+  /**
+   * Returns the address of the variable, as a PLC4J field query.
+   *
+   * @return the field query of the variable
+   */
+  public String getFieldQuery();
+}
@@ -0,0 +1,49 @@
+/**
+ * PlcVariableWriter.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.ilguido.jidl.variable;
+
+/**
+ * PlcVariableWriter
+ * Interface for a variable writer of a PLC4J connection.  The variable can be
+ * written as an item of a write request, sent without waiting for the
+ * responses of the other requests.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public interface PlcVariableWriter extends VariableWriter {
+  /**
+   * Returns the address of the variable, as a PLC4J field query.
+   *
+   * @return the field query of the variable
+   */
+  public String getFieldQuery();
+
+  /**
+   * Takes the value to write from the source variable and returns it.
+   *
+   * @return the value to write
+   */
+  public Object updateValue();
+}
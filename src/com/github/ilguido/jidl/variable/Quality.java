@@ -0,0 +1,45 @@
+/**
+ * Quality.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.variable;
+
+/**
+ * Quality
+ * The quality of the value of a variable reader, after the last reading.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public enum Quality {
+  /**
+   * The value was read from the device.
+   */
+  GOOD,
+  /**
+   * The last reading of the variable failed, the value is stale.
+   */
+  BAD,
+  /**
+   * The connection of the variable is down, the variable is not read.
+   */
+  DISCONNECTED
+}
@@ -0,0 +1,74 @@
+/**
+ * ValueSink.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.github.ilguido.jidl.variable;
+
+/**
+ * ValueSink
+ * Interface for a set of slots taking the values of the variables, e.g. a
+ * sample frame of the data logger.  A variable reader holding its value as
+ * a primitive number copies it without creating any object.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public interface ValueSink {
+  /**
+   * Sets a slot to a boolean value.
+   *
+   * @param inSlot the index of the slot
+   * @param inValue the value
+   */
+  public void setBoolean(int inSlot, boolean inValue);
+
+  /**
+   * Sets a slot to a double precision floating point value.
+   *
+   * @param inSlot the index of the slot
+   * @param inValue the value
+   */
+  public void setDouble(int inSlot, double inValue);
+
+  /**
+   * Sets a slot to a single precision floating point value.
+   *
+   * @param inSlot the index of the slot
+   * @param inValue the value
+   */
+  public void setFloat(int inSlot, float inValue);
+
+  /**
+   * Sets a slot to an integer value.
+   *
+   * @param inSlot the index of the slot
+   * @param inValue the value
+   */
+  public void setLong(int inSlot, long inValue);
+
+  /**
+   * Sets a slot to a value of any type.
+   *
+   * @param inSlot the index of the slot
+   * @param inValue the value, it can be <code>null</code>
+   */
+  public void setValue(int inSlot, Object inValue);
+}
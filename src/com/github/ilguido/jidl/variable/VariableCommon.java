@@ -54,6 +54,16 @@ public abstract class VariableCommon implements Variable {
    */
   private final DataType type;
 
+  /**
+   * The change detection settings of the variable, or <code>null</code>.
+   */
+  private Deadband deadband = null;
+
+  /**
+   * The quality of the value.
+   */
+  private volatile Quality quality = Quality.GOOD;
+
   /**
   * Class constructor.
   *
@@ -76,6 +86,16 @@ public abstract class VariableCommon implements Variable {
     name = Validator.validateString(inName);
   }
 
+  /**
+   * Copies the value of the variable into a slot, as an object.
+   *
+   * @param inSink the slots taking the value
+   * @param inSlot the index of the slot
+   */
+  public void copyValue(ValueSink inSink, int inSlot) {
+    inSink.setValue(inSlot, getValue());
+  }
+
   /**
    * Returns the address of the variable.
    *
@@ -85,6 +105,16 @@ public abstract class VariableCommon implements Variable {
     return address;
   }
   
+  /**
+   * Returns the change detection settings of the variable.
+   *
+   * @return the deadband of the variable, or <code>null</code> if it is not
+   *         set
+   */
+  public Deadband getDeadband() {
+    return deadband;
+  }
+
   /**
    * Returns the name of the variable.
    *
@@ -94,6 +124,15 @@ public abstract class VariableCommon implements Variable {
     return name;
   }
 
+  /**
+   * Returns the quality of the value of the variable.
+   *
+   * @return the quality after the last reading
+   */
+  public Quality getQuality() {
+    return quality;
+  }
+
   /**
    * Returns the type of the variable.
    *
@@ -112,16 +151,36 @@ public abstract class VariableCommon implements Variable {
     return value;
   }
   
+  /**
+   * Sets the change detection settings of the variable.
+   *
+   * @param inDeadband the deadband of the variable, or <code>null</code>
+   */
+  public void setDeadband(Deadband inDeadband) {
+    deadband = inDeadband;
+  }
+
+  /**
+   * Sets the quality of the value of the variable.
+   *
+   * @param inQuality the quality of the value
+   */
+  public void setQuality(Quality inQuality) {
+    quality = inQuality;
+  }
+
   /**
    * Converts the value of the variable to a string.
    *
    * @return the value of the variable as a string, or null if value is null
    */
   public String toString() {
-    if (value == null)
+    Object v = getValue();
+
+    if (v == null)
       return null;
     
-    return value.toString();
+    return v.toString();
   }
   
   /**
@@ -32,6 +32,30 @@ import java.io.IOException;
  */
 
 public interface VariableReader extends Variable {
+  /**
+   * Copies the value of the variable into a slot.  A primitive value is
+   * copied without boxing it.
+   *
+   * @param inSink the slots taking the value
+   * @param inSlot the index of the slot
+   */
+  public void copyValue(ValueSink inSink, int inSlot);
+
+  /**
+   * Returns the change detection settings of the variable.
+   *
+   * @return the deadband of the variable, or <code>null</code> if any change
+   *         of the value is to be logged
+   */
+  public Deadband getDeadband();
+
+  /**
+   * Returns the quality of the value of the variable.
+   *
+   * @return the quality after the last reading
+   */
+  public Quality getQuality();
+
   /**
    * Reads the value of the variable from the remote device and returns a
    * handle to itself.
@@ -42,4 +66,20 @@ public interface VariableReader extends Variable {
    * @throws Exception in case of error when reading a variable
    */
   public Variable read(Object inClient) throws IOException, Exception;
+
+  /**
+   * Sets the change detection settings of the variable.  They are used when
+   * the connection reports by exception.
+   *
+   * @param inDeadband the deadband of the variable, or <code>null</code>
+   */
+  public void setDeadband(Deadband inDeadband);
+
+  /**
+   * Sets the quality of the value of the variable.  It is set by the
+   * connection, after each reading.
+   *
+   * @param inQuality the quality of the value
+   */
+  public void setQuality(Quality inQuality);
 }
@@ -32,6 +32,13 @@ import java.io.IOException;
  */
 
 public interface VariableWriter extends Variable {
+  /**
+   * Returns the write-on-change settings and state of the variable.
+   *
+   * @return the write schedule of the variable
+   */
+  public WriteSchedule getWriteSchedule();
+
   /**
    * Writes the value of the variable to the remote device and returns a
    * handle to the written value.
@@ -0,0 +1,148 @@
+/**
+ * WriteSchedule.java
+ *
+ * Copyright (c) 2025 Stefano Guidoni
+ *
+ * This file is part of jidl.
+ *
+ * jidl is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * jidl is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with jidl.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package com.github.ilguido.jidl.variable;
+
+import java.util.Objects;
+
+/**
+ * WriteSchedule
+ * The write-on-change settings and state of a variable writer.  A value is
+ * written only if it differs from the last written value, but not sooner
+ * than the minimum interval after the last write; the refresh period forces
+ * a write of an unchanged value.
+ *
+ * @version 0.8
+ * @author Stefano Guidoni
+ */
+
+public class WriteSchedule {
+  /**
+   * The minimum time between two writes, in milliseconds, or zero.
+   */
+  private long minInterval = 0;
+
+  /**
+   * The maximum time between two writes, in milliseconds, or zero.
+   */
+  private long refresh = 0;
+
+  /**
+   * The last value written.
+   */
+  private Object lastValue = null;
+
+  /**
+   * The time of the last write in milliseconds since the epoch, or -1 if the
+   * value must be written anyway.
+   */
+  private long lastTime = -1;
+
+  /**
+   * Records that a write failed, so that the value is written again.
+   */
+  public synchronized void failed() {
+    lastTime = -1;
+  }
+
+  /**
+   * Returns the minimum time between two writes.
+   *
+   * @return the minimum interval in milliseconds, or zero
+   */
+  public synchronized long getMinInterval() {
+    return minInterval;
+  }
+
+  /**
+   * Returns the maximum time between two writes.
+   *
+   * @return the refresh period in milliseconds, or zero if an unchanged
+   *         value is never written again
+   */
+  public synchronized long getRefresh() {
+    return refresh;
+  }
+
+  /**
+   * Returns <code>true</code> if a value is to be written now.
+   *
+   * @param inValue the value to write
+   * @param inNow the current time in milliseconds since the epoch
+   * @return <code>true</code> if the value is to be written
+   */
+  public synchronized boolean isDue(Object inValue, long inNow) {
+    if (lastTime < 0)
+      return true;
+
+    long elapsed = inNow - lastTime;
+
+    if (elapsed < minInterval)
+      return false;
+
+    if (refresh > 0 && elapsed >= refresh)
+      return true;
+
+    return !Objects.equals(inValue, lastValue);
+  }
+
+  /**
+   * Forgets the last written value, so that the next value is written
+   * anyway, e.g. after the connection is established again.
+   */
+  public synchronized void reset() {
+    lastValue = null;
+    lastTime = -1;
+  }
+
+  /**
+   * Sets the minimum interval and the refresh period.
+   *
+   * @param inMinInterval the minimum time between two writes in
+   *                      milliseconds, or zero
+   * @param inRefresh the maximum time between two writes in milliseconds,
+   *                  or zero
+   * @throws IllegalArgumentException if a value is negative
+   */
+  public synchronized void setIntervals(long inMinInterval, long inRefresh)
+    throws IllegalArgumentException {
+    if (inMinInterval < 0)
+      throw new IllegalArgumentException("Invalid minimum interval: " +
+                                         inMinInterval);
+    if (inRefresh < 0)
+      throw new IllegalArgumentException("Invalid refresh: " + inRefresh);
+
+    minInterval = inMinInterval;
+    refresh = inRefresh;
+  }
+
+  /**
+   * Records that a value is being written.
+   *
+   * @param inValue the value written
+   * @param inNow the current time in milliseconds since the epoch
+   */
+  public synchronized void written(Object inValue, long inNow) {
+    lastValue = inValue;
+    lastTime = inNow;
+  }
+}
@@ -26,8 +26,9 @@ import java.util.Objects;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.github.ilguido.jidl.variable.PlcVariableReader;
+import com.github.ilguido.jidl.variable.ValueSink;
 import com.github.ilguido.jidl.variable.Variable;
-import com.github.ilguido.jidl.variable.VariableReader;
 import org.apache.plc4x.java.api.PlcConnection;
 import org.apache.plc4x.java.api.messages.PlcReadRequest;
 import org.apache.plc4x.java.api.messages.PlcReadResponse;
@@ -36,17 +37,45 @@ import org.apache.plc4x.java.api.types.PlcResponseCode;
 /**
  * ModbusVariableReader
  * Class for reading a variable from an industrial device through a Modbus TCP
- * connection.
+ * connection.  A numeric value is kept as its raw bits, and it is boxed
+ * only when it is asked for as an object.
  *
  * @version 0.8
  * @author Stefano Guidoni
  */
 
 public class ModbusVariableReader extends ModbusVariable 
-                                  implements VariableReader {
+                                  implements PlcVariableReader {
   /**
-   * Class constructor.  It calls the parent class constructor and then sets the
-   * client property.
+   * The decoder of the registers of the variable.
+   */
+  private final ModbusCodec codec;
+
+  /**
+   * The bits of the value of a numeric variable, see
+   * {@link ModbusCodec#decodeBits}.
+   */
+  private long bits = 0;
+
+  /**
+   * This is <code>true</code> once the value of a numeric variable is
+   * decoded.
+   */
+  private boolean decoded = false;
+
+  /**
+   * The request reading the variable on its own, or <code>null</code>.
+   */
+  private PlcReadRequest readRequest = null;
+
+  /**
+   * The client of the read request.
+   */
+  private PlcConnection requestClient = null;
+
+  /**
+   * Class constructor.  It calls the parent class constructor.  The requests
+   * are built later, by the connection, when the data logging starts.
    *
    * @param inName the mnemonic name of the variable
    * @param inAddress the address of the variable, its format depends on the
@@ -64,16 +93,84 @@ public class ModbusVariableReader extends ModbusVariable
     throws IllegalArgumentException {
     super(inName, inAddress, inType, inClient, inOrder);
 
-    /* If there is a working client, check the connection to the variable. */
-    if (inClient != null) {
-      PlcReadRequest readRequest = inClient.readRequestBuilder()
-        .addItem(inName, inAddress + this.getAddressSuffix())
-        .build();
+    codec = new ModbusCodec(inType, this.getTagSize(), inOrder);
+  }
+
+  /**
+   * Sets the value of the variable from an item of a response.
+   *
+   * @param inResponse the response of a read request
+   * @param inFieldName the name of the item of the variable
+   */
+  @Override
+  public void decode(PlcReadResponse inResponse, String inFieldName) {
+    decode(inResponse, inFieldName, 0);
+  }
+
+  /**
+   * Sets the value of the variable from the registers or coils of a
+   * response.  The response can hold a block of registers or coils, starting
+   * before the variable.
+   *
+   * @param inResponse the response of a successful read request
+   * @param inFieldName the name of the field holding the variable
+   * @param inOffset the index of the first register or coil of the variable
+   *                 in the field
+   */
+  public void decode(PlcReadResponse inResponse,
+                     String inFieldName,
+                     int inOffset) {
+    if (codec.isPrimitive()) {
+      bits = codec.decodeBits(inResponse, inFieldName, inOffset);
+      decoded = true;
+    } else {
+      value = codec.decode(inResponse, inFieldName, inOffset);
     }
   }
 
+  /**
+   * Copies the value of the variable into a slot.  A numeric value is
+   * copied without boxing it.
+   *
+   * @param inSink the slots taking the value
+   * @param inSlot the index of the slot
+   */
+  @Override
+  public void copyValue(ValueSink inSink, int inSlot) {
+    if (decoded)
+      codec.copy(bits, inSink, inSlot);
+    else
+      inSink.setValue(inSlot, value);
+  }
+
+  /**
+   * Returns the address of the variable, as a PLC4J field query.
+   *
+   * @return the field query of the variable
+   */
+  @Override
+  public String getFieldQuery() {
+    return this.getAddress() + this.getAddressSuffix();
+  }
+
+  /**
+   * Returns the value of the variable as an object.  A numeric value is
+   * boxed at each call.
+   *
+   * @return the value of the variable, or <code>null</code> if it was not
+   *         read yet
+   */
+  @Override
+  public Object getValue() {
+    if (decoded)
+      return codec.box(bits);
+
+    return value;
+  }
+
   /**
    * Reads the value of the variable from the remote device and returns itself.
+   * The request is built once for each client.
    *
    * @param inClient a <code>PlcConnection</code> object from the PLC4J library
    * @return <code>this</code>
@@ -84,9 +181,13 @@ public class ModbusVariableReader extends ModbusVariable
   public Variable read(Object inClient)
     throws IOException, Exception {
     PlcConnection client = (PlcConnection) inClient;
-    PlcReadRequest readRequest = client.readRequestBuilder()
-      .addItem(this.getName(), this.getAddress() + this.getAddressSuffix())
-      .build();
+
+    if (readRequest == null || client != requestClient) {
+      readRequest = client.readRequestBuilder()
+        .addItem(this.getName(), this.getAddress() + this.getAddressSuffix())
+        .build();
+      requestClient = client;
+    }
       
     //TODO: differentiate between connection errors and configuration errors
     PlcReadResponse response = readRequest.execute().get(3, SECONDS);
@@ -95,39 +196,7 @@ public class ModbusVariableReader extends ModbusVariable
       if(response.getResponseCode(fieldName) != PlcResponseCode.OK) {
         throw new Exception("Cannot read from connection");
       } else {
-        if (this.getTagSize() == 1) {
-          value = response.getObject(fieldName);
-        } else {
-          Object items[] = new Object[this.getTagSize()];
-          for(int i = 0; i < this.getTagSize(); i++) {
-            if (this.isReversed())
-              items[i] = response.getObject(fieldName, i);
-            else
-              items[this.getTagSize() - i - 1] = 
-                                               response.getObject(fieldName, i);
-          }
-          if (this.getType() == DataType.TEXT) {
-            String s = "";
-            for (Object o : items) {
-              int i = Integer.parseInt(o.toString());
-              s += (char) i;
-            }
-            value = s;
-          } else {
-            // DOUBLE_INTEGER or REAL
-            int intValue = 0;
-            for (Object o : items) {
-              int i = Integer.parseInt(o.toString());
-              intValue = (intValue << 16) + (i & 0xFFFF);
-            }
-            if (this.getType() == DataType.DOUBLE_INTEGER ||
-                this.getType() == DataType.DOUBLE_WORD)
-              value = Integer.valueOf(intValue);
-            else
-              //REAL
-              value = Float.intBitsToFloat(intValue);
-          }
-        }
+        decode(response, fieldName);
       }
     }
     
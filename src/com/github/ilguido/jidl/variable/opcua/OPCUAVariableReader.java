@@ -22,32 +22,124 @@
 package com.github.ilguido.jidl.variable.opcua;
 
 import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.github.ilguido.jidl.variable.Deadband;
+import com.github.ilguido.jidl.variable.PlcVariableReader;
+import com.github.ilguido.jidl.variable.Quality;
 import com.github.ilguido.jidl.variable.Variable;
-import com.github.ilguido.jidl.variable.VariableReader;
 import org.apache.plc4x.java.api.PlcConnection;
 import org.apache.plc4x.java.api.messages.PlcReadRequest;
 import org.apache.plc4x.java.api.messages.PlcReadResponse;
+import org.apache.plc4x.java.api.messages.PlcSubscriptionEvent;
 import org.apache.plc4x.java.api.types.PlcResponseCode;
 
 /**
  * OPCUAVariableReader
  * Class for reading a variable from an industrial device through a OPC UA
- * connection.
+ * connection.  The variable is either polled or, if it has a sampling
+ * interval, monitored by a subscription: the server pushes its changes,
+ * which are queued until the next reading.
  *
  * @version 0.8
  * @author Stefano Guidoni
  */
 
 public class OPCUAVariableReader extends OPCUAVariable 
-                                 implements VariableReader {
+                                 implements PlcVariableReader {
   /**
-   * Class constructor.  It calls the parent class constructor and then sets the
-   * readRequest property.
+   * The default number of changes kept between two readings.
+   */
+  public static final int DEFAULT_QUEUE_SIZE = 1;
+
+  /**
+   * A change pushed by the server.
+   */
+  private static final class Change {
+    /**
+     * The new value, or <code>null</code> if the change is bad.
+     */
+    final Object value;
+
+    /**
+     * The time the change was received in milliseconds since the epoch.
+     */
+    final long time;
+
+    /**
+     * <code>true</code> if the server reported the value as good.
+     */
+    final boolean good;
+
+    /**
+     * Class constructor.
+     *
+     * @param inValue the new value
+     * @param inTime the receive time in milliseconds since the epoch
+     * @param inGood <code>true</code> if the value is good
+     */
+    Change(Object inValue, long inTime, boolean inGood) {
+      value = inValue;
+      time = inTime;
+      good = inGood;
+    }
+  }
+
+  /**
+   * The changes received and not yet applied, the oldest first.
+   */
+  private final ArrayDeque<Change> changes = new ArrayDeque<Change>();
+
+  /**
+   * The number of changes dropped because the queue was full.
+   */
+  private volatile long droppedCount = 0;
+
+  /**
+   * The last value queued, to apply the deadband.
+   */
+  private Object lastQueued = null;
+
+  /**
+   * The receive time of the last value queued.
+   */
+  private long lastQueuedTime = -1;
+
+  /**
+   * The maximum number of changes kept between two readings.
+   */
+  private int queueSize = DEFAULT_QUEUE_SIZE;
+
+  /**
+   * The sampling interval of the subscription in milliseconds, or 0 if the
+   * variable is polled.
+   */
+  private long samplingInterval = 0;
+
+  /**
+   * The receive time of the current value in milliseconds since the epoch,
+   * or -1 if it is not known.
+   */
+  private long changeTimestamp = -1;
+
+  /**
+   * The request reading the variable on its own, or <code>null</code>.
+   */
+  private PlcReadRequest readRequest = null;
+
+  /**
+   * The client of the read request.
+   */
+  private PlcConnection requestClient = null;
+
+  /**
+   * Class constructor.  It calls the parent class constructor.  The requests
+   * are built later, by the connection, when the data logging starts.
    *
    * @param inName the mnemonic name of the variable
    * @param inAddress the address of the variable, its format depends on the
@@ -63,17 +155,198 @@ public class OPCUAVariableReader extends OPCUAVariable
                              PlcConnection inClient)
     throws IllegalArgumentException {
     super(inName, inAddress, inType, inClient);
-    
-    /* If there is a working client, check the connection to the variable. */
-    if (inClient != null) {
-      PlcReadRequest readRequest = inClient.readRequestBuilder()
-        .addItem(inName, inAddress)
-        .build();
+  }
+
+  /**
+   * Sets the value of the variable from an item of a response.
+   *
+   * @param inResponse the response of a read request
+   * @param inFieldName the name of the item of the variable
+   */
+  @Override
+  public void decode(PlcReadResponse inResponse, String inFieldName) {
+    value = inResponse.getObject(inFieldName);
+  }
+
+  /**
+   * Sets the current value to the oldest change received and not yet
+   * applied.
+   *
+   * @return <code>false</code> if there is no change to apply
+   */
+  public boolean applyNext() {
+    Change c;
+
+    synchronized (changes) {
+      c = changes.poll();
     }
+
+    if (c == null)
+      return false;
+
+    value = c.value;
+    changeTimestamp = c.time;
+    setQuality(c.good ? Quality.GOOD : Quality.BAD);
+
+    return true;
+  }
+
+  /**
+   * Returns the number of changes dropped because they were more than the
+   * queue size.
+   *
+   * @return the number of dropped changes
+   */
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  /**
+   * Returns the receive time of the oldest change not yet applied.
+   *
+   * @return the timestamp in milliseconds since the epoch, or -1 if there is
+   *         no pending change
+   */
+  public long getNextTimestamp() {
+    synchronized (changes) {
+      Change c = changes.peek();
+
+      return c == null ? -1 : c.time;
+    }
+  }
+
+  /**
+   * Returns the number of changes received and not yet applied.
+   *
+   * @return the number of pending changes
+   */
+  public int getPendingCount() {
+    synchronized (changes) {
+      return changes.size();
+    }
+  }
+
+  /**
+   * Returns the maximum number of changes kept between two readings.
+   *
+   * @return the queue size
+   */
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  /**
+   * Returns the sampling interval of the subscription.
+   *
+   * @return the sampling interval in milliseconds, or 0 if the variable is
+   *         polled
+   */
+  public long getSamplingInterval() {
+    return samplingInterval;
+  }
+
+  /**
+   * Returns the time the current value was received.  This is the time of
+   * the notification which carried it: the PLC4X driver does not give the
+   * source timestamp of the monitored items, so changes notified together
+   * share the same time.
+   *
+   * @return the timestamp in milliseconds since the epoch, or -1 if it is
+   *         not known
+   */
+  public long getChangeTimestamp() {
+    return changeTimestamp;
+  }
+
+  /**
+   * Returns <code>true</code> if the variable is to be monitored by a
+   * subscription.
+   *
+   * @return <code>true</code> if the variable has a sampling interval
+   */
+  public boolean isSubscribed() {
+    return samplingInterval > 0;
+  }
+
+  /**
+   * Queues a change pushed by the server.  A numeric change inside the
+   * deadband of the variable is discarded, unless its heartbeat is due. If
+   * the queue is full, the oldest change is dropped.
+   *
+   * @param inEvent the event of the subscription
+   * @param inFieldName the name of the item of the variable
+   */
+  public void notify(PlcSubscriptionEvent inEvent, String inFieldName) {
+    boolean good = inEvent.getResponseCode(inFieldName) == PlcResponseCode.OK;
+    Instant time = inEvent.getTimestamp();
+    long t = (time == null ? System.currentTimeMillis() : time.toEpochMilli());
+    Object v = null;
+
+    if (good) {
+      try {
+        v = inEvent.getObject(inFieldName);
+      } catch (Exception e) {
+        /* A value which cannot be decoded. */
+        good = false;
+      }
+    }
+
+    synchronized (changes) {
+      Deadband d = getDeadband();
+
+      if (d != null && v instanceof Number &&
+          lastQueued instanceof Number &&
+          !d.isOutside(((Number) lastQueued).doubleValue(),
+                       ((Number) v).doubleValue()) &&
+          !d.isHeartbeatDue(t - lastQueuedTime))
+        return;
+
+      if (changes.size() >= queueSize) {
+        changes.poll();
+        droppedCount++;
+      }
+
+      changes.add(new Change(v, t, good));
+      lastQueued = v;
+      lastQueuedTime = t;
+    }
+  }
+
+  /**
+   * Sets the subscription of the variable.
+   *
+   * @param inSamplingInterval the sampling interval in milliseconds, or 0 to
+   *                           poll the variable
+   * @param inQueueSize the maximum number of changes kept between two
+   *                    readings
+   * @throws IllegalArgumentException if the sampling interval is negative or
+   *                                  the queue size is not positive
+   */
+  public void setSubscription(long inSamplingInterval, int inQueueSize)
+    throws IllegalArgumentException {
+    if (inSamplingInterval < 0)
+      throw new IllegalArgumentException("Negative sampling interval: " +
+                                         inSamplingInterval);
+    if (inQueueSize < 1)
+      throw new IllegalArgumentException("Queue size must be a positive int");
+
+    samplingInterval = inSamplingInterval;
+    queueSize = inQueueSize;
+  }
+
+  /**
+   * Returns the address of the variable, as a PLC4J field query.
+   *
+   * @return the field query of the variable
+   */
+  @Override
+  public String getFieldQuery() {
+    return this.getAddress();
   }
 
   /**
    * Reads the value of the variable from the remote device and returns itself.
+   * The request is built once for each client.
    *
    * @param inClient a <code>PlcConnection</code> object from the PLC4J library
    * @return <code>this</code>
@@ -84,9 +357,13 @@ public class OPCUAVariableReader extends OPCUAVariable
   public Variable read(Object inClient) 
     throws IOException, Exception {
     PlcConnection client = (PlcConnection) inClient;
-    PlcReadRequest readRequest = client.readRequestBuilder()
-      .addItem(this.getName(), this.getAddress())
-      .build();
+
+    if (readRequest == null || client != requestClient) {
+      readRequest = client.readRequestBuilder()
+        .addItem(this.getName(), this.getAddress())
+        .build();
+      requestClient = client;
+    }
       
     //TODO: differentiate between connection errors and configuration errors
     PlcReadResponse response = readRequest.execute().get(1, SECONDS);
@@ -95,7 +372,7 @@ public class OPCUAVariableReader extends OPCUAVariable
       if(response.getResponseCode(fieldName) != PlcResponseCode.OK) {
         throw new Exception("Cannot read from connection");
       } else {
-        value = response.getObject(fieldName);
+        decode(response, fieldName);
       }
     }
     
@@ -26,8 +26,8 @@ import java.util.Objects;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.github.ilguido.jidl.variable.PlcVariableReader;
 import com.github.ilguido.jidl.variable.Variable;
-import com.github.ilguido.jidl.variable.VariableReader;
 import org.apache.plc4x.java.api.PlcConnection;
 import org.apache.plc4x.java.api.messages.PlcReadRequest;
 import org.apache.plc4x.java.api.messages.PlcReadResponse;
@@ -43,10 +43,20 @@ import org.apache.plc4x.java.api.types.PlcResponseCode;
  */
 
 public class S7VariableReader extends S7Variable
-                              implements VariableReader {
+                              implements PlcVariableReader {
   /**
-   * Class constructor.  It calls the parent class constructor and then sets the
-   * client property.
+   * The request reading the variable on its own, or <code>null</code>.
+   */
+  private PlcReadRequest readRequest = null;
+
+  /**
+   * The client of the read request.
+   */
+  private PlcConnection requestClient = null;
+
+  /**
+   * Class constructor.  It calls the parent class constructor.  The requests
+   * are built later, by the connection, when the data logging starts.
    *
    * @param inName the mnemonic name of the variable
    * @param inAddress the address of the variable, its format depends on the
@@ -61,17 +71,32 @@ public class S7VariableReader extends S7Variable
                           PlcConnection inClient)
     throws IllegalArgumentException {
     super(inName, inAddress, inType, inClient);
+  }
 
-    /* If there is a working client, check the connection to the variable. */
-    if (inClient != null) {
-      PlcReadRequest readRequest = inClient.readRequestBuilder()
-        .addItem(inName, getPLC4JAddress())
-        .build();
-    }
+  /**
+   * Sets the value of the variable from an item of a response.
+   *
+   * @param inResponse the response of a read request
+   * @param inFieldName the name of the item of the variable
+   */
+  @Override
+  public void decode(PlcReadResponse inResponse, String inFieldName) {
+    value = inResponse.getObject(inFieldName);
+  }
+
+  /**
+   * Returns the address of the variable, as a PLC4J field query.
+   *
+   * @return the field query of the variable
+   */
+  @Override
+  public String getFieldQuery() {
+    return getPLC4JAddress();
   }
 
   /**
    * Reads the value of the variable from the remote device and returns itself.
+   * The request is built once for each client.
    *
    * @param inClient a <code>PlcConnection</code> object from the PLC4J library
    * @return <code>this</code>
@@ -82,9 +107,13 @@ public class S7VariableReader extends S7Variable
   public Variable read(Object inClient)
     throws IOException, Exception {
     PlcConnection client = (PlcConnection) inClient;
-    PlcReadRequest readRequest = client.readRequestBuilder()
-      .addItem(this.getName(), getPLC4JAddress())
-      .build();
+
+    if (readRequest == null || client != requestClient) {
+      readRequest = client.readRequestBuilder()
+        .addItem(this.getName(), getPLC4JAddress())
+        .build();
+      requestClient = client;
+    }
       
     //TODO: differentiate between connection errors and configuration errors
     PlcReadResponse response = readRequest.execute().get(1, SECONDS);
@@ -92,7 +121,7 @@ public class S7VariableReader extends S7Variable
       if(response.getResponseCode(fieldName) != PlcResponseCode.OK) {
         throw new Exception("Cannot read from connection");
       } else {
-        value = response.getObject(fieldName);
+        decode(response, fieldName);
       }
     }
     
@@ -26,9 +26,10 @@ import java.util.Objects;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 
+import com.github.ilguido.jidl.variable.PlcVariableWriter;
 import com.github.ilguido.jidl.variable.Variable;
 import com.github.ilguido.jidl.variable.VariableReader;
-import com.github.ilguido.jidl.variable.VariableWriter;
+import com.github.ilguido.jidl.variable.WriteSchedule;
 import org.apache.plc4x.java.api.PlcConnection;
 import org.apache.plc4x.java.api.messages.PlcWriteRequest;
 import org.apache.plc4x.java.api.messages.PlcWriteResponse;
@@ -44,15 +45,20 @@ import org.apache.plc4x.java.api.types.PlcResponseCode;
  */
 
 public class S7VariableWriter extends S7Variable
-                              implements VariableWriter {
+                              implements PlcVariableWriter {
   /**
    * The source for the data to be written.
    */
   private final VariableReader source;
+
+  /**
+   * The write-on-change settings and state of the variable.
+   */
+  private final WriteSchedule writeSchedule = new WriteSchedule();
   
   /**
-   * Class constructor.  It calls the parent class constructor and then sets the
-   * client property.
+   * Class constructor.  It calls the parent class constructor.  The requests
+   * are built later, by the connection, when the data logging starts.
    *
    * @param inName the mnemonic name of the variable
    * @param inAddress the address of the variable, its format depends on the
@@ -72,13 +78,37 @@ public class S7VariableWriter extends S7Variable
 
     source = inSource;
     value = 0; // default value
-    
-    /* If there is a working client, check the connection to the variable. */
-    if (inClient != null) {
-      PlcWriteRequest writeRequest = inClient.writeRequestBuilder()
-        .addItem(inName, getPLC4JAddress(), value)
-        .build();
-    }
+  }
+
+  /**
+   * Returns the address of the variable, as a PLC4J field query.
+   *
+   * @return the field query of the variable
+   */
+  @Override
+  public String getFieldQuery() {
+    return getPLC4JAddress();
+  }
+
+  /**
+   * Returns the write-on-change settings and state of the variable.
+   *
+   * @return the write schedule of the variable
+   */
+  @Override
+  public WriteSchedule getWriteSchedule() {
+    return writeSchedule;
+  }
+
+  /**
+   * Takes the value to write from the source variable and returns it.
+   *
+   * @return the value to write
+   */
+  @Override
+  public Object updateValue() {
+    value = source.getValue();
+    return value;
   }
 
   /**